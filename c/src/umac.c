@@ -70,7 +70,7 @@ static void _umac_tx(umac *u, umac_pkt *pkt) {
   CFG_UMAC_DBG(u, "TX: seq %x, %s\n", pkt->seqno, pkt->pkt_type == UMAC_PKT_REQ_ACK ? "sync" : "unsync");
   uint16_t crc;
   u->tmp[0] = UMAC_PREAMBLE;
-  uint16_t hlen = pkt->length == 0 ? 0 : (((((pkt->length-1)>>8) + 1) << 8) | (pkt->length - 1));
+  uint16_t hlen = pkt->length == 0 ? 0 : (((((pkt->length-1)>>8) + 1) << 8) | ((pkt->length - 1) & 0xff));
   u->tmp[1] = (pkt->pkt_type << 6) | ((pkt->seqno & 0xf) << 2) | (hlen >> 8);
   if (hlen == 0) {
     crc = _crc_buf(UMAC_INIT_CRC, &u->tmp[1], 1);
@@ -334,7 +334,7 @@ static void _umac_parse_char(umac *u, uint8_t c) {
     u->rx_state = u->rx_pkt.length == 0 ? UMST_RX_CRC_HI : UMST_RX_EXP_HDR_LO;
     break;
   case UMST_RX_EXP_HDR_LO:
-    u->rx_pkt.length = ((u->rx_pkt.length - 1) << 8) | (c + 1);
+    u->rx_pkt.length = ((u->rx_pkt.length - 1) << 8) + (c + 1);
     u->rx_local_crc = _crc_ccitt_16(u->rx_local_crc, c);
     u->rx_data_cnt = 0;
     u->rx_state = UMST_RX_DATA;
@@ -0,0 +1,52 @@
+package com.pelleplutt.jumac.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelleplutt.jumac.JumacCrc;
+
+/**
+ * CRC of a buffer, the Java counterpart of _crc_buf, for each engine.
+ * BITWISE is the byte at a time algorithm of the C implementation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrcBench {
+  @Param({"16", "256", "768"})
+  int len;
+
+  @Param({"BITWISE", "TABLE", "SLICE4", "SLICE8"})
+  String engine;
+
+  JumacCrc crc;
+  byte data[];
+
+  @Setup
+  public void setup() throws Exception {
+    crc = (JumacCrc)JumacCrc.class.getField(engine).get(null);
+    data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte)(i * 7);
+    }
+  }
+
+  @Benchmark
+  public int crcBuf() {
+    return crc.update(0xffff, data, 0, len);
+  }
+}
@@ -0,0 +1,25 @@
+package com.pelleplutt.jumac.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the Jumac benchmarks with the gc profiler, so that allocation rate
+ * per operation is reported next to ops/s. Takes the usual JMH arguments,
+ * e.g. a benchmark regexp or -rf json -rff result.json.
+ *
+ * Build with mvn package in the java directory, run with
+ * java -jar jmh/target/benchmarks.jar
+ */
+public class JumacBench {
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,81 @@
+package com.pelleplutt.jumac.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Receive path: parsing one unsynchronized frame per operation, reported
+ * in bulk from an array, in bulk from a direct buffer, and byte by byte.
+ * Payload lengths up to 768, the longest a header can describe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBench {
+  @Param({"0", "16", "64", "256", "768"})
+  int len;
+
+  Jumac rx;
+  Wire rxWire;
+  byte frame[];
+  ByteBuffer direct;
+
+  @Setup
+  public void setup() {
+    Wire txWire = new Wire();
+    Jumac tx = new Jumac(1000, false, 5);
+    tx.setConfig(txWire);
+    byte data[] = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte)(i * 7);
+    }
+    tx.txPacket(false, data, (short)len);
+    frame = new byte[txWire.len];
+    System.arraycopy(txWire.buf, 0, frame, 0, frame.length);
+    direct = ByteBuffer.allocateDirect(frame.length);
+    direct.put(frame).flip();
+
+    rxWire = new Wire();
+    rx = new Jumac(1000, false, 5);
+    rx.setConfig(rxWire);
+  }
+
+  @Benchmark
+  public int reportArray() {
+    rx.report(frame, 0, frame.length);
+    return rxWire.rxPaks;
+  }
+
+  @Benchmark
+  public int reportDirect() {
+    direct.rewind();
+    rx.report(direct);
+    return rxWire.rxPaks;
+  }
+
+  @Benchmark
+  public int reportBytewise() {
+    byte f[] = frame;
+    for (int i = 0; i < f.length; i++) {
+      rx.report(f[i]);
+    }
+    return rxWire.rxPaks;
+  }
+}
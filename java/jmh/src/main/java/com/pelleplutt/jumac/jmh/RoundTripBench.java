@@ -0,0 +1,64 @@
+package com.pelleplutt.jumac.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Synchronized packet round trip between two in-process stacks: A sends,
+ * B receives and acks, A receives the ack. Frames are passed through
+ * buffers in the benchmark thread, so no sockets, threads or timers are
+ * involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBench {
+  @Param({"0", "16", "256", "768"})
+  int len;
+
+  Jumac a;
+  Wire aWire;
+  Jumac b;
+  Wire bWire;
+  byte data[];
+
+  @Setup
+  public void setup() {
+    data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte)(i * 7);
+    }
+    aWire = new Wire();
+    a = new Jumac(1000, false, 5);
+    a.setConfig(aWire);
+    bWire = new Wire();
+    b = new Jumac(1000, false, 5);
+    b.setConfig(bWire);
+  }
+
+  @Benchmark
+  public int syncRoundTrip() {
+    if (a.txPacket(true, data, (short)len) <= 0) {
+      throw new IllegalStateException("previous packet not acked");
+    }
+    aWire.deliver(b);
+    bWire.deliver(a);
+    return aWire.rxAcks;
+  }
+}
@@ -0,0 +1,79 @@
+package com.pelleplutt.jumac.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Transmit path: framing one unsynchronized packet per operation, through
+ * a plain config taking header, payload and crc in three calls and through
+ * a GatheringConfig taking the whole frame in one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxBench {
+  @Param({"0", "16", "64", "256", "768"})
+  int len;
+
+  Jumac plain;
+  Wire plainWire;
+  Jumac gathering;
+  Wire gatheringWire;
+  byte data[];
+
+  static class GatheringWire extends Wire implements Jumac.GatheringConfig {
+    @Override
+    public void tx(ByteBuffer[] frame) {
+      for (ByteBuffer b : frame) {
+        int l = b.remaining();
+        b.get(buf, len, l);
+        len += l;
+      }
+    }
+  }
+
+  @Setup
+  public void setup() {
+    data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte)(i * 7);
+    }
+    plainWire = new Wire();
+    plain = new Jumac(1000, false, 5);
+    plain.setConfig(plainWire);
+    gatheringWire = new GatheringWire();
+    gathering = new Jumac(1000, false, 5);
+    gathering.setConfig(gatheringWire);
+  }
+
+  @Benchmark
+  public int txPacket() {
+    plainWire.len = 0;
+    plain.txPacket(false, data, (short)len);
+    return plainWire.len;
+  }
+
+  @Benchmark
+  public int txPacketGathering() {
+    gatheringWire.len = 0;
+    gathering.txPacket(false, data, (short)len);
+    return gatheringWire.len;
+  }
+}
@@ -0,0 +1,59 @@
+package com.pelleplutt.jumac.jmh;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Jumac configuration capturing transmitted bytes in a buffer, to be
+ * delivered to another Jumac later. Timers are not used.
+ */
+class Wire implements Jumac.Config {
+  final byte buf[] = new byte[4096];
+  int len;
+  int rxPaks;
+  int rxAcks;
+
+  /** reports captured bytes to given stack and clears the buffer */
+  void deliver(Jumac to) {
+    int l = len;
+    len = 0;
+    to.report(buf, 0, l);
+  }
+
+  @Override
+  public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    rxPaks++;
+  }
+  @Override
+  public void rxAck(char seqno, byte[] data, int len) {
+    rxAcks++;
+  }
+  @Override
+  public void tmo(char seqno) {
+  }
+  @Override
+  public void garbage(byte b) {
+  }
+  @Override
+  public long nowTick() {
+    return 0;
+  }
+  @Override
+  public void requestFutureTick(long delta) {
+  }
+  @Override
+  public void cancelFutureTick() {
+  }
+  @Override
+  public void tx(byte b) {
+    buf[len++] = b;
+  }
+  @Override
+  public void tx(byte[] b, int l) {
+    System.arraycopy(b, 0, buf, len, l);
+    len += l;
+  }
+  @Override
+  public long retryDelta(int tries) {
+    return 1000;
+  }
+}
@@ -1,33 +1,48 @@
 package com.pelleplutt.jumac;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Jumac - micro mac for Java
  *
  * Simple protocol stack for transmitting/receiving packets, sort of MAC-like.
  * Packets can either be synchronized (needing an ack) or unsynchronized (not needing ack).
- * The payload length can vary from 0 to 769 bytes.
+ * The payload length can vary from 0 to 768 bytes.
  *
  * The stack handles retransmits automatically. Unless user acks packets herself, the
  * stack auto-acks if necessary. Acks can be piggybacked with payload data.
  *
  * Only one synchronized packed can be in the air at a time. It is legal to send unsynched
- * packets while a synchronized is not yet acked, though.
+ * packets while a synchronized is not yet acked, though. Optionally, a window of several
+ * synchronized packets can be used, see setWindow. Packets can also be queued
+ * for synchronized sending, completing a future when acked, see send.
+ * Frames, errors and ack latency are counted per instance, see getStats.
  *
  *  Created on: Feb 15, 2016
  *      Author: petera
  */
 public class Jumac implements JumacTickable {
-  public static final int UMAC_MAX_PAK_LEN = 769;
+  public static final int UMAC_MAX_PAK_LEN = 768;
   public static final int _UMAC_ERR_BASE = -70000;
   public static final int UMAC_OK                       = 0;
   public static final int UMAC_ERR_BUSY                 = (_UMAC_ERR_BASE-1);
   public static final int UMAC_ERR_STATE                = (_UMAC_ERR_BASE-2);
   public static final int UMAC_ERR_TOO_LONG             = (_UMAC_ERR_BASE-3);
+  public static final int UMAC_ERR_ARG                  = (_UMAC_ERR_BASE-4);
   public static final int UMAC_NACK_ERR_NOT_PREAMBLE = 0x01;
   public static final int UMAC_NACK_ERR_BAD_CRC = 0x02;
   public static final int UMAC_NACK_ERR_RX_TIMEOUT = 0x03;
   public static final int UMAC_NACK_ERR_NOT_READY = 0x04;
 
+  public static final int UMAC_MAX_WINDOW = 7;
+  public static final int UMAC_DEF_SEND_QUEUE = 16;
+
   private static final int UMAC_INIT_CRC = 0xffff;
   private static final int UMAC_PREAMBLE = 0xfd;
   private static final int UMAC_PKT_NREQ_ACK = 0;
@@ -41,26 +56,49 @@ public class Jumac implements JumacTickable {
   private static final int UMST_RX_DATA = 4;
   private static final int UMST_RX_CRC_HI = 5;
   private static final int UMST_RX_CRC_LO = 6;
+  private static final byte RXQ_PAK = 0;
+  private static final byte RXQ_PAK_REQ_ACK = 1;
+  private static final byte RXQ_ACK = 2;
 
   Config cfg;
+  GatheringConfig gcfg;
+  BufferConfig bcfg;
   volatile int rxState;
   byte tmp[] = new byte[8];
+  // header, payload and crc views for gathering configs
+  final ByteBuffer frame[] = {
+      ByteBuffer.wrap(tmp, 0, 3).slice(), null, ByteBuffer.wrap(tmp, 3, 2).slice()
+  };
+  // payload of unsynchronized packets, copied for gathering configs
+  final byte gatherData[] = new byte[UMAC_MAX_PAK_LEN];
+  final ByteBuffer gatherDataBuf = ByteBuffer.wrap(gatherData);
   int rxDataCnt;
   boolean rxUserAcked;
   volatile char rxSeqno;
   volatile byte rxData[] = new byte[UMAC_MAX_PAK_LEN];
+  final ByteBuffer rxDataBuf = ByteBuffer.wrap(rxData);
   volatile int rxDataLen;
   volatile int rxPktType;
   int rxRemoteCrc;
   int rxLocalCrc;
   volatile char txSeqno;
   volatile byte txData[] = new byte[UMAC_MAX_PAK_LEN];
+  final ByteBuffer txDataBuf = ByteBuffer.wrap(txData);
   volatile int txDataLen;
   volatile char ackSeqno;
   volatile byte ackData[] = new byte[UMAC_MAX_PAK_LEN];
+  final ByteBuffer ackDataBuf = ByteBuffer.wrap(ackData);
   volatile int ackDataLen;
+  // unsynchronized packet data taken from user ByteBuffers, used under txLock
+  final byte txBufData[] = new byte[UMAC_MAX_PAK_LEN];
+  final ByteBuffer txBufDataBuf = ByteBuffer.wrap(txBufData);
   volatile boolean awaitAck;
   int retryCnt;
+  // round trip estimate, fed with acks of packets not resent
+  JumacRto rto = new JumacRto();
+  final JumacStats stats = new JumacStats();
+  long txSentTick;
+  boolean txResent;
   volatile boolean timerEnabled;
   volatile boolean timerAckEnabled;
   volatile long timerAckDelta;
@@ -68,10 +106,68 @@ public class Jumac implements JumacTickable {
   volatile boolean timerRxEnabled;
   volatile long timerRxDelta;
   volatile long timerRxStartTick;
+  // windowed mode, indexed by seqno
+  int window = 1;
+  volatile int winPending;
+  byte winData[][];
+  ByteBuffer winDataBuf[];
+  int winDataLen[];
+  int winRetryCnt[];
+  long winDeadline[];
+  long winSentTick[];
+  // seqnos resent, not sampled
+  int winResent;
+  // newest seqno the receiver is known to have seen, new seqnos must be
+  // at most 0xf - UMAC_MAX_WINDOW ahead of it or the receiver is resynced
+  int winAcked;
+  // seqnos accepted while resyncing, sent when the resync is acked
+  int winHeld;
+  byte winAckData[][];
+  ByteBuffer winAckDataBuf[];
+  int winAckLen[];
+  // newest seqno received, 0 if none
+  int winRxNewest;
+  // asynchronous delivery, see setRxExecutor: ring of received packets
+  // and acks put by the parser and taken on the executor
+  Executor rxExecutor;
+  byte rxqData[][];
+  ByteBuffer rxqBuf[];
+  int rxqLen[];
+  char rxqSeqno[];
+  byte rxqKind[];
+  volatile long rxqHead;
+  volatile long rxqTail;
+  final AtomicBoolean rxqDraining = new AtomicBoolean();
+  final Runnable rxqDrain = new Runnable() {
+    @Override
+    public void run() {
+      drainRxQueue();
+    }
+  };
+  // seqno of synchronized packet queued but not acked yet, 0 if none
+  volatile char rxPendSeqno;
+  // synchronized packet being delivered on the executor
+  boolean dlvReqAck;
+  char dlvSeqno;
+  // serializes frames sent from the parser, the executor and the user
+  final Object txLock = new Object();
+  // set while a JumacEventLoop runs this instance. All calls are then made
+  // on its owner thread, so txLock is not taken and the parser keeps its
+  // state in locals, see reportOwned
+  boolean loopOwned;
+  // packets queued by send, and those in the air by seqno, guarded by
+  // sendQueue
+  final ArrayDeque<Send> sendQueue = new ArrayDeque<Send>();
+  final Send sendInflight[] = new Send[0x10];
+  int sendQueueMax = UMAC_DEF_SEND_QUEUE;
+  // one thread pumps at a time, others ask it to go on
+  boolean sendPumping;
+  boolean sendPumpAgain;
   
   final long cfgUmacRxTimeout;
   final boolean cfgUmacNackGarbage;
   final int cfgUmacRetries;
+  JumacCrc crcEngine = JumacCrc.SLICE8;
   public String _dbg_name = null;
 
   public boolean _dbg = false;
@@ -91,6 +187,131 @@ public class Jumac implements JumacTickable {
 
   public void setConfig(Config cfg) {
     this.cfg = cfg;
+    this.gcfg = cfg instanceof GatheringConfig ? (GatheringConfig)cfg : null;
+    this.bcfg = cfg instanceof BufferConfig ? (BufferConfig)cfg : null;
+  }
+
+  /**
+   * Sets how many synchronized packets can be in the air at a time.
+   * Default is 1, which is the stop-and-wait behaviour of umac.c.
+   * With a larger window, sent packets are retransmitted and timed out
+   * individually and acks may arrive in any order. Both peers must use
+   * a window larger than 1, as the receiver then remembers its acks per
+   * sequence number to handle retransmits. When packets time out the
+   * receiver may be too far behind to tell new sequence numbers from
+   * retransmits; the next packet is then held until the receiver has
+   * been told to forget its acks, with a synchronized packet of sequence
+   * number 0 that is not delivered.
+   * @param window 1 to UMAC_MAX_WINDOW
+   * @return 0 if ok, negative on error
+   */
+  public int setWindow(int window) {
+    if (window < 1 || window > UMAC_MAX_WINDOW) {
+      return UMAC_ERR_ARG;
+    }
+    if (awaitAck || winPending != 0) {
+      return UMAC_ERR_BUSY;
+    }
+    if (window > 1 && winData == null) {
+      winData = new byte[0x10][UMAC_MAX_PAK_LEN];
+      winDataLen = new int[0x10];
+      winRetryCnt = new int[0x10];
+      winDeadline = new long[0x10];
+      winSentTick = new long[0x10];
+      winAckData = new byte[0x10][UMAC_MAX_PAK_LEN];
+      winAckLen = new int[0x10];
+      Arrays.fill(winAckLen, -1);
+      winAcked = (txSeqno + 0xd) % 0xf + 1;
+      winDataBuf = new ByteBuffer[0x10];
+      winAckDataBuf = new ByteBuffer[0x10];
+      for (int s = 0; s < 0x10; s++) {
+        winDataBuf[s] = ByteBuffer.wrap(winData[s]);
+        winAckDataBuf[s] = ByteBuffer.wrap(winAckData[s]);
+      }
+    }
+    this.window = window;
+    return UMAC_OK;
+  }
+
+  /**
+   * Delivers received packets and acks on given executor instead of on
+   * the thread calling report, so parsing never waits for the config.
+   * Complete packets are copied into a ring of given number of slots and
+   * handed to rxPak and rxAck in order, one at a time. The data array is
+   * only valid during the call as before.
+   *
+   * A synchronized packet is acked once its rxPak returns, with data if
+   * ackReply was called from rxPak on the executor, until then resends
+   * of it from the peer are ignored. Packets arriving with the ring full
+   * are dropped as if lost; the peer resends synchronized packets and
+   * acks are asked for again by resending.
+   *
+   * Frames are then sent from several threads, and sending is serialized
+   * within this instance. The config callbacks must not block on the
+   * thread calling report, e.g. tx into a channel written by that thread.
+   * @param executor runs delivery, or null to deliver on the thread
+   *                 calling report
+   * @param slots    ring size, rounded up to a power of two
+   * @return 0 if ok, negative on error
+   */
+  public int setRxExecutor(Executor executor, int slots) {
+    if (slots < 1) {
+      return UMAC_ERR_ARG;
+    }
+    if (rxqHead != rxqTail || rxqDraining.get()) {
+      return UMAC_ERR_BUSY;
+    }
+    if (executor != null) {
+      int n = Integer.highestOneBit(slots);
+      if (n < slots) n <<= 1;
+      rxqData = new byte[n][UMAC_MAX_PAK_LEN];
+      rxqBuf = new ByteBuffer[n];
+      for (int i = 0; i < n; i++) {
+        rxqBuf[i] = ByteBuffer.wrap(rxqData[i]);
+      }
+      rxqLen = new int[n];
+      rxqSeqno = new char[n];
+      rxqKind = new byte[n];
+    } else {
+      rxqData = null;
+      rxqBuf = null;
+    }
+    rxPendSeqno = 0;
+    rxExecutor = executor;
+    return UMAC_OK;
+  }
+
+  /**
+   * Selects the crc engine used for framing. All engines produce the
+   * same checksum, default is JumacCrc.SLICE8.
+   * @param crcEngine the engine
+   */
+  public void setCrcEngine(JumacCrc crcEngine) {
+    this.crcEngine = crcEngine;
+  }
+
+  /**
+   * Sets the retransmission timeout estimator, fed with round trips of
+   * synchronized packets. There is one by default.
+   * @param rto the estimator
+   */
+  public void setRto(JumacRto rto) {
+    this.rto = rto;
+  }
+
+  /**
+   * Returns the retransmission timeout estimator, e.g. for retryDelta of
+   * the config. See JumacRto and RtoConfig.
+   */
+  public JumacRto getRto() {
+    return rto;
+  }
+
+  /**
+   * Returns the counters of this instance, see JumacStats.
+   */
+  public JumacStats getStats() {
+    return stats;
   }
   
   void dbg(String format, Object ...args) {
@@ -105,18 +326,31 @@ public class Jumac implements JumacTickable {
    * @param c the byte
    */
   public void report(byte c) {
+    stats.rxBytes.increment();
     parseChar(c);
   }
   
   /**
-   * Report from stack that many bytes were received from PHY
+   * Report from stack that many bytes were received from PHY.
+   * Payload runs are copied and checksummed in bulk, the other
+   * parts of the packet go through the byte parser.
    * @param buf   the data
    * @param offs  offset
    * @param len   length
    */
   public void report(byte[] buf, int offs, int len) {
-    for (int i = offs; i < offs+len; i++) {
-      report(buf[i]);
+    stats.rxBytes.add(len);
+    int end = offs + len;
+    if (loopOwned) {
+      reportOwned(buf, offs, end);
+      return;
+    }
+    while (offs < end) {
+      if (rxState == UMST_RX_DATA) {
+        offs += parseData(buf, offs, end - offs);
+      } else {
+        parseChar(buf[offs++]);
+      }
     }
   }
   
@@ -128,6 +362,29 @@ public class Jumac implements JumacTickable {
     report(buf, 0, buf.length);
   }
   
+  /**
+   * Report from stack that many bytes were received from PHY.
+   * All remaining bytes of the buffer are consumed. Works with both
+   * heap and direct buffers.
+   * @param buf   the data
+   */
+  public void report(ByteBuffer buf) {
+    if (buf.hasArray()) {
+      int pos = buf.position();
+      report(buf.array(), buf.arrayOffset() + pos, buf.limit() - pos);
+      buf.position(buf.limit());
+      return;
+    }
+    stats.rxBytes.add(buf.remaining());
+    while (buf.hasRemaining()) {
+      if (rxState == UMST_RX_DATA) {
+        parseData(buf);
+      } else {
+        parseChar(buf.get());
+      }
+    }
+  }
+  
   /**
    * Call tick when a requested timer times out. See
    * requestFutureTick in config object.
@@ -163,6 +420,11 @@ public class Jumac implements JumacTickable {
    * @return sequence number on acked packet, 0 otherwise, negative on error
    */
   public int txPacket(boolean ack, byte[] buf, short len) {
+    return txPacket(ack, buf, null, len);
+  }
+
+  // packet data is in buf, or in bbuf if not null
+  int txPacket(boolean ack, byte[] buf, ByteBuffer bbuf, int len) {
     if (awaitAck && ack) {
       dbg("TX: ERR user send sync while BUSY\n");
       return UMAC_ERR_BUSY;
@@ -171,16 +433,117 @@ public class Jumac implements JumacTickable {
       dbg("TX: ERR too long\n");
       return UMAC_ERR_TOO_LONG;
     }
+    if (ack && window > 1) {
+      return txWindowed(buf, bbuf, len);
+    }
+    if (!ack && bbuf != null) {
+      if (loopOwned) {
+        bbuf.get(txBufData, 0, len);
+        txLocked(txBufData, (char)0, UMAC_PKT_NREQ_ACK, len);
+        return 0;
+      }
+      synchronized (txLock) {
+        bbuf.get(txBufData, 0, len);
+        txLocked(txBufData, (char)0, UMAC_PKT_NREQ_ACK, len);
+      }
+      return 0;
+    }
     int pktType = ack ? UMAC_PKT_REQ_ACK : UMAC_PKT_NREQ_ACK;
     if (ack) {
-      System.arraycopy(buf, 0, txData, 0, len);
+      copyPayload(buf, bbuf, txData, len);
       txDataLen = len;
+      txSentTick = cfg.nowTick();
+      txResent = false;
     }
     char seqno = ack ? txSeqno : 0;
-    txInitial(buf, seqno, pktType, len);
+    txInitial(bbuf != null ? txData : buf, seqno, pktType, len);
     return seqno;
   }
 
+  static void copyPayload(byte[] buf, ByteBuffer bbuf, byte[] dst, int len) {
+    if (bbuf != null) {
+      bbuf.get(dst, 0, len);
+    } else {
+      System.arraycopy(buf, 0, dst, 0, len);
+    }
+  }
+
+  /**
+   * Transmits a packet from the remaining bytes of given buffer.
+   * The buffer is consumed unless there is an error. Works with both
+   * heap and direct buffers.
+   * @param ack 0 if packet does not need ack, else packet needs ack
+   * @param buf packet data
+   * @return sequence number on acked packet, 0 otherwise, negative on error
+   */
+  public int txPacket(boolean ack, ByteBuffer buf) {
+    return txPacket(ack, null, buf, buf.remaining());
+  }
+
+  /**
+   * Sets how many packets send may queue before the caller waits, by
+   * default UMAC_DEF_SEND_QUEUE. Packets already in the air do not count.
+   * @param depth queue depth, at least 1
+   * @return 0 if ok, negative on error
+   */
+  public int setSendQueue(int depth) {
+    if (depth < 1) {
+      return UMAC_ERR_ARG;
+    }
+    synchronized (sendQueue) {
+      sendQueueMax = depth;
+      sendQueue.notifyAll();
+    }
+    return UMAC_OK;
+  }
+
+  /** returns number of packets queued by send and not yet in the air */
+  public int getSendQueueDepth() {
+    synchronized (sendQueue) {
+      return sendQueue.size();
+    }
+  }
+
+  /**
+   * Queues a synchronized packet, sent as soon as the synchronized slot or
+   * window has room. The returned future completes with the ack data, or
+   * with a TimeoutException if never acked. Acks and timeouts of packets
+   * sent this way are not passed to rxAck and tmo of the config.
+   * If the queue is full, waits until there is room. Must therefore not
+   * be called from config callbacks, use trySend there.
+   * While packets are queued, synchronized txPacket must not be called
+   * concurrently from another thread, as send expects the next seqno.
+   * @param buf packet data, copied
+   * @param len packet data length
+   * @return future of the ack data
+   * @throws InterruptedException if interrupted while waiting for room
+   */
+  public CompletableFuture<byte[]> send(byte[] buf, short len) throws InterruptedException {
+    CompletableFuture<byte[]> f = queueSend(buf, len, true);
+    pumpSend();
+    return f;
+  }
+
+  /**
+   * Same as send, but never waits for room in the queue.
+   * @param buf packet data, copied
+   * @param len packet data length
+   * @return future of the ack data, or null if the queue is full
+   */
+  public CompletableFuture<byte[]> trySend(byte[] buf, short len) {
+    CompletableFuture<byte[]> f;
+    try {
+      f = queueSend(buf, len, false);
+    } catch (InterruptedException e) {
+      // never waits
+      f = null;
+    }
+    if (f != null) {
+      pumpSend();
+    }
+    return f;
+  }
+
   /**
    * When a synchronous packet is received, rxPak function
    * in config object is called. In this call, user may ack with
@@ -191,7 +554,48 @@ public class Jumac implements JumacTickable {
    * @return 0 if ok, negative on error
    */
   public int ackReply(byte[] buf, short len) {
-    if (rxPktType != UMAC_PKT_REQ_ACK) {
+    int res = ackReplyCheck(len);
+    if (res != UMAC_OK) {
+      return res;
+    }
+    if (loopOwned) {
+      System.arraycopy(buf, 0, ackData, 0, len);
+      ackReplySend(len);
+      return UMAC_OK;
+    }
+    synchronized (txLock) {
+      System.arraycopy(buf, 0, ackData, 0, len);
+      ackReplySend(len);
+    }
+    return UMAC_OK;
+  }
+
+  /**
+   * Same as ackReply(byte[], short), with the remaining bytes of given
+   * buffer as ack data. The buffer is consumed unless there is an error.
+   * @param buf ack data
+   * @return 0 if ok, negative on error
+   */
+  public int ackReply(ByteBuffer buf) {
+    int len = buf.remaining();
+    int res = ackReplyCheck(len);
+    if (res != UMAC_OK) {
+      return res;
+    }
+    if (loopOwned) {
+      buf.get(ackData, 0, len);
+      ackReplySend(len);
+      return UMAC_OK;
+    }
+    synchronized (txLock) {
+      buf.get(ackData, 0, len);
+      ackReplySend(len);
+    }
+    return UMAC_OK;
+  }
+
+  int ackReplyCheck(int len) {
+    if (rxExecutor != null ? !dlvReqAck : rxPktType != UMAC_PKT_REQ_ACK) {
       dbg("TX: ERR user send ack wrong state\n");
       return UMAC_ERR_STATE;
     }
@@ -199,14 +603,142 @@ public class Jumac implements JumacTickable {
       dbg("TX: ERR too long\n");
       return UMAC_ERR_TOO_LONG;
     }
+    return UMAC_OK;
+  }
+
+  // ack data is in ackData, called with txLock held
+  void ackReplySend(int len) {
     rxUserAcked = true;
-    ackSeqno = rxSeqno;
-    System.arraycopy(buf, 0, ackData, 0, len);
+    ackSeqno = rxExecutor != null ? dlvSeqno : rxSeqno;
     ackDataLen = len;
+    if (window > 1) {
+      System.arraycopy(ackData, 0, winAckData[ackSeqno], 0, len);
+      winAckLen[ackSeqno] = len;
+    }
     txInitial(ackData, ackSeqno, UMAC_PKT_ACK, len);
-    return UMAC_OK;
   }
   
+  static class Send {
+    final byte data[];
+    final CompletableFuture<byte[]> fut = new CompletableFuture<byte[]>();
+    Send(byte data[]) {
+      this.data = data;
+    }
+  }
+
+  // queues a packet for pumpSend, null if full and not waiting
+  CompletableFuture<byte[]> queueSend(byte[] buf, int len, boolean wait) throws InterruptedException {
+    if (len > UMAC_MAX_PAK_LEN) {
+      dbg("TX: ERR too long\n");
+      CompletableFuture<byte[]> f = new CompletableFuture<byte[]>();
+      f.completeExceptionally(new IllegalArgumentException("packet too long: " + len));
+      return f;
+    }
+    Send snd = new Send(Arrays.copyOf(buf, len));
+    synchronized (sendQueue) {
+      while (sendQueue.size() >= sendQueueMax) {
+        if (!wait) {
+          return null;
+        }
+        sendQueue.wait();
+      }
+      sendQueue.add(snd);
+    }
+    return snd.fut;
+  }
+
+  // sends queued packets while the synchronized slot or window has room.
+  // Packets are sent outside the queue lock, by one thread at a time; a
+  // thread finding another one pumping leaves the work to it.
+  void pumpSend() {
+    synchronized (sendQueue) {
+      sendPumpAgain = true;
+      if (sendPumping) {
+        return;
+      }
+      sendPumping = true;
+    }
+    while (true) {
+      Send snd;
+      char seqno;
+      synchronized (sendQueue) {
+        while ((snd = sendQueue.peek()) != null && snd.fut.isDone()) {
+          // cancelled while queued
+          sendQueue.poll();
+          sendQueue.notifyAll();
+        }
+        // the seqno txPacket will use, unless still in the air
+        seqno = txSeqno;
+        if (snd == null || !sendPumpAgain || sendInflight[seqno] != null) {
+          sendPumping = false;
+          return;
+        }
+        sendPumpAgain = false;
+        // registered before sending, so its ack always finds it
+        sendInflight[seqno] = snd;
+      }
+      // the packet stays first in the queue until sent
+      int res = UMAC_ERR_BUSY;
+      boolean returned = false;
+      try {
+        res = txPacket(true, snd.data, (short)snd.data.length);
+        returned = true;
+      } finally {
+        synchronized (sendQueue) {
+          if (!returned || res <= 0) {
+            sendInflight[seqno] = null;
+          }
+          if (!returned) {
+            sendPumping = false;
+          } else if (res != UMAC_ERR_BUSY) {
+            sendQueue.poll();
+            sendQueue.notifyAll();
+            sendPumpAgain = true;
+          }
+        }
+      }
+      if (res <= 0 && res != UMAC_ERR_BUSY) {
+        snd.fut.completeExceptionally(new IllegalStateException("send failed: " + res));
+      }
+    }
+  }
+
+  // removes packet in the air by seqno, null if not sent by send
+  Send takeSend(char seqno) {
+    synchronized (sendQueue) {
+      Send snd = sendInflight[seqno];
+      sendInflight[seqno] = null;
+      return snd;
+    }
+  }
+
+  // ack of a synchronized packet, the slot or window has room again
+  void deliverAck(char seqno, byte[] data, ByteBuffer buf, int len) {
+    Send snd = takeSend(seqno);
+    pumpSend();
+    if (snd != null) {
+      snd.fut.complete(Arrays.copyOf(data, len));
+    } else if (bcfg != null) {
+      buf.clear();
+      buf.limit(len);
+      bcfg.rxAck(seqno, buf);
+    } else {
+      cfg.rxAck(seqno, data, len);
+    }
+  }
+
+  // timeout of a synchronized packet, the slot or window has room again
+  void deliverTmo(char seqno) {
+    stats.timeouts.increment();
+    Send snd = takeSend(seqno);
+    pumpSend();
+    if (snd != null) {
+      snd.fut.completeExceptionally(new TimeoutException("no ack for seq " + (int)seqno));
+    } else {
+      cfg.tmo(seqno);
+    }
+  }
+
   void parseChar(byte b) {
     char c = (char)(b & 0xff);
     switch (rxState) {
@@ -217,6 +749,7 @@ public class Jumac implements JumacTickable {
       rxState = UMST_RX_EXP_HDR_HI;
     } else {
       rxState = UMST_RX_NOT_PREAMBLE;
+      stats.garbage.increment();
       cfg.garbage(b);
     }
     break;
@@ -229,6 +762,7 @@ public class Jumac implements JumacTickable {
         requestRxTimer(cfgUmacRxTimeout);
         rxState = UMST_RX_EXP_HDR_HI;
       } else {
+        stats.garbage.increment();
         cfg.garbage(b);
       }
       break;
@@ -236,18 +770,18 @@ public class Jumac implements JumacTickable {
       rxPktType = (c >>> 6) & 0x3;
       rxSeqno = (char)((c >>> 2) & 0xf);
       rxDataLen = c & 0x3;
-      rxLocalCrc = _crc_ccitt_16(UMAC_INIT_CRC, c);
+      rxLocalCrc = crcEngine.update(UMAC_INIT_CRC, c);
       rxState = rxDataLen == 0 ? UMST_RX_CRC_HI : UMST_RX_EXP_HDR_LO;
       break;
     case UMST_RX_EXP_HDR_LO:
-      rxDataLen = ((rxDataLen - 1) << 8) | (c + 1);
-      rxLocalCrc = _crc_ccitt_16(rxLocalCrc, c);
+      rxDataLen = ((rxDataLen - 1) << 8) + (c + 1);
+      rxLocalCrc = crcEngine.update(rxLocalCrc, c);
       rxDataCnt = 0;
       rxState = UMST_RX_DATA;
       break;
     case UMST_RX_DATA:
       rxData[rxDataCnt++] = b;
-      rxLocalCrc = _crc_ccitt_16(rxLocalCrc, c);
+      rxLocalCrc = crcEngine.update(rxLocalCrc, c);
       if (rxDataCnt >= rxDataLen) {
         rxState = UMST_RX_CRC_HI;
       }
@@ -261,8 +795,10 @@ public class Jumac implements JumacTickable {
       cancelRxtimer();
       rxRemoteCrc |= c;
       if ((rxRemoteCrc & 0xffff) != (rxLocalCrc & 0xffff)) {
+        stats.crcErrors.increment();
         txNack(UMAC_NACK_ERR_BAD_CRC, rxSeqno);
       } else {
+        stats.rxFrames.increment();
         trigRxPkt();
       }
       rxState = UMST_RX_EXP_PREAMBLE;
@@ -270,25 +806,175 @@ public class Jumac implements JumacTickable {
     } // switch
   }
   
+  // parser on the owner thread of an event loop, same as parseChar and
+  // parseData but with the state in locals. The volatile fields are only
+  // stored when a frame is done, for trigRxPkt, and when returning.
+  void reportOwned(byte[] buf, int offs, int end) {
+    int st = rxState;
+    int type = rxPktType;
+    char seqno = rxSeqno;
+    int dlen = rxDataLen;
+    int cnt = rxDataCnt;
+    int crc = rxLocalCrc;
+    byte data[] = rxData;
+    while (offs < end) {
+      byte b = buf[offs];
+      char c = (char)(b & 0xff);
+      switch (st) {
+      case UMST_RX_EXP_PREAMBLE:
+      case UMST_RX_NOT_PREAMBLE:
+        offs++;
+        if (c == UMAC_PREAMBLE) {
+          if (st == UMST_RX_NOT_PREAMBLE && cfgUmacNackGarbage) {
+            txNack(UMAC_NACK_ERR_NOT_PREAMBLE, (char)0x0);
+          }
+          seqno = 0;
+          requestRxTimer(cfgUmacRxTimeout);
+          st = UMST_RX_EXP_HDR_HI;
+        } else {
+          st = UMST_RX_NOT_PREAMBLE;
+          stats.garbage.increment();
+          cfg.garbage(b);
+        }
+        break;
+      case UMST_RX_EXP_HDR_HI:
+        offs++;
+        type = (c >>> 6) & 0x3;
+        seqno = (char)((c >>> 2) & 0xf);
+        dlen = c & 0x3;
+        crc = crcEngine.update(UMAC_INIT_CRC, c);
+        st = dlen == 0 ? UMST_RX_CRC_HI : UMST_RX_EXP_HDR_LO;
+        break;
+      case UMST_RX_EXP_HDR_LO:
+        offs++;
+        dlen = ((dlen - 1) << 8) + (c + 1);
+        crc = crcEngine.update(crc, c);
+        cnt = 0;
+        st = UMST_RX_DATA;
+        break;
+      case UMST_RX_DATA:
+        int n = dlen - cnt;
+        if (n > end - offs) n = end - offs;
+        System.arraycopy(buf, offs, data, cnt, n);
+        crc = crcEngine.update(crc, buf, offs, n);
+        offs += n;
+        cnt += n;
+        if (cnt >= dlen) {
+          st = UMST_RX_CRC_HI;
+        }
+        break;
+      case UMST_RX_CRC_HI:
+        offs++;
+        rxRemoteCrc = (c<<8);
+        st = UMST_RX_CRC_LO;
+        break;
+      case UMST_RX_CRC_LO:
+        offs++;
+        cancelRxtimer();
+        rxRemoteCrc |= c;
+        st = UMST_RX_EXP_PREAMBLE;
+        rxState = st;
+        rxPktType = type;
+        rxSeqno = seqno;
+        rxDataLen = dlen;
+        if ((rxRemoteCrc & 0xffff) != (crc & 0xffff)) {
+          stats.crcErrors.increment();
+          txNack(UMAC_NACK_ERR_BAD_CRC, seqno);
+        } else {
+          stats.rxFrames.increment();
+          trigRxPkt();
+        }
+        break;
+      }
+    }
+    rxState = st;
+    rxPktType = type;
+    rxSeqno = seqno;
+    rxDataLen = dlen;
+    rxDataCnt = cnt;
+    rxLocalCrc = crc;
+  }
+
+  // bulk version of UMST_RX_DATA state, returns number of bytes consumed
+  int parseData(byte[] buf, int offs, int len) {
+    int cnt = rxDataCnt;
+    int n = rxDataLen - cnt;
+    if (n > len) n = len;
+    System.arraycopy(buf, offs, rxData, cnt, n);
+    rxLocalCrc = crcEngine.update(rxLocalCrc, buf, offs, n);
+    cnt += n;
+    rxDataCnt = cnt;
+    if (cnt >= rxDataLen) {
+      rxState = UMST_RX_CRC_HI;
+    }
+    return n;
+  }
+
+  // bulk version of UMST_RX_DATA state for buffers without array
+  void parseData(ByteBuffer buf) {
+    int cnt = rxDataCnt;
+    int n = rxDataLen - cnt;
+    if (n > buf.remaining()) n = buf.remaining();
+    buf.get(rxData, cnt, n);
+    rxLocalCrc = crcEngine.update(rxLocalCrc, rxData, cnt, n);
+    cnt += n;
+    rxDataCnt = cnt;
+    if (cnt >= rxDataLen) {
+      rxState = UMST_RX_CRC_HI;
+    }
+  }
+
+  void cfgRxPak(char seqno, boolean req_ack) {
+    if (bcfg != null) {
+      rxDataBuf.clear();
+      rxDataBuf.limit(rxDataLen);
+      bcfg.rxPak(seqno, rxDataBuf, req_ack);
+    } else {
+      cfg.rxPak(seqno, rxData, rxDataLen, req_ack);
+    }
+  }
+
+  void cfgRxAck(char seqno) {
+    if (rxExecutor != null) {
+      putRxQueue(RXQ_ACK, seqno);
+    } else {
+      deliverAck(seqno, rxData, rxDataBuf, rxDataLen);
+    }
+  }
+
   void trigRxPkt() {
     switch (rxPktType) {
     case UMAC_PKT_ACK:
-      if (awaitAck && txSeqno == rxSeqno) {
+      if (rxQueueFull()) {
+        dbg("RX: ACK seq %x dropped, queue full\n", (int)rxSeqno);
+      } else if (window > 1) {
+        winRxAck();
+      } else if (awaitAck && txSeqno == rxSeqno) {
         dbg("RX: ACK seq %x\n", (int)rxSeqno);
         cancelAckTimer();
         awaitAck = false;
+        long rtt = cfg.nowTick() - txSentTick;
+        if (!txResent) {
+          rto.sample(rtt);
+        }
+        stats.ackLatency(rtt);
         incTxSeqno();
-        cfg.rxAck(rxSeqno, rxData, rxDataLen);
+        cfgRxAck(rxSeqno);
       } else {
         dbg("RX: ACK unkn seq %x\n", (int)txSeqno, (int)rxSeqno);
       }
       break;
     case UMAC_PKT_NACK:
-      if (awaitAck && txSeqno == rxSeqno) {
+      stats.nack(stats.nacksRx, rxDataLen > 0 ? rxData[0] : 0);
+      if (window > 1) {
+        winRxNack();
+      } else if (awaitAck && txSeqno == rxSeqno) {
         if (rxData[0] == UMAC_NACK_ERR_BAD_CRC || 
             rxData[0] == UMAC_NACK_ERR_RX_TIMEOUT) {
           dbg("RX: NACK seq %x, err %d, reTX direct\n", (int)txSeqno, rxData[0]);
           cancelAckTimer();
+          txResent = true;
+          stats.retransmits.increment();
           txInitial(txData, txSeqno, UMAC_PKT_REQ_ACK, txDataLen);
         } else {
           dbg("RX: NACK seq %x, err %d\n", rxData[0]);
@@ -302,12 +988,24 @@ public class Jumac implements JumacTickable {
       boolean expAck = rxPktType == UMAC_PKT_REQ_ACK;
       dbg("RX: seq %x, %s (ackseq %x)\n", (int)rxSeqno, expAck ? "sync" : "unsync", (int)ackSeqno);
       char orxSeqno = rxSeqno;
-      if (expAck && ackSeqno == rxSeqno) {
-        dbg("RX: reACK seq %x, len %d\n", (int)rxSeqno, ackDataLen);
-        tx(ackData, ackSeqno, UMAC_PKT_ACK, ackDataLen);
+      if (expAck && window > 1) {
+        winRxPkt(orxSeqno);
+      } else if (expAck && rxPendSeqno == orxSeqno) {
+        // checked before ackSeqno, which is set before this is cleared
+        dbg("RX: seq %x queued, not acked yet\n", (int)orxSeqno);
+      } else if (expAck && ackSeqno == orxSeqno) {
+        dbg("RX: reACK seq %x, len %d\n", (int)orxSeqno, ackDataLen);
+        txReAck();
+      } else if (rxQueueFull()) {
+        dbg("RX: seq %x dropped, queue full\n", (int)orxSeqno);
+      } else if (rxExecutor != null) {
+        if (expAck) {
+          rxPendSeqno = orxSeqno;
+        }
+        putRxQueue(expAck ? RXQ_PAK_REQ_ACK : RXQ_PAK, orxSeqno);
       } else {
         rxUserAcked = false;
-        cfg.rxPak(rxSeqno, rxData, rxDataLen, rxPktType == UMAC_PKT_REQ_ACK);
+        cfgRxPak(rxSeqno, rxPktType == UMAC_PKT_REQ_ACK);
         if (expAck && !rxUserAcked) {
           txAckEmpty(orxSeqno);
         }
@@ -316,6 +1014,313 @@ public class Jumac implements JumacTickable {
     }
   }
   
+  int txWindowed(byte[] buf, ByteBuffer bbuf, int len) {
+    char seqno = txSeqno;
+    // all packets in the air must stay within window of the new one
+    int pending = winPending;
+    for (int s = 1; s <= 0xf; s++) {
+      if ((pending & (1 << s)) != 0) {
+        int d = (seqno - s + 0xf) % 0xf;
+        if (d == 0 || d >= window) {
+          dbg("TX: ERR user send sync while window full\n");
+          return UMAC_ERR_BUSY;
+        }
+      }
+    }
+    boolean resyncing = (pending & 1) != 0;
+    int ahead = (seqno - winAcked + 0xf) % 0xf;
+    if (!resyncing && (ahead == 0 || ahead > 0xf - UMAC_MAX_WINDOW)) {
+      // packets timed out, the receiver may remember acks of this seqno
+      if (pending != 0) {
+        dbg("TX: ERR user send sync while resync waits for window\n");
+        return UMAC_ERR_BUSY;
+      }
+      dbg("TX: resync before seq %x\n", (int)seqno);
+      winAcked = (seqno + 0xd) % 0xf + 1;
+      winDataLen[0] = 0;
+      winRetryCnt[0] = 0;
+      winResent &= ~1;
+      pending = 1;
+      winPending = pending;
+      winSend(0);
+      resyncing = true;
+    }
+    copyPayload(buf, bbuf, winData[seqno], len);
+    winDataLen[seqno] = len;
+    winRetryCnt[seqno] = 0;
+    winPending = pending | (1 << seqno);
+    winResent &= ~(1 << seqno);
+    incTxSeqno();
+    if (resyncing) {
+      winHeld |= 1 << seqno;
+      winDeadline[seqno] = Long.MAX_VALUE;
+    } else {
+      winSend(seqno);
+    }
+    winRequestAckTimer();
+    return seqno;
+  }
+
+  void winSend(int seqno) {
+    tx(winData[seqno], (char)seqno, UMAC_PKT_REQ_ACK, winDataLen[seqno]);
+    winSentTick[seqno] = cfg.nowTick();
+    winDeadline[seqno] = winSentTick[seqno] + cfg.retryDelta(0);
+  }
+
+  void winRxAck() {
+    char seqno = rxSeqno;
+    if ((winPending & (1 << seqno)) != 0) {
+      dbg("RX: ACK seq %x\n", (int)seqno);
+      winPending &= ~(1 << seqno);
+      long rtt = cfg.nowTick() - winSentTick[seqno];
+      if ((winResent & (1 << seqno)) == 0) {
+        rto.sample(rtt);
+      }
+      if (seqno == 0) {
+        winResynced();
+        return;
+      }
+      int ahead = (seqno - winAcked + 0xf) % 0xf;
+      if (ahead >= 1 && ahead <= 0xf - UMAC_MAX_WINDOW) {
+        winAcked = seqno;
+      }
+      stats.ackLatency(rtt);
+      winRequestAckTimer();
+      cfgRxAck(seqno);
+    } else {
+      dbg("RX: ACK unkn seq %x\n", (int)seqno);
+    }
+  }
+
+  // receiver has forgotten its acks, send the packets held meanwhile
+  void winResynced() {
+    dbg("RX: resync ACKed\n");
+    int s = winAcked;
+    for (int i = 0; i < UMAC_MAX_WINDOW; i++) {
+      s = s % 0xf + 1;
+      if ((winHeld & (1 << s)) != 0) {
+        winHeld &= ~(1 << s);
+        winSend(s);
+      }
+    }
+    winRequestAckTimer();
+  }
+
+  // resync never acked, time out the held packets and resync again on
+  // the next one
+  void winResyncFailed() {
+    int held = winHeld;
+    winHeld = 0;
+    winPending &= ~(held | 1);
+    int s = winAcked;
+    winAcked = txSeqno;
+    for (int i = 0; i < UMAC_MAX_WINDOW; i++) {
+      s = s % 0xf + 1;
+      if ((held & (1 << s)) != 0) {
+        deliverTmo((char)s);
+      }
+    }
+  }
+
+  void winRxNack() {
+    char seqno = rxSeqno;
+    if ((winPending & (1 << seqno)) != 0) {
+      if (rxData[0] == UMAC_NACK_ERR_BAD_CRC ||
+          rxData[0] == UMAC_NACK_ERR_RX_TIMEOUT) {
+        dbg("RX: NACK seq %x, err %d, reTX direct\n", (int)seqno, rxData[0]);
+        tx(winData[seqno], seqno, UMAC_PKT_REQ_ACK, winDataLen[seqno]);
+        winResent |= 1 << seqno;
+        stats.retransmits.increment();
+        winRetryCnt[seqno] = 0;
+        winDeadline[seqno] = cfg.nowTick() + cfg.retryDelta(0);
+        winRequestAckTimer();
+      } else {
+        dbg("RX: NACK seq %x, err %d\n", (int)seqno, rxData[0]);
+      }
+    } else {
+      dbg("RX: NACK unkn seq %x, err %d\n", (int)seqno, rxData[0]);
+    }
+  }
+
+  void winRxPkt(char seqno) {
+    int ackLen = winAckLen[seqno];
+    if (seqno == 0) {
+      // the sender cannot tell which acks are remembered, forget all but
+      // those of packets still queued
+      dbg("RX: resync\n");
+      for (int s = 1; s <= 0xf; s++) {
+        if (winAckLen[s] != -2) {
+          winAckLen[s] = -1;
+        }
+      }
+      winRxNewest = 0;
+      tx(winAckData[0], seqno, UMAC_PKT_ACK, 0);
+    } else if (ackLen >= 0) {
+      dbg("RX: reACK seq %x, len %d\n", (int)seqno, ackLen);
+      txWinReAck(seqno);
+    } else if (ackLen == -2) {
+      dbg("RX: seq %x queued, not acked yet\n", (int)seqno);
+    } else if (rxQueueFull()) {
+      dbg("RX: seq %x dropped, queue full\n", (int)seqno);
+    } else {
+      // acks of seqnos ahead of the newest one cannot be asked for again;
+      // a resent older one is less than a window behind and clears nothing,
+      // while the sender resyncs rather than going further ahead
+      int ahead = winRxNewest == 0 ? 1 : (seqno - winRxNewest + 0xf) % 0xf;
+      if (ahead >= 1 && ahead <= 0xf - UMAC_MAX_WINDOW) {
+        winRxNewest = seqno;
+        for (int i = 1; i <= 0xf - UMAC_MAX_WINDOW; i++) {
+          winAckLen[(seqno - 1 + i) % 0xf + 1] = -1;
+        }
+      }
+      if (rxExecutor != null) {
+        // -2 until acked on the executor
+        winAckLen[seqno] = -2;
+        putRxQueue(RXQ_PAK_REQ_ACK, seqno);
+        return;
+      }
+      rxUserAcked = false;
+      cfgRxPak(seqno, true);
+      if (!rxUserAcked) {
+        txAckEmpty(seqno);
+      }
+    }
+  }
+
+  void winTimerTrigAck() {
+    long now = cfg.nowTick();
+    if ((winPending & 1) != 0 && winDeadline[0] <= now) {
+      winRetryCnt[0]++;
+      if (winRetryCnt[0] > cfgUmacRetries) {
+        dbg("TX: noACK, TMO resync\n");
+        winResyncFailed();
+      } else {
+        dbg("TX: noACK, reTX resync, #%d\n", winRetryCnt[0]);
+        tx(winData[0], (char)0, UMAC_PKT_REQ_ACK, 0);
+        winResent |= 1;
+        stats.retransmits.increment();
+        winDeadline[0] = now + cfg.retryDelta(winRetryCnt[0]);
+      }
+    }
+    // oldest first, next seqno to send is the one after the newest
+    int s = txSeqno;
+    for (int i = 0; i < 0xf; i++, s = s % 0xf + 1) {
+      if ((winPending & (1 << s)) == 0 || winDeadline[s] > now) {
+        continue;
+      }
+      winRetryCnt[s]++;
+      if (winRetryCnt[s] > cfgUmacRetries) {
+        dbg("TX: noACK, TMO seq %x\n", s);
+        winPending &= ~(1 << s);
+        deliverTmo((char)s);
+      } else {
+        dbg("TX: noACK, reTX seq %x, #%d\n", s, winRetryCnt[s]);
+        tx(winData[s], (char)s, UMAC_PKT_REQ_ACK, winDataLen[s]);
+        winResent |= 1 << s;
+        stats.retransmits.increment();
+        winDeadline[s] = now + cfg.retryDelta(winRetryCnt[s]);
+      }
+    }
+    winRequestAckTimer();
+  }
+
+  // set ack timer to first deadline of packets in the air
+  void winRequestAckTimer() {
+    int pending = winPending;
+    if (pending == 0) {
+      cancelAckTimer();
+      return;
+    }
+    long first = Long.MAX_VALUE;
+    for (int s = 0; s <= 0xf; s++) {
+      if ((pending & (1 << s)) != 0 && winDeadline[s] < first) {
+        first = winDeadline[s];
+      }
+    }
+    long now = cfg.nowTick();
+    requestAckTimer(first > now ? first - now : 0);
+  }
+
+  boolean rxQueueFull() {
+    return rxExecutor != null && rxqHead - rxqTail >= rxqData.length;
+  }
+
+  // puts received packet or ack in the ring, must not be full
+  void putRxQueue(byte kind, char seqno) {
+    long head = rxqHead;
+    int i = (int)head & (rxqData.length - 1);
+    System.arraycopy(rxData, 0, rxqData[i], 0, rxDataLen);
+    rxqLen[i] = rxDataLen;
+    rxqSeqno[i] = seqno;
+    rxqKind[i] = kind;
+    rxqHead = head + 1;
+    if (rxqDraining.compareAndSet(false, true)) {
+      rxExecutor.execute(rxqDrain);
+    }
+  }
+
+  // delivers all in the ring, on the executor
+  void drainRxQueue() {
+    try {
+      long tail = rxqTail;
+      while (tail != rxqHead) {
+        try {
+          deliverRxQueue((int)tail & (rxqData.length - 1));
+        } finally {
+          rxqTail = ++tail;
+        }
+      }
+    } finally {
+      rxqDraining.set(false);
+      // the parser may have put more after the loop but before the flag
+      // was cleared, and then not started another drain
+      if (rxqHead != rxqTail && rxqDraining.compareAndSet(false, true)) {
+        rxExecutor.execute(rxqDrain);
+      }
+    }
+  }
+
+  void deliverRxQueue(int i) {
+    char seqno = rxqSeqno[i];
+    int len = rxqLen[i];
+    if (bcfg != null) {
+      rxqBuf[i].clear();
+      rxqBuf[i].limit(len);
+    }
+    switch (rxqKind[i]) {
+    case RXQ_ACK:
+      deliverAck(seqno, rxqData[i], rxqBuf[i], len);
+      break;
+    case RXQ_PAK:
+      if (bcfg != null) {
+        bcfg.rxPak(seqno, rxqBuf[i], false);
+      } else {
+        cfg.rxPak(seqno, rxqData[i], len, false);
+      }
+      break;
+    case RXQ_PAK_REQ_ACK:
+      dlvSeqno = seqno;
+      dlvReqAck = true;
+      rxUserAcked = false;
+      try {
+        if (bcfg != null) {
+          bcfg.rxPak(seqno, rxqBuf[i], true);
+        } else {
+          cfg.rxPak(seqno, rxqData[i], len, true);
+        }
+      } finally {
+        dlvReqAck = false;
+        if (!rxUserAcked) {
+          txAckEmpty(seqno);
+        }
+        if (rxPendSeqno == seqno) {
+          rxPendSeqno = 0;
+        }
+      }
+      break;
+    }
+  }
+
   void timerTrigRx() {
     dbg("RX: pkt TMO\n");
     txNack(UMAC_NACK_ERR_RX_TIMEOUT, rxSeqno);
@@ -323,7 +1328,9 @@ public class Jumac implements JumacTickable {
   }
   
   void timerTrigAck() {
-    if (awaitAck) {
+    if (window > 1) {
+      winTimerTrigAck();
+    } else if (awaitAck) {
       retryCnt++;
       if (retryCnt > cfgUmacRetries) {
         dbg("TX: noACK, TMO seq %x\n", (int)txSeqno);
@@ -331,9 +1338,11 @@ public class Jumac implements JumacTickable {
         incTxSeqno();
         retryCnt = 0;
         awaitAck = false;
-        cfg.tmo(otxSeqno);
+        deliverTmo(otxSeqno);
       } else {
         dbg("TX: noACK, reTX seq %x, #%d\n", (int)txSeqno, retryCnt);
+        txResent = true;
+        stats.retransmits.increment();
         tx(txData, txSeqno, UMAC_PKT_REQ_ACK, txDataLen);
         requestAckTimer(cfg.retryDelta(retryCnt));
       }
@@ -453,26 +1462,54 @@ public class Jumac implements JumacTickable {
   }
   
   void txNack(int err, char seqno) {
+    if (loopOwned) {
+      txNackLocked(err, seqno);
+      return;
+    }
+    synchronized (txLock) {
+      txNackLocked(err, seqno);
+    }
+  }
+
+  void txNackLocked(int err, char seqno) {
     dbg("RX: NACK seq %x: err %d\n", (int)seqno, err);
     tmp[0] = (byte)(UMAC_PREAMBLE);
     tmp[1] = (byte)((UMAC_PKT_NACK << 6) | ((seqno & 0xf) << 2) | (1));
     tmp[2] = 0x00;
     tmp[3] = (byte)(err);
-    int crc = _crc_buf(UMAC_INIT_CRC,tmp, 1, 3);
+    int crc = crcEngine.update(UMAC_INIT_CRC, tmp, 1, 3);
     tmp[4] = (byte)(crc >> 8);
     tmp[5] = (byte)(crc);
+    stats.nack(stats.nacksTx, err);
+    stats.txFrame(6);
     cfg.tx(tmp, 6);
   }
   
   void txAckEmpty(char seqno) {
+    if (loopOwned) {
+      txAckEmptyLocked(seqno);
+      return;
+    }
+    synchronized (txLock) {
+      txAckEmptyLocked(seqno);
+    }
+  }
+
+  void txAckEmptyLocked(char seqno) {
     dbg("RX: autoACK seq %x\n", (int)seqno);
     tmp[0] = (byte)(UMAC_PREAMBLE);
     tmp[1] = (byte)((UMAC_PKT_ACK << 6) | ((seqno & 0xf) << 2) | (0));
-    int crc = _crc_buf(UMAC_INIT_CRC,tmp, 1, 1);
+    int crc = crcEngine.update(UMAC_INIT_CRC, tmp, 1, 1);
     tmp[2] = (byte)(crc >> 8);
     tmp[3] = (byte)(crc);
     dbg("TX: seq %x, %s\n", (int)txSeqno, "unsync");
+    // resent as empty, as in umac.c
+    ackDataLen = 0;
     ackSeqno = seqno;
+    if (window > 1) {
+      winAckLen[seqno] = 0;
+    }
+    stats.txFrame(4);
     cfg.tx(tmp, 4);
   }
   
@@ -486,21 +1523,59 @@ public class Jumac implements JumacTickable {
   }
 
   void tx(byte[] txData, char txSeqno, int pktType, int txDataLen) {
+    if (loopOwned) {
+      txLocked(txData, txSeqno, pktType, txDataLen);
+      return;
+    }
+    synchronized (txLock) {
+      txLocked(txData, txSeqno, pktType, txDataLen);
+    }
+  }
+
+  // resends the ack in ackData, read under txLock as ackReply writes it
+  void txReAck() {
+    if (loopOwned) {
+      txLocked(ackData, ackSeqno, UMAC_PKT_ACK, ackDataLen);
+      return;
+    }
+    synchronized (txLock) {
+      txLocked(ackData, ackSeqno, UMAC_PKT_ACK, ackDataLen);
+    }
+  }
+
+  // resends the remembered ack of given seqno, read under txLock
+  void txWinReAck(char seqno) {
+    if (loopOwned) {
+      txLocked(winAckData[seqno], seqno, UMAC_PKT_ACK, winAckLen[seqno]);
+      return;
+    }
+    synchronized (txLock) {
+      txLocked(winAckData[seqno], seqno, UMAC_PKT_ACK, winAckLen[seqno]);
+    }
+  }
+
+  void txLocked(byte[] txData, char txSeqno, int pktType, int txDataLen) {
     dbg("TX: seq %x, %s\n", (int)txSeqno, pktType == UMAC_PKT_REQ_ACK ? "sync" : "unsync");
     int crc;
     tmp[0] = (byte)UMAC_PREAMBLE;
-    char hlen = (char)(txDataLen == 0 ? 0 : (((((txDataLen-1)>>>8) + 1) << 8) | (txDataLen - 1)));
+    char hlen = (char)(txDataLen == 0 ? 0 : (((((txDataLen-1)>>>8) + 1) << 8) | ((txDataLen - 1) & 0xff)));
     tmp[1] = (byte)((pktType << 6) | ((txSeqno & 0xf) << 2) | (hlen >>> 8));
     if (hlen == 0) {
-      crc = _crc_buf(UMAC_INIT_CRC, tmp, 1, 1);
+      crc = crcEngine.update(UMAC_INIT_CRC, tmp, 1, 1);
       tmp[2] = (byte)(crc >>> 8);
       tmp[3] = (byte)crc;
+      stats.txFrame(4);
       cfg.tx(tmp, 4);
     } else {
       tmp[2] = (byte)hlen;
-      crc = _crc_buf(UMAC_INIT_CRC, tmp, 1, 2);
+      crc = crcEngine.update(UMAC_INIT_CRC, tmp, 1, 2);
+      stats.txFrame(5 + txDataLen);
+      if (gcfg != null) {
+        txGather(txData, txSeqno, txDataLen, crcEngine.update(crc, txData, 0, txDataLen));
+        return;
+      }
       cfg.tx(tmp, 3);
-      crc = _crc_buf(crc, txData, 0, txDataLen);
+      crc = crcEngine.update(crc, txData, 0, txDataLen);
       cfg.tx(txData, txDataLen);
       tmp[0] = (byte)(crc >> 8);
       tmp[1] = (byte)crc;
@@ -508,13 +1583,46 @@ public class Jumac implements JumacTickable {
     }
   }
   
+  // header is in tmp[0..2], crc goes to tmp[3..4]
+  void txGather(byte[] data, char seqno, int len, int crc) {
+    tmp[3] = (byte)(crc >> 8);
+    tmp[4] = (byte)crc;
+    frame[0].clear();
+    frame[1] = gatherPayload(data, seqno, len);
+    frame[2].clear();
+    gcfg.tx(frame);
+  }
+
+  // preallocated view of the payload, user arrays are copied so no
+  // reference to them is kept
+  ByteBuffer gatherPayload(byte[] data, char seqno, int len) {
+    ByteBuffer b;
+    if (data == txData) {
+      b = txDataBuf;
+    } else if (data == ackData) {
+      b = ackDataBuf;
+    } else if (data == txBufData) {
+      b = txBufDataBuf;
+    } else if (winData != null && data == winData[seqno]) {
+      b = winDataBuf[seqno];
+    } else if (winAckData != null && data == winAckData[seqno]) {
+      b = winAckDataBuf[seqno];
+    } else {
+      System.arraycopy(data, 0, gatherData, 0, len);
+      b = gatherDataBuf;
+    }
+    b.clear();
+    b.limit(len);
+    return b;
+  }
+
   static int _crc_ccitt_16(int crc, char data) {
     crc  = (char)(crc >>> 8) | (crc << 8);
     crc ^= data;
     crc ^= (char)(crc & 0xff) >>> 4;
     crc ^= (crc << 8) << 4;
     crc ^= ((crc & 0xff) << 4) << 1;
-    return crc;
+    return crc & 0xffff;
   }
 
   static int _crc_buf(int initial, byte[] buf, int offs, int len) {
@@ -547,24 +1655,69 @@ public class Jumac implements JumacTickable {
     void tx(byte b);
     /** transmit multiple bytes */
     void tx(byte[] buf, int len);
-    /** return delta ticks before trying to send an unacked packet again */
+    /**
+     * return delta ticks before trying to send an unacked packet again,
+     * e.g. from the estimate of Jumac.getRto
+     */
     long retryDelta(int tries);
   }
+
+  /**
+   * Optional extension of the UMAC configuration/HAL interface. If the
+   * config implements this, packets with payload are handed over in one
+   * call instead of three, e.g. for a GatheringByteChannel.write. The
+   * payload buffer is a preallocated view of the stack's own copy of the
+   * data; only unsynchronized packet data is copied for it. The buffers
+   * are reused by the stack and must be consumed before returning.
+   */
+  public static interface GatheringConfig extends Config {
+    /** transmit header, payload and crc of a packet */
+    void tx(ByteBuffer[] frame);
+  }
+
+  /**
+   * Optional extension of the UMAC configuration/HAL interface. If the
+   * config implements this, received packets and acks are handed over
+   * as ByteBuffers instead of calling rxPak(char, byte[], int, boolean)
+   * and rxAck(char, byte[], int). The buffer is reused by the stack and
+   * is only valid during the call.
+   */
+  public static interface BufferConfig extends Config {
+    /** handle reception of a packet */
+    void rxPak(char seqno, ByteBuffer data, boolean req_ack);
+    /** handle acknowledge of a synchronized sent packet */
+    void rxAck(char seqno, ByteBuffer data);
+  }
   
   /**
    * Utility implementation of UMAC configuration/HAL interface.
    * Ignores non-umac data unless garbage function is overridden.
    * Implements a timer, based on System.currentTimeMillis and thread/wait.
-   * Be aware of granularity of this timer.
+   * Be aware of granularity of this timer. Resends after a timeout adapted
+   * to the measured round trip, see JumacRto.
    */
   public static abstract class DefaultAbstractConfig implements Config {
     Jumac umac;
     JumacTicker ticker;
     
     public DefaultAbstractConfig(Jumac umac) {
+      this(umac, new JumacTicker());
+    }
+    /**
+     * Uses given ticker as timer, e.g. one from a JumacTimerWheel
+     * shared by many links.
+     */
+    public DefaultAbstractConfig(Jumac umac, JumacTicker ticker) {
+      this(umac, ticker, umac);
+    }
+    /**
+     * Uses given ticker as timer, ticking given tickable instead of umac,
+     * e.g. a JumacEventLoop running umac.
+     */
+    public DefaultAbstractConfig(Jumac umac, JumacTicker ticker, JumacTickable tickme) {
       this.umac = umac;
-      this.ticker = new JumacTicker();
-      ticker.start(umac);
+      this.ticker = ticker;
+      ticker.start(tickme);
     }
     public void garbage(byte b) {}
     public long nowTick() {
@@ -577,4 +1730,23 @@ public class Jumac implements JumacTickable {
       ticker.cancelFutureTick();
     }
   }
+
+  /**
+   * DefaultAbstractConfig resending after the round trip estimate of umac,
+   * see Jumac.getRto, instead of a delay of its own.
+   */
+  public static abstract class RtoConfig extends DefaultAbstractConfig {
+    public RtoConfig(Jumac umac) {
+      super(umac);
+    }
+    public RtoConfig(Jumac umac, JumacTicker ticker) {
+      super(umac, ticker);
+    }
+    public RtoConfig(Jumac umac, JumacTicker ticker, JumacTickable tickme) {
+      super(umac, ticker, tickme);
+    }
+    public long retryDelta(int tries) {
+      return umac.getRto().retryDelta(tries);
+    }
+  }
 }
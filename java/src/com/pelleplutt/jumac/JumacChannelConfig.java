@@ -0,0 +1,136 @@
+package com.pelleplutt.jumac;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * UMAC configuration/HAL for a Jumac link over a non-blocking SocketChannel
+ * served by a JumacSelector.
+ *
+ * Received data is read in bulk by the selector thread. Packets are written
+ * to the channel with one gathering write directly from the sending thread;
+ * whatever the socket does not take is queued and flushed by the selector.
+ * If the queue has no room for the whole packet it is dropped before any
+ * of it is written, and left to the retransmit logic like a packet lost
+ * on air.
+ */
+public abstract class JumacChannelConfig extends Jumac.DefaultAbstractConfig implements Jumac.GatheringConfig {
+  public static final int TX_BUFFER_SIZE = 16*1024;
+
+  final JumacSelector sel;
+  volatile SocketChannel channel;
+  volatile SelectionKey key;
+  // queued tx data, in write mode
+  final ByteBuffer out = ByteBuffer.allocateDirect(TX_BUFFER_SIZE);
+  volatile boolean flushRequested;
+  final ByteBuffer single[] = new ByteBuffer[1];
+  byte singleData[];
+  final byte oneByte[] = new byte[1];
+  volatile long dropped;
+
+  /**
+   * Creates a config with a ticker from the timer wheel of the selector,
+   * so links add no timer threads.
+   */
+  public JumacChannelConfig(Jumac umac, JumacSelector sel) {
+    this(umac, sel.getTimerWheel().newTicker(), sel);
+  }
+
+  /** Creates a config with given ticker as timer. */
+  public JumacChannelConfig(Jumac umac, JumacTicker ticker, JumacSelector sel) {
+    super(umac, ticker);
+    this.sel = sel;
+  }
+
+  /** connects to given address and attaches the channel */
+  public void connect(SocketAddress addr) throws IOException {
+    attach(SocketChannel.open(addr));
+  }
+
+  /** attaches a connected channel, e.g. from ServerSocketChannel.accept */
+  public void attach(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    this.channel = channel;
+    sel.register(this);
+  }
+
+  public void close() {
+    SelectionKey k = key;
+    if (k != null) k.cancel();
+    try {channel.close();} catch (Throwable t) {}
+  }
+
+  /** returns number of packets dropped due to full tx queue */
+  public long getDropped() {
+    return dropped;
+  }
+
+  @Override
+  public synchronized void tx(ByteBuffer[] frame) {
+    SocketChannel ch = channel;
+    if (ch == null || !ch.isOpen()) {
+      return;
+    }
+    long len = 0;
+    for (ByteBuffer b : frame) {
+      len += b.remaining();
+    }
+    // whole frames only, dropped before any byte goes out so the peer
+    // never gets a truncated one
+    if (len > out.remaining()) {
+      dropped++;
+      return;
+    }
+    if (key != null && out.position() == 0) {
+      try {
+        ch.write(frame);
+      } catch (IOException e) {
+        close();
+        return;
+      }
+    }
+    for (ByteBuffer b : frame) {
+      out.put(b);
+    }
+    if (!flushRequested && key != null) {
+      flushRequested = true;
+      sel.requestWrite(this);
+    }
+  }
+
+  @Override
+  public synchronized void tx(byte[] buf, int len) {
+    if (singleData != buf) {
+      single[0] = ByteBuffer.wrap(buf);
+      singleData = buf;
+    }
+    single[0].clear();
+    single[0].limit(len);
+    tx(single);
+  }
+
+  @Override
+  public synchronized void tx(byte b) {
+    oneByte[0] = b;
+    tx(oneByte, 1);
+  }
+
+  // writes queued data, returns true when nothing is left
+  synchronized boolean flush() {
+    if (out.position() == 0) {
+      return true;
+    }
+    out.flip();
+    try {
+      channel.write(out);
+    } catch (IOException e) {
+      close();
+    }
+    out.compact();
+    return out.position() == 0;
+  }
+}
@@ -0,0 +1,124 @@
+package com.pelleplutt.jumac;
+
+/**
+ * CRC-CCITT16 engines for Jumac framing.
+ *
+ * All engines calculate the same checksum as Jumac._crc_ccitt_16 and the
+ * _crc_ccitt_16 of umac.c (polynomial 0x1021, msb first), they only differ
+ * in speed. BITWISE is the reference, TABLE does one table lookup per byte,
+ * SLICE4 and SLICE8 consume four or eight bytes per iteration.
+ *
+ * The engines are stateless and may be shared between Jumac instances.
+ */
+public abstract class JumacCrc {
+  static final int POLY = 0x1021;
+  static final int SLICES = 8;
+  // T[k][i] = crc of byte i followed by k zero bytes, with zero initial crc
+  static final char T[][] = new char[SLICES][256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 8;
+      for (int b = 0; b < 8; b++) {
+        crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLY : crc << 1;
+      }
+      T[0][i] = (char)crc;
+    }
+    for (int k = 1; k < SLICES; k++) {
+      for (int i = 0; i < 256; i++) {
+        int crc = T[k-1][i];
+        T[k][i] = (char)((crc << 8) ^ T[0][(crc >>> 8) & 0xff]);
+      }
+    }
+  }
+
+  /** Bit twiddling engine, one call to Jumac._crc_ccitt_16 per byte */
+  public static final JumacCrc BITWISE = new JumacCrc() {
+    @Override
+    public int update(int crc, int c) {
+      return Jumac._crc_ccitt_16(crc, (char)(c & 0xff));
+    }
+    @Override
+    public int update(int crc, byte[] buf, int offs, int len) {
+      return Jumac._crc_buf(crc, buf, offs, len);
+    }
+  };
+
+  /** 256 entry table engine */
+  public static final JumacCrc TABLE = new JumacCrc() {
+    @Override
+    public int update(int crc, byte[] buf, int offs, int len) {
+      return updateTable(crc, buf, offs, offs + len);
+    }
+  };
+
+  /** Slice-by-4 engine */
+  public static final JumacCrc SLICE4 = new JumacCrc() {
+    @Override
+    public int update(int crc, byte[] buf, int offs, int len) {
+      final char[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3];
+      int end = offs + len;
+      crc &= 0xffff;
+      while (end - offs >= 4) {
+        crc = t3[((crc >>> 8) ^ buf[offs]) & 0xff] ^
+              t2[(crc ^ buf[offs+1]) & 0xff] ^
+              t1[buf[offs+2] & 0xff] ^
+              t0[buf[offs+3] & 0xff];
+        offs += 4;
+      }
+      return updateTable(crc, buf, offs, end);
+    }
+  };
+
+  /** Slice-by-8 engine */
+  public static final JumacCrc SLICE8 = new JumacCrc() {
+    @Override
+    public int update(int crc, byte[] buf, int offs, int len) {
+      final char[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3],
+                   t4 = T[4], t5 = T[5], t6 = T[6], t7 = T[7];
+      int end = offs + len;
+      crc &= 0xffff;
+      while (end - offs >= 8) {
+        crc = t7[((crc >>> 8) ^ buf[offs]) & 0xff] ^
+              t6[(crc ^ buf[offs+1]) & 0xff] ^
+              t5[buf[offs+2] & 0xff] ^
+              t4[buf[offs+3] & 0xff] ^
+              t3[buf[offs+4] & 0xff] ^
+              t2[buf[offs+5] & 0xff] ^
+              t1[buf[offs+6] & 0xff] ^
+              t0[buf[offs+7] & 0xff];
+        offs += 8;
+      }
+      return updateTable(crc, buf, offs, end);
+    }
+  };
+
+  /**
+   * Updates crc with one byte.
+   * @param crc current crc
+   * @param c   the byte, only lower 8 bits are used
+   * @return new crc
+   */
+  public int update(int crc, int c) {
+    return ((crc << 8) ^ T[0][((crc >>> 8) ^ c) & 0xff]) & 0xffff;
+  }
+
+  /**
+   * Updates crc with a range of bytes.
+   * @param crc   current crc
+   * @param buf   the data
+   * @param offs  offset
+   * @param len   length
+   * @return new crc
+   */
+  public abstract int update(int crc, byte[] buf, int offs, int len);
+
+  static int updateTable(int crc, byte[] buf, int offs, int end) {
+    final char[] t0 = T[0];
+    crc &= 0xffff;
+    while (offs < end) {
+      crc = ((crc << 8) ^ t0[((crc >>> 8) ^ buf[offs++]) & 0xff]) & 0xffff;
+    }
+    return crc;
+  }
+}
@@ -0,0 +1,379 @@
+package com.pelleplutt.jumac;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a Jumac instance on one owner thread. Received bytes, timer ticks
+ * and packets to send are queued from any thread and handled in order by
+ * the owner, so retransmits, acks and user sends never race. All config
+ * callbacks are made on the owner thread, where Jumac may be called
+ * directly, e.g. ackReply from rxPak.
+ *
+ * The queue is a lock-free multi-producer single-consumer linked list.
+ * The owner drains all queued events in one go before sleeping again, and
+ * producers only wake it when it sleeps. Ticks are not queued but flagged,
+ * as pending ticks need only one call. Events are pooled per producer
+ * thread and handed back by the owner once per drain, so queueing does
+ * not allocate once the pools have grown to the traffic.
+ *
+ * While the loop runs, Jumac is loop-owned: as all calls are made on the
+ * owner thread, it takes no tx lock, and received bytes are parsed with
+ * the parser state in locals, storing the volatile fields once per frame
+ * rather than on each byte. Jumac must then not be called directly from
+ * other threads. The timer and tx state stay volatile, as Jumac shares
+ * them with the ticker and the user when driven directly.
+ *
+ * The timer of the config must tick this loop, not the Jumac instance,
+ * e.g. by a DefaultAbstractConfig created with this as tickable. Delivery
+ * on an executor, see Jumac.setRxExecutor, is not used with a loop.
+ */
+public class JumacEventLoop implements JumacTickable {
+  static final int EV_BYTES = 0;
+  static final int EV_TX = 1;
+  static final int EV_RUN = 2;
+
+  static class Event {
+    volatile Event next;
+    int kind;
+    byte data[];
+    int len;
+    boolean ack;
+    Runnable run;
+    // result of a send, and the thread waiting for it
+    volatile boolean done;
+    int res;
+    Thread waiter;
+    // pool of the producer thread, null for the initial stub
+    Pool pool;
+    // link in a pool
+    Event free;
+  }
+
+  // events of one producer thread. The producer takes from free, and when
+  // empty takes all of returned, where the owner pushes used events.
+  static class Pool {
+    Event free;
+    final AtomicReference<Event> returned = new AtomicReference<Event>();
+    // used events collected by the owner during a drain
+    Event used, usedLast;
+    Pool nextUsed;
+  }
+
+  static final AtomicReferenceFieldUpdater<Event, Event> NEXT =
+      AtomicReferenceFieldUpdater.newUpdater(Event.class, Event.class, "next");
+
+  final Jumac u;
+  // producers swap in at head, the owner takes from behind tail, which is
+  // the last event taken or the initial stub
+  final AtomicReference<Event> head;
+  Event tail;
+  final AtomicBoolean tickPending = new AtomicBoolean();
+  volatile boolean sleeping;
+  volatile boolean running;
+  Thread owner;
+  long events;
+  final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+    @Override
+    protected Pool initialValue() {
+      return new Pool();
+    }
+  };
+  // pools with used events to hand back, owner only
+  Pool usedPools;
+  final Runnable pump = new Runnable() {
+    @Override
+    public void run() {
+      u.pumpSend();
+    }
+  };
+
+  public JumacEventLoop(Jumac u) {
+    this.u = u;
+    Event stub = new Event();
+    head = new AtomicReference<Event>(stub);
+    tail = stub;
+  }
+
+  /** Starts the owner thread. */
+  public void start() {
+    running = true;
+    // published to the owner by Thread.start
+    u.loopOwned = true;
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "jumac-loop");
+    t.setDaemon(true);
+    owner = t;
+    t.start();
+  }
+
+  /**
+   * Stops the owner thread after the events queued so far. Jumac may then
+   * be called directly again.
+   */
+  public void stop() {
+    running = false;
+    LockSupport.unpark(owner);
+    if (Thread.currentThread() != owner) {
+      try {
+        owner.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    u.loopOwned = false;
+  }
+
+  /** returns whether called on the owner thread */
+  public boolean inLoop() {
+    return Thread.currentThread() == owner;
+  }
+
+  /** returns number of events handled, not counting ticks */
+  public long getEvents() {
+    return events;
+  }
+
+  /** Queues received bytes, see Jumac.report. The bytes are copied. */
+  public void report(byte[] buf, int offs, int len) {
+    Event e = obtain(EV_BYTES, len);
+    System.arraycopy(buf, offs, e.data, 0, len);
+    put(e);
+  }
+
+  /** Queues remaining bytes of given buffer, which are consumed. */
+  public void report(ByteBuffer buf) {
+    Event e = obtain(EV_BYTES, buf.remaining());
+    buf.get(e.data, 0, e.len);
+    put(e);
+  }
+
+  /** Flags a timer tick for the owner, see Jumac.tick. */
+  public void tick() {
+    if (tickPending.compareAndSet(false, true)) {
+      wake();
+    }
+  }
+
+  /**
+   * Transmits a packet, see Jumac.txPacket. On the owner thread it is sent
+   * directly, otherwise it is copied and queued. An unsynchronized packet
+   * is then sent later and 0 returned at once. For a synchronized packet
+   * the caller waits for the owner to send it and get its seqno; use send
+   * or trySend to queue those without waiting.
+   * @return sequence number on acked packet, 0 otherwise, negative on error
+   */
+  public int txPacket(boolean ack, byte[] buf, short len) {
+    if (inLoop()) {
+      return u.txPacket(ack, buf, len);
+    }
+    if (len > Jumac.UMAC_MAX_PAK_LEN) {
+      return Jumac.UMAC_ERR_TOO_LONG;
+    }
+    Event e = obtain(EV_TX, len);
+    e.ack = ack;
+    System.arraycopy(buf, 0, e.data, 0, len);
+    if (!ack) {
+      put(e);
+      return Jumac.UMAC_OK;
+    }
+    e.waiter = Thread.currentThread();
+    put(e);
+    boolean interrupted = false;
+    while (!e.done) {
+      LockSupport.park(this);
+      if (Thread.interrupted()) interrupted = true;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return e.res;
+  }
+
+  /**
+   * Queues a synchronized packet, see Jumac.send. The packet is sent and
+   * the future completed on the owner thread. Waits while the send queue
+   * is full, so must not be called on the owner thread, use trySend there.
+   */
+  public CompletableFuture<byte[]> send(byte[] buf, short len) throws InterruptedException {
+    CompletableFuture<byte[]> f = u.queueSend(buf, len, true);
+    execute(pump);
+    return f;
+  }
+
+  /**
+   * Same as send, but never waits for room in the queue.
+   * @return future of the ack data, or null if the queue is full
+   */
+  public CompletableFuture<byte[]> trySend(byte[] buf, short len) {
+    if (inLoop()) {
+      return u.trySend(buf, len);
+    }
+    CompletableFuture<byte[]> f;
+    try {
+      f = u.queueSend(buf, len, false);
+    } catch (InterruptedException e) {
+      // never waits
+      f = null;
+    }
+    if (f != null) {
+      execute(pump);
+    }
+    return f;
+  }
+
+  /** Runs given task on the owner thread, after the events queued so far. */
+  public void execute(Runnable r) {
+    Event e = obtain(EV_RUN, 0);
+    e.run = r;
+    put(e);
+  }
+
+  // event from the pool of the calling thread, with room for len bytes
+  Event obtain(int kind, int len) {
+    Pool p = pools.get();
+    Event e = p.free;
+    if (e == null) {
+      e = p.returned.getAndSet(null);
+    }
+    if (e == null) {
+      e = new Event();
+      e.pool = p;
+    }
+    p.free = e.free;
+    e.free = null;
+    // not read by the owner any more, published by the swap in put
+    NEXT.lazySet(e, null);
+    e.kind = kind;
+    e.len = len;
+    e.done = false;
+    if (len > 0 && (e.data == null || e.data.length < len)) {
+      e.data = new byte[len];
+    }
+    return e;
+  }
+
+  // collects an event no longer referenced by the queue, owner only
+  void recycle(Event e) {
+    Pool p = e.pool;
+    if (p == null) {
+      return;
+    }
+    e.run = null;
+    e.waiter = null;
+    if (p.used == null) {
+      p.usedLast = e;
+      p.nextUsed = usedPools;
+      usedPools = p;
+    }
+    e.free = p.used;
+    p.used = e;
+  }
+
+  // hands collected events back to their producers, one swap per pool
+  void returnUsed() {
+    Pool p = usedPools;
+    usedPools = null;
+    while (p != null) {
+      Event first = p.used;
+      Event last = p.usedLast;
+      p.used = null;
+      p.usedLast = null;
+      Event top;
+      do {
+        top = p.returned.get();
+        last.free = top;
+      } while (!p.returned.compareAndSet(top, first));
+      Pool n = p.nextUsed;
+      p.nextUsed = null;
+      p = n;
+    }
+  }
+
+  void put(Event e) {
+    Event prev = head.getAndSet(e);
+    NEXT.lazySet(prev, e);
+    // sleeping is read after the swap of head, and the owner reads head
+    // after setting sleeping; both are volatile, so one of them sees the
+    // other. The lazy link may still be on its way, the owner then spins
+    // until it arrives instead of sleeping.
+    if (sleeping) {
+      LockSupport.unpark(owner);
+    }
+  }
+
+  void wake() {
+    if (sleeping) {
+      LockSupport.unpark(owner);
+    }
+  }
+
+  // takes next event, or null if none queued yet
+  Event take() {
+    Event t = tail;
+    Event n = t.next;
+    if (n == null) {
+      return null;
+    }
+    // the taken event is the new stub, the old one goes back to its pool
+    tail = n;
+    recycle(t);
+    return n;
+  }
+
+  void loop() {
+    while (running || tail != head.get()) {
+      boolean busy = drain();
+      if (!busy) {
+        sleeping = true;
+        if (head.get() == tail && !tickPending.get() && running) {
+          LockSupport.park(this);
+        }
+        sleeping = false;
+      }
+    }
+  }
+
+  // handles all queued events and a pending tick, returns false if none
+  boolean drain() {
+    boolean busy = false;
+    Event e;
+    while ((e = take()) != null) {
+      busy = true;
+      events++;
+      switch (e.kind) {
+      case EV_BYTES:
+        u.report(e.data, 0, e.len);
+        break;
+      case EV_TX:
+        try {
+          e.res = u.txPacket(e.ack, e.data, (short)e.len);
+        } finally {
+          e.done = true;
+          LockSupport.unpark(e.waiter);
+        }
+        break;
+      case EV_RUN:
+        e.run.run();
+        break;
+      }
+      if (tickPending.get() && tickPending.compareAndSet(true, false)) {
+        u.tick();
+      }
+    }
+    if (tickPending.compareAndSet(true, false)) {
+      busy = true;
+      u.tick();
+    }
+    returnUsed();
+    return busy;
+  }
+}
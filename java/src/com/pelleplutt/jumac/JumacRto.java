@@ -0,0 +1,111 @@
+package com.pelleplutt.jumac;
+
+/**
+ * Retransmission timeout estimator after Jacobson/Karels, as in RFC 6298.
+ * Each Jumac instance feeds its own estimator with the round trip from
+ * sending a synchronized packet to its ack. Packets that were resent are
+ * not sampled, as their ack may be for any of the sends (Karn's rule).
+ *
+ * The timeout is the smoothed round trip plus four times its variation,
+ * at least one tick more than the round trip, clamped to given limits. It
+ * is doubled for every resend of a packet, and starts over from the
+ * estimate with the next packet. Used as retryDelta by Jumac.RtoConfig;
+ * other configs may call it from their own retryDelta, see Jumac.getRto.
+ */
+public class JumacRto {
+  /** Timeout before the first sample, in ticks. */
+  public static final long RTO_INITIAL = 1000;
+  /** Lower limit of timeout, in ticks. */
+  public static final long RTO_MIN = 10;
+  /** Upper limit of timeout, in ticks. */
+  public static final long RTO_MAX = 60000;
+
+  final long initial, min, max;
+  // smoothed round trip times 8 and variation times 4, in ticks
+  long srtt8;
+  long rttvar4;
+  boolean sampled;
+  long rto;
+  long samples;
+
+  /** Creates an estimator with ms limits, for the default ticker. */
+  public JumacRto() {
+    this(RTO_INITIAL, RTO_MIN, RTO_MAX);
+  }
+
+  /**
+   * Creates an estimator with given limits.
+   * @param initial timeout before the first sample
+   * @param min     lower limit of timeout
+   * @param max     upper limit of timeout
+   */
+  public JumacRto(long initial, long min, long max) {
+    this.initial = initial;
+    this.min = min;
+    this.max = max;
+    this.rto = initial;
+  }
+
+  /**
+   * Feeds a round trip sample.
+   * @param rtt ticks from sending a packet until its ack
+   */
+  public synchronized void sample(long rtt) {
+    if (rtt < 0) {
+      return;
+    }
+    if (!sampled) {
+      sampled = true;
+      srtt8 = rtt << 3;
+      rttvar4 = rtt << 1;
+    } else {
+      long err = rtt - (srtt8 >> 3);
+      srtt8 += err;
+      if (err < 0) err = -err;
+      rttvar4 += err - (rttvar4 >> 2);
+    }
+    samples++;
+    rto = Math.min(max, Math.max(min, (srtt8 >> 3) + Math.max(1, rttvar4)));
+  }
+
+  /**
+   * Returns ticks to wait for an ack before resending, see
+   * Jumac.Config.retryDelta.
+   * @param tries times the packet was resent so far
+   */
+  public synchronized long retryDelta(int tries) {
+    if (tries >= 31 || rto << tries >= max) {
+      return max;
+    }
+    return rto << tries;
+  }
+
+  /** Forgets all samples, e.g. when the link has changed. */
+  public synchronized void reset() {
+    sampled = false;
+    srtt8 = 0;
+    rttvar4 = 0;
+    rto = initial;
+    samples = 0;
+  }
+
+  /** returns current timeout in ticks, before backoff */
+  public synchronized long getRto() {
+    return rto;
+  }
+
+  /** returns smoothed round trip in ticks, 0 before the first sample */
+  public synchronized long getSrtt() {
+    return srtt8 >> 3;
+  }
+
+  /** returns round trip variation in ticks, 0 before the first sample */
+  public synchronized long getRttvar() {
+    return rttvar4 >> 2;
+  }
+
+  /** returns number of samples taken */
+  public synchronized long getSamples() {
+    return samples;
+  }
+}
@@ -0,0 +1,154 @@
+package com.pelleplutt.jumac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Socket transport for many Jumac links on one thread.
+ *
+ * Each link is a JumacChannelConfig attached to a SocketChannel. The
+ * selector thread reads all readable channels in bulk into one direct
+ * buffer and reports it to the link's Jumac, and flushes data that could
+ * not be written directly by the link. Thread count does not depend on
+ * the number of links. The timers of links created without a ticker run
+ * on one JumacTimerWheel of the selector, see getTimerWheel.
+ */
+public class JumacSelector {
+  public static final int READ_BUFFER_SIZE = 64*1024;
+
+  final Selector selector;
+  final ByteBuffer rxBuf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  volatile boolean running = true;
+  final Thread thread;
+  JumacTimerWheel wheel;
+
+  public JumacSelector() throws IOException {
+    selector = Selector.open();
+    thread = new Thread(loop, "jumac-selector");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * stops the selector thread and closes all attached channels, and stops
+   * the timer wheel of the selector
+   */
+  public void close() {
+    running = false;
+    selector.wakeup();
+    synchronized (this) {
+      if (wheel != null) {
+        wheel.stop();
+      }
+    }
+  }
+
+  /**
+   * Returns the timer wheel shared by links of this selector, started on
+   * first call with 1 ms ticks.
+   */
+  public synchronized JumacTimerWheel getTimerWheel() {
+    if (wheel == null) {
+      wheel = new JumacTimerWheel();
+    }
+    return wheel;
+  }
+
+  // runs given task on selector thread
+  void execute(Runnable r) {
+    tasks.add(r);
+    selector.wakeup();
+  }
+
+  void register(final JumacChannelConfig link) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          link.key = link.channel.register(selector, SelectionKey.OP_READ, link);
+        } catch (ClosedChannelException e) {
+          link.close();
+        }
+        link.flushRequested = false;
+        if (!link.flush() && link.key != null) {
+          link.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+      }
+    });
+  }
+
+  void requestWrite(final JumacChannelConfig link) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        link.flushRequested = false;
+        SelectionKey key = link.key;
+        if (key != null && key.isValid()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+      }
+    });
+  }
+
+  void read(JumacChannelConfig link) {
+    int n;
+    try {
+      do {
+        rxBuf.clear();
+        n = link.channel.read(rxBuf);
+        if (n > 0) {
+          rxBuf.flip();
+          link.umac.report(rxBuf);
+        }
+      } while (n == READ_BUFFER_SIZE);
+    } catch (IOException e) {
+      n = -1;
+    }
+    if (n < 0) {
+      link.close();
+    }
+  }
+
+  private Runnable loop = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          Runnable r;
+          while ((r = tasks.poll()) != null) {
+            r.run();
+          }
+          selector.select();
+          Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+          while (i.hasNext()) {
+            SelectionKey key = i.next();
+            i.remove();
+            JumacChannelConfig link = (JumacChannelConfig)key.attachment();
+            if (key.isValid() && key.isWritable()) {
+              if (link.flush()) {
+                key.interestOps(SelectionKey.OP_READ);
+              }
+            }
+            if (key.isValid() && key.isReadable()) {
+              read(link);
+            }
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          ((JumacChannelConfig)key.attachment()).close();
+        }
+        try {selector.close();} catch (Throwable t) {}
+      }
+    }
+  };
+}
@@ -0,0 +1,196 @@
+package com.pelleplutt.jumac;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of a Jumac instance, always on, see Jumac.getStats. Counting
+ * is an increment of a striped counter, so the parser, timer and sending
+ * threads do not contend; only reading sums the stripes. Read all
+ * counters at once with snapshot, or register as an MXBean to read them
+ * over JMX.
+ *
+ * Ack latency is the ticks from first sending a synchronized packet to
+ * its ack, including resends, in LATENCY_BUCKETS buckets by powers of
+ * two: bucket 0 counts 0 ticks, bucket i from 2^(i-1) to 2^i - 1 ticks
+ * and the last one all longer.
+ */
+public class JumacStats implements JumacStatsMXBean {
+  public static final int LATENCY_BUCKETS = 16;
+  /** JMX domain of registered instances */
+  public static final String JMX_DOMAIN = "com.pelleplutt.jumac";
+
+  final LongAdder rxFrames = new LongAdder();
+  final LongAdder rxBytes = new LongAdder();
+  final LongAdder txFrames = new LongAdder();
+  final LongAdder txBytes = new LongAdder();
+  final LongAdder crcErrors = new LongAdder();
+  final LongAdder nacksRx[] = adders(5);
+  final LongAdder nacksTx[] = adders(5);
+  final LongAdder retransmits = new LongAdder();
+  final LongAdder timeouts = new LongAdder();
+  final LongAdder garbage = new LongAdder();
+  final LongAdder ackLatency[] = adders(LATENCY_BUCKETS);
+  ObjectName name;
+
+  static LongAdder[] adders(int n) {
+    LongAdder a[] = new LongAdder[n];
+    for (int i = 0; i < n; i++) {
+      a[i] = new LongAdder();
+    }
+    return a;
+  }
+
+  static long[] sums(LongAdder[] a) {
+    long s[] = new long[a.length];
+    for (int i = 0; i < a.length; i++) {
+      s[i] = a[i].sum();
+    }
+    return s;
+  }
+
+  void txFrame(int len) {
+    txFrames.increment();
+    txBytes.add(len);
+  }
+
+  void nack(LongAdder[] nacks, int err) {
+    nacks[err >= 1 && err <= 4 ? err : 0].increment();
+  }
+
+  void ackLatency(long ticks) {
+    int b = ticks <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(ticks);
+    ackLatency[Math.min(b, LATENCY_BUCKETS - 1)].increment();
+  }
+
+  /** returns all counters, each read once */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * Registers as an MXBean on the platform MBean server, named
+   * JMX_DOMAIN:type=Jumac,name=given name. Names must be unique.
+   * @param linkName name of the link, quoted if needed
+   * @return 0 if ok, negative on error
+   */
+  public synchronized int register(String linkName) {
+    if (name != null) {
+      return Jumac.UMAC_ERR_STATE;
+    }
+    try {
+      ObjectName n = new ObjectName(JMX_DOMAIN + ":type=Jumac,name=" + ObjectName.quote(linkName));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+      name = n;
+      return Jumac.UMAC_OK;
+    } catch (Exception e) {
+      return Jumac.UMAC_ERR_ARG;
+    }
+  }
+
+  /**
+   * Unregisters from the platform MBean server, e.g. when the link is
+   * closed.
+   * @return 0 if ok, negative on error
+   */
+  public synchronized int unregister() {
+    if (name == null) {
+      return Jumac.UMAC_ERR_STATE;
+    }
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    try {
+      mbs.unregisterMBean(name);
+    } catch (Exception e) {
+      return Jumac.UMAC_ERR_STATE;
+    } finally {
+      name = null;
+    }
+    return Jumac.UMAC_OK;
+  }
+
+  /** returns name registered by, null if not registered */
+  public synchronized ObjectName getName() {
+    return name;
+  }
+
+  public long getRxFrames() {
+    return rxFrames.sum();
+  }
+  public long getRxBytes() {
+    return rxBytes.sum();
+  }
+  public long getTxFrames() {
+    return txFrames.sum();
+  }
+  public long getTxBytes() {
+    return txBytes.sum();
+  }
+  public long getCrcErrors() {
+    return crcErrors.sum();
+  }
+  public long[] getNacksRx() {
+    return sums(nacksRx);
+  }
+  public long[] getNacksTx() {
+    return sums(nacksTx);
+  }
+  public long getRetransmits() {
+    return retransmits.sum();
+  }
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+  public long getGarbage() {
+    return garbage.sum();
+  }
+  public long[] getAckLatency() {
+    return sums(ackLatency);
+  }
+
+  /**
+   * Counters read at one time. Counters updated while reading may be
+   * in or not, so counters may disagree by the few events of that time.
+   */
+  public static class Snapshot {
+    public final long rxFrames;
+    public final long rxBytes;
+    public final long txFrames;
+    public final long txBytes;
+    public final long crcErrors;
+    /** indexed by UMAC_NACK_ERR_*, 0 for others */
+    public final long nacksRx[];
+    /** indexed by UMAC_NACK_ERR_* */
+    public final long nacksTx[];
+    public final long retransmits;
+    public final long timeouts;
+    public final long garbage;
+    /** see JumacStats */
+    public final long ackLatency[];
+
+    Snapshot(JumacStats s) {
+      rxFrames = s.getRxFrames();
+      rxBytes = s.getRxBytes();
+      txFrames = s.getTxFrames();
+      txBytes = s.getTxBytes();
+      crcErrors = s.getCrcErrors();
+      nacksRx = s.getNacksRx();
+      nacksTx = s.getNacksTx();
+      retransmits = s.getRetransmits();
+      timeouts = s.getTimeouts();
+      garbage = s.getGarbage();
+      ackLatency = s.getAckLatency();
+    }
+
+    @Override
+    public String toString() {
+      return "rx " + rxFrames + " frames " + rxBytes + " bytes, tx " + txFrames + " frames " +
+          txBytes + " bytes, crc errors " + crcErrors + ", nacks rx " + Arrays.toString(nacksRx) +
+          " tx " + Arrays.toString(nacksTx) + ", retransmits " + retransmits + ", timeouts " +
+          timeouts + ", garbage " + garbage + ", ack latency " + Arrays.toString(ackLatency);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.pelleplutt.jumac;
+
+/**
+ * Management interface of JumacStats, see JumacStats.register. All
+ * counters are totals since the instance was created.
+ */
+public interface JumacStatsMXBean {
+  /** returns frames received with good crc */
+  long getRxFrames();
+  /** returns bytes received, including garbage */
+  long getRxBytes();
+  /** returns frames sent, including resends, acks and nacks */
+  long getTxFrames();
+  /** returns bytes sent */
+  long getTxBytes();
+  /** returns frames received with bad crc */
+  long getCrcErrors();
+  /** returns nacks received, indexed by UMAC_NACK_ERR_*, 0 for others */
+  long[] getNacksRx();
+  /** returns nacks sent, indexed by UMAC_NACK_ERR_* */
+  long[] getNacksTx();
+  /** returns synchronized packets resent on timeout or nack */
+  long getRetransmits();
+  /** returns synchronized packets never acked */
+  long getTimeouts();
+  /** returns non-protocol bytes received */
+  long getGarbage();
+  /** returns acked packets by ticks from first send to ack, see JumacStats */
+  long[] getAckLatency();
+}
@@ -1,69 +1,169 @@
 package com.pelleplutt.jumac;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Timer thread calling tick on a JumacTickable when a requested number of
+ * ticks has passed.
+ *
+ * By default a tick is a millisecond of System.currentTimeMillis and the
+ * thread waits on a monitor. Alternatively ticks can be based on the
+ * monotonic System.nanoTime with any tick length, and the thread can wait
+ * by monitor, by LockSupport.parkNanos or by busy-spinning. Spinning gives
+ * the lowest latency but keeps a cpu core busy.
+ *
+ * Requesting and cancelling ticks is lock-free. The ticker thread is only
+ * woken when a tick is requested before the time it is sleeping until;
+ * later or cancelled ticks are picked up when it wakes anyway.
+ */
 public class JumacTicker {
+  /** wait on monitor, granularity is about a millisecond */
+  public static final int TICKER_WAIT_MONITOR = 0;
+  /** wait with LockSupport.parkNanos */
+  public static final int TICKER_WAIT_PARK = 1;
+  /** busy-spin, never sleep */
+  public static final int TICKER_WAIT_SPIN = 2;
+
   JumacTickable tickme;
   private final Object LOCK = new Object();
-  private volatile long alarm;
-  
+  // requested tick, 0 if none
+  private final AtomicLong alarm = new AtomicLong();
+  // tick the thread sleeps until, SLEEP_FOREVER if no alarm, AWAKE if running
+  private volatile long sleepUntil = AWAKE;
+  private static final long SLEEP_FOREVER = Long.MAX_VALUE;
+  private static final long AWAKE = Long.MIN_VALUE;
+  final long tickNanos;
+  final long startNanos;
+  final int waitMode;
+  Thread thread;
+
+  /**
+   * Creates a ticker with millisecond ticks from System.currentTimeMillis,
+   * waiting on a monitor.
+   */
   public JumacTicker() {
+    this.tickNanos = 0;
+    this.startNanos = 0;
+    this.waitMode = TICKER_WAIT_MONITOR;
+  }
+  /**
+   * Creates a ticker with ticks from System.nanoTime.
+   * @param tickNanos length of a tick in nanoseconds
+   * @param waitMode  one of TICKER_WAIT_MONITOR, TICKER_WAIT_PARK, TICKER_WAIT_SPIN
+   */
+  public JumacTicker(long tickNanos, int waitMode) {
+    this.tickNanos = tickNanos;
+    // first tick is 1, 0 means no alarm
+    this.startNanos = System.nanoTime() - tickNanos;
+    this.waitMode = waitMode;
   }
   public void start(JumacTickable tickme) {
     this.tickme = tickme;
     Thread t = new Thread(ticker, "jumac-ticker");
     t.setDaemon(true);
+    thread = t;
     t.start();
   }
   public long nowTick() {
-    return System.currentTimeMillis();
+    if (tickNanos == 0) {
+      return System.currentTimeMillis();
+    }
+    return (System.nanoTime() - startNanos) / tickNanos;
   }
   public void requestFutureTick(long delta) {
-    synchronized (LOCK) {
-      alarm = nowTick() + delta;
-      LOCK.notifyAll();
+    long a = nowTick() + delta;
+    alarm.set(a);
+    if (a < sleepUntil) {
+      wakeup();
     }
   }
   public void cancelFutureTick() {
-    synchronized (LOCK) {
-      alarm = 0;
-      LOCK.notifyAll();
-    }
+    // no need to wake, thread goes back to sleep when finding no alarm
+    alarm.set(0);
   }
   public long ticksToMs(long ticks) {
-    return ticks;
+    if (tickNanos == 0) {
+      return ticks;
+    }
+    return ticks * tickNanos / 1000000;
   }
   public int ticksToNanoRemainder(long ticks) {
-    return 0;
+    if (tickNanos == 0) {
+      return 0;
+    }
+    return (int)(ticks * tickNanos % 1000000);
+  }
+  long ticksToNanos(long ticks) {
+    return ticksToMs(ticks) * 1000000 + ticksToNanoRemainder(ticks);
+  }
+
+  void wakeup() {
+    switch (waitMode) {
+    case TICKER_WAIT_MONITOR:
+      synchronized (LOCK) {
+        LOCK.notifyAll();
+      }
+      break;
+    case TICKER_WAIT_PARK:
+      LockSupport.unpark(thread);
+      break;
+    }
+  }
+
+  // sleeps until given alarm or a wakeup, returns false if interrupted
+  boolean sleep(long a, long now) {
+    if (waitMode == TICKER_WAIT_SPIN) {
+      Thread.onSpinWait();
+      return !Thread.interrupted();
+    }
+    // sleepUntil is written before alarm is reread, and requestFutureTick
+    // writes alarm before reading sleepUntil, so a new earlier alarm is
+    // either seen here or wakes the thread
+    sleepUntil = a == 0 ? SLEEP_FOREVER : a;
+    try {
+      if (waitMode == TICKER_WAIT_MONITOR) {
+        synchronized (LOCK) {
+          if (alarm.get() == a) {
+            if (a == 0) {
+              LOCK.wait();
+            } else {
+              LOCK.wait(ticksToMs(a - now), ticksToNanoRemainder(a - now));
+            }
+          }
+        }
+      } else {
+        if (alarm.get() == a) {
+          if (a == 0) {
+            LockSupport.park(this);
+          } else {
+            LockSupport.parkNanos(this, ticksToNanos(a - now));
+          }
+        }
+        if (Thread.interrupted()) {
+          return false;
+        }
+      }
+    } catch (InterruptedException e) {
+      return false;
+    } finally {
+      sleepUntil = AWAKE;
+    }
+    return true;
   }
 
   private Runnable ticker = new Runnable() {
     @Override
     public void run() {
       while (true) {
-        boolean trig = false;
-        synchronized (LOCK) {
-          long now = 0; 
-          while (alarm == 0 || (now = nowTick()) < alarm) {
-            try {
-              if (alarm > 0) {
-                if (alarm - now > 0) {
-                  LOCK.wait(ticksToMs(alarm - now), ticksToNanoRemainder(alarm - now));
-                }
-              } else {
-                LOCK.wait();
-              }
-            } catch (InterruptedException e) {
-              return;
-            }
-          }
-          now = nowTick();
-          if (alarm != 0 && now >= alarm) {
-            trig = true;
-            alarm = 0;
+        long a = alarm.get();
+        long now = nowTick();
+        if (a != 0 && now >= a) {
+          if (alarm.compareAndSet(a, 0)) {
+            tickme.tick();
           }
-        } // sync LOCK
-        if (trig) {
-          tickme.tick();
+        } else if (!sleep(a, now)) {
+          return;
         }
       } // while forever
     }
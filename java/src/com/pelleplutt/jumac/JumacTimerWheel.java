@@ -0,0 +1,302 @@
+package com.pelleplutt.jumac;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel hosting the timers of many Jumac instances.
+ *
+ * Instead of one JumacTicker thread per link, each link gets a ticker from
+ * newTicker(). All tickers share one wheel thread which only advances the
+ * wheel, expired timers are ticked on a small executor. Requesting and
+ * cancelling a timer is O(1). A link is never ticked concurrently with
+ * itself; a timer expiring while its previous tick still runs is ticked
+ * again directly afterwards.
+ *
+ * Ticks of tickers from a wheel are wheel ticks, see tickNanos.
+ */
+public class JumacTimerWheel {
+  static final int WHEEL_BITS = 6;
+  static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  static final int LEVELS = 4;
+  static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+  final long tickNanos;
+  final long startNanos;
+  final Executor executor;
+  final ExecutorService ownExecutor;
+  // list heads, LEVELS * WHEEL_SIZE slots
+  final Timer slots[] = new Timer[LEVELS * WHEEL_SIZE];
+  // next wheel tick to process
+  long current;
+  int count;
+  volatile boolean idle;
+  volatile boolean running = true;
+  final Thread thread;
+
+  /**
+   * Creates a wheel with 1 ms ticks and two tick threads.
+   */
+  public JumacTimerWheel() {
+    this(1000000, 2);
+  }
+
+  /**
+   * Creates a wheel with its own pool of tick threads.
+   * @param tickNanos length of a wheel tick in nanoseconds
+   * @param threads   number of threads calling tick on expired links
+   */
+  public JumacTimerWheel(long tickNanos, int threads) {
+    this(tickNanos, null, Executors.newFixedThreadPool(threads, daemonFactory("jumac-wheel-tick")));
+  }
+
+  /**
+   * Creates a wheel ticking expired links on given executor.
+   * @param tickNanos length of a wheel tick in nanoseconds
+   * @param executor  executor calling tick on expired links
+   */
+  public JumacTimerWheel(long tickNanos, Executor executor) {
+    this(tickNanos, executor, null);
+  }
+
+  JumacTimerWheel(long tickNanos, Executor executor, ExecutorService ownExecutor) {
+    this.tickNanos = tickNanos;
+    this.executor = executor != null ? executor : ownExecutor;
+    this.ownExecutor = ownExecutor;
+    this.startNanos = System.nanoTime();
+    this.thread = daemonFactory("jumac-wheel").newThread(wheel);
+    thread.start();
+  }
+
+  static ThreadFactory daemonFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /**
+   * Returns a new ticker running on this wheel, e.g. for
+   * Jumac.DefaultAbstractConfig(Jumac, JumacTicker).
+   */
+  public JumacTicker newTicker() {
+    return new Timer();
+  }
+
+  /** returns current wheel tick */
+  public long nowTick() {
+    return (System.nanoTime() - startNanos) / tickNanos;
+  }
+
+  /** returns number of armed timers */
+  public synchronized int size() {
+    return count;
+  }
+
+  /** stops the wheel thread and the tick threads of the wheel */
+  public void stop() {
+    running = false;
+    LockSupport.unpark(thread);
+    if (ownExecutor != null) {
+      ownExecutor.shutdown();
+    }
+  }
+
+  synchronized void schedule(Timer t, long expires) {
+    if (t.slot >= 0) {
+      unlink(t);
+    } else {
+      count++;
+    }
+    t.expires = expires;
+    link(t);
+    if (idle) {
+      idle = false;
+      LockSupport.unpark(thread);
+    }
+  }
+
+  synchronized void unschedule(Timer t) {
+    if (t.slot >= 0) {
+      unlink(t);
+      count--;
+    }
+  }
+
+  void link(Timer t) {
+    long expires = t.expires;
+    long delta = expires - current;
+    int slot;
+    if (delta < 0) {
+      slot = (int)(current & WHEEL_MASK);
+    } else {
+      if (delta > MAX_DELTA) {
+        // put as far as possible, rechecked when cascaded
+        expires = current + MAX_DELTA;
+        delta = MAX_DELTA;
+      }
+      int level = 0;
+      while (delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+        level++;
+      }
+      slot = level * WHEEL_SIZE + (int)((expires >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    }
+    Timer head = slots[slot];
+    t.prev = null;
+    t.next = head;
+    if (head != null) head.prev = t;
+    slots[slot] = t;
+    t.slot = slot;
+  }
+
+  void unlink(Timer t) {
+    if (t.prev == null) {
+      slots[t.slot] = t.next;
+    } else {
+      t.prev.next = t.next;
+    }
+    if (t.next != null) {
+      t.next.prev = t.prev;
+    }
+    t.next = t.prev = null;
+    t.slot = -1;
+  }
+
+  // moves timers of given slot down to lower levels, returns slot index
+  int cascade(int level) {
+    int ix = (int)((current >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    int slot = level * WHEEL_SIZE + ix;
+    Timer t = slots[slot];
+    slots[slot] = null;
+    while (t != null) {
+      Timer next = t.next;
+      t.slot = -1;
+      link(t);
+      t = next;
+    }
+    return ix;
+  }
+
+  // processes the current wheel tick, adds expired timers to given list
+  synchronized void advance(ArrayList<Timer> expired) {
+    int ix = (int)(current & WHEEL_MASK);
+    if (ix == 0) {
+      for (int level = 1; level < LEVELS && cascade(level) == 0; level++);
+    }
+    Timer t = slots[ix];
+    slots[ix] = null;
+    while (t != null) {
+      Timer next = t.next;
+      t.next = t.prev = null;
+      t.slot = -1;
+      count--;
+      expired.add(t);
+      t = next;
+    }
+    current++;
+  }
+
+  private Runnable wheel = new Runnable() {
+    @Override
+    public void run() {
+      ArrayList<Timer> expired = new ArrayList<Timer>();
+      while (running) {
+        long now = nowTick();
+        synchronized (JumacTimerWheel.this) {
+          if (count == 0) {
+            // nothing armed, skip ahead and sleep until something is
+            current = now;
+            idle = true;
+          }
+        }
+        if (idle) {
+          LockSupport.park(this);
+          continue;
+        }
+        while (current <= now) {
+          advance(expired);
+          for (int i = 0; i < expired.size(); i++) {
+            expired.get(i).fire();
+          }
+          expired.clear();
+        }
+        long wait = startNanos + current * tickNanos - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(this, wait);
+        }
+      }
+    }
+  };
+
+  class Timer extends JumacTicker implements Runnable {
+    Timer next, prev;
+    int slot = -1;
+    long expires;
+    // 0: idle, 1: ticking, 2: ticking and expired again
+    final AtomicInteger state = new AtomicInteger();
+
+    @Override
+    public void start(JumacTickable tickme) {
+      this.tickme = tickme;
+    }
+    @Override
+    public long nowTick() {
+      return JumacTimerWheel.this.nowTick();
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      schedule(this, nowTick() + delta);
+    }
+    @Override
+    public void cancelFutureTick() {
+      unschedule(this);
+    }
+    @Override
+    public long ticksToMs(long ticks) {
+      return ticks * tickNanos / 1000000;
+    }
+    @Override
+    public int ticksToNanoRemainder(long ticks) {
+      return (int)(ticks * tickNanos % 1000000);
+    }
+
+    void fire() {
+      while (true) {
+        int s = state.get();
+        if (s == 0) {
+          if (state.compareAndSet(0, 1)) {
+            executor.execute(this);
+            return;
+          }
+        } else if (s == 1) {
+          if (state.compareAndSet(1, 2)) {
+            return;
+          }
+        } else {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      do {
+        try {
+          tickme.tick();
+        } catch (Throwable t) {
+          t.printStackTrace();
+        }
+      } while (!state.compareAndSet(1, 0) && state.getAndSet(1) == 2);
+    }
+  }
+}
@@ -11,13 +11,42 @@ abstract class Jumft {
   public static final int UMFT_DEF_DT_MIN      = 7;
   public static final int UMFT_DEF_DT_MAX      = 10;
   public static final int UMFT_DEF_MTU         = 250;
+
+  /** window of chunks in flight for peers not negotiating a window */
+  public static final int UMFT_LEGACY_WINDOW   = 32;
+  public static final int UMFT_DEF_WINDOW      = 256;
+  public static final int UMFT_MAX_WINDOW      = 4096;
+
+  /** SEND_FILE flag: 64-bit length and offsets */
+  public static final int UMFT_FLAG_LARGE      = 0x01;
+  /** SEND_FILE flag: resumable transfer, see JumftResumable */
+  public static final int UMFT_FLAG_RESUME     = 0x02;
+  /** largest length of files sent without 64-bit offsets */
+  public static final long UMFT_MAX_LEGACY_LEN = 0xffffffffL;
+
+  public boolean _dbg = false;
+
+  // multiplexer sharing the link with other sessions, or null, and
+  // whether waiting in its queue for the synchronized packet slot
+  JumftMux mux;
+  boolean sync_queued;
+
+  // sends the synchronized packet of this session, built when sent, and
+  // returns as Jumac.txPacket
+  abstract int txSync();
+
+  void dbg(String format, Object ...args) {
+    if (_dbg) {
+      System.out.format(format, args);
+    }
+  }
   
   long to32bit(byte[] buf, int offs) {
-    return 
+    return (
         ((buf[offs++] & 0xff) << 24) |
         ((buf[offs++] & 0xff) << 16) |
         ((buf[offs++] & 0xff) << 8)  |
-        ((buf[offs] & 0xff));
+        ((buf[offs] & 0xff))) & 0xffffffffL;
   }
   
   void from32bit(long d, byte[] buf, int offs) {
@@ -27,6 +56,15 @@ abstract class Jumft {
     buf[offs++] = (byte)(d);
   }
 
+  long to64bit(byte[] buf, int offs) {
+    return (to32bit(buf, offs) << 32) | to32bit(buf, offs + 4);
+  }
+  
+  void from64bit(long d, byte[] buf, int offs) {
+    from32bit(d >>> 32, buf, offs);
+    from32bit(d, buf, offs + 4);
+  }
+
   int to16bit(byte[] buf, int offs) {
     return 
         ((buf[offs++] & 0xff) << 8)  |
@@ -38,4 +76,123 @@ abstract class Jumft {
     buf[offs++] = (byte)(d);
   }
 
+  // returns window limited to given maximum, whole words and valid range
+  int window(int w, int max) {
+    if (w > max) w = max;
+    if (w > UMFT_MAX_WINDOW) w = UMFT_MAX_WINDOW;
+    w &= ~31;
+    return w < UMFT_LEGACY_WINDOW ? UMFT_LEGACY_WINDOW : w;
+  }
+
+  // bytes received in chunks before offset and chunks set in bitset w
+  // following it, with chunks of mtu bytes and the last one shorter
+  long receivedBytes(long offset, int[] w, long length, int mtu) {
+    long bytes = Math.min(length, offset * mtu);
+    long last = (length - 1) / mtu;
+    for (int i = 0; i < w.length; i++) {
+      int b = w[i];
+      while (b != 0) {
+        long chunk = offset + (i << 5) + Integer.numberOfTrailingZeros(b);
+        if (chunk <= last) {
+          bytes += chunk == last ? length - last * mtu : mtu;
+        }
+        b &= b - 1;
+      }
+    }
+    return bytes;
+  }
+
+  // Window bitsets: chunk n of the window is bit n%32 of word n/32. On
+  // the wire words are sent first to last, each as 32 bits, so a window
+  // of 32 has the same format as the original single bitmask.
+
+  boolean testBit(int[] w, long n) {
+    return (w[(int)(n >>> 5)] & (1 << n)) != 0;
+  }
+
+  void setBit(int[] w, long n) {
+    w[(int)(n >>> 5)] |= 1 << n;
+  }
+
+  // number of consecutive set bits from bit 0
+  int trailingOnes(int[] w) {
+    int n = 0;
+    for (int i = 0; i < w.length; i++) {
+      int t = Integer.numberOfTrailingZeros(~w[i]);
+      n += t;
+      if (t < 32) break;
+    }
+    return n;
+  }
+
+  // highest set bit, or -1 if none
+  int highestSet(int[] w) {
+    for (int i = w.length - 1; i >= 0; i--) {
+      if (w[i] != 0) {
+        return (i << 5) + 31 - Integer.numberOfLeadingZeros(w[i]);
+      }
+    }
+    return -1;
+  }
+
+  // first clear bit, or -1 if all set
+  int firstClear(int[] w) {
+    for (int i = 0; i < w.length; i++) {
+      if (w[i] != -1) {
+        return (i << 5) + Integer.numberOfTrailingZeros(~w[i]);
+      }
+    }
+    return -1;
+  }
+
+  // number of set bits below bit n
+  int countBelow(int[] w, long n) {
+    int cnt = 0;
+    for (int i = 0; i < w.length && n > 0; i++, n -= 32) {
+      cnt += Integer.bitCount(n >= 32 ? w[i] : w[i] & ((1 << n) - 1));
+    }
+    return cnt;
+  }
+
+  // number of bits set in a but not in b
+  int countNew(int[] a, int[] b) {
+    int cnt = 0;
+    for (int i = 0; i < a.length; i++) {
+      cnt += Integer.bitCount(a[i] & ~b[i]);
+    }
+    return cnt;
+  }
+
+  // copies bits below bit n from src to dst, leaving the others in dst
+  void copyBelow(int[] src, int[] dst, long n) {
+    for (int i = 0; i < dst.length && n > 0; i++, n -= 32) {
+      int m = n >= 32 ? -1 : (1 << n) - 1;
+      dst[i] = (dst[i] & ~m) | (src[i] & m);
+    }
+  }
+
+  // shifts src n bits towards bit 0 into dst, may be the same array
+  void shiftDown(int[] src, int[] dst, long n) {
+    int len = src.length;
+    int ws = n >= (len << 5) ? len : (int)(n >>> 5);
+    int bs = (int)(n & 31);
+    for (int i = 0; i < len; i++) {
+      int lo = i + ws < len ? src[i + ws] : 0;
+      int hi = i + ws + 1 < len ? src[i + ws + 1] : 0;
+      dst[i] = bs == 0 ? lo : (lo >>> bs) | (hi << (32 - bs));
+    }
+  }
+
+  void fromWords(int[] w, byte[] buf, int offs) {
+    for (int i = 0; i < w.length; i++, offs += 4) {
+      from32bit(w[i], buf, offs);
+    }
+  }
+
+  void toWords(byte[] buf, int offs, int[] w) {
+    for (int i = 0; i < w.length; i++, offs += 4) {
+      w[i] = (int)to32bit(buf, offs);
+    }
+  }
+
 }
@@ -0,0 +1,279 @@
+package com.pelleplutt.jumac.filetransfer;
+
+/**
+ * Congestion control for JumftTx, deciding how fast chunks are sent.
+ * Pacing is quota chunks every dt ticks, where dt is kept within the
+ * negotiated dt_min and dt_max and quota within one and the burst of the
+ * transmitter.
+ *
+ * The controller is fed on every status from the receiver with the number
+ * of chunks acked and lost since the previous status, and a round trip
+ * sample. Lost chunks are holes in the receiver bitmask below the highest
+ * received chunk. The round trip is the time from sending the highest
+ * received chunk until the status reporting it, and is not sampled when
+ * that chunk was resent.
+ *
+ * Other controllers can be plugged in by extending this class, setting
+ * dt and quota in init and status, directly or with pace.
+ */
+public abstract class JumftCongestion {
+  protected int dt_min, dt_max, burst;
+  protected int dt, quota;
+
+  /** called when a transfer starts with negotiated limits */
+  protected void init(int dt_min, int dt_max, int dt, int burst) {
+    this.dt_min = dt_min;
+    this.dt_max = dt_max;
+    this.dt = dt;
+    this.burst = burst;
+    this.quota = 1;
+  }
+
+  /**
+   * Called on status from receiver.
+   * @param acked chunks acked since previous status
+   * @param lost  chunks lost since previous status
+   * @param rtt   round trip sample in ticks, negative if none
+   * @param now   current tick
+   */
+  protected abstract void status(int acked, int lost, long rtt, long now);
+
+  /** returns ticks between sending quota chunks */
+  public int getDt() {
+    return dt;
+  }
+
+  /** returns chunks to send every dt ticks */
+  public int getQuota() {
+    return quota;
+  }
+
+  /**
+   * Sets dt and quota for given rate in chunks per tick, using the
+   * shortest dt within 1/8 of the rate to keep bursts small, else the
+   * closest. Tries at most 64 values of dt.
+   */
+  protected void pace(double rate) {
+    double best = Double.MAX_VALUE;
+    int last = Math.min(dt_max, dt_min + 63);
+    for (int d = dt_min; d <= last; d++) {
+      int q = (int)Math.min(burst, Math.max(1, Math.round(rate * d)));
+      double err = Math.abs((double)q / d - rate);
+      if (err < best - 1e-9) {
+        best = err;
+        dt = d;
+        quota = q;
+      }
+      if (err <= rate / 8) {
+        break;
+      }
+    }
+  }
+
+  /** returns rate in chunks per tick of current pacing */
+  protected double rate() {
+    return (double)quota / dt;
+  }
+
+  /**
+   * The original controller. If at most half of the 16 chunks between
+   * statuses are acked dt is increased by ddt, otherwise decreased. With a
+   * burst, chunks per tick are halved before dt is increased and increased
+   * by one when dt is at dt_min.
+   */
+  public static class Classic extends JumftCongestion {
+    final int ddt;
+
+    public Classic(int ddt) {
+      this.ddt = ddt;
+    }
+
+    @Override
+    protected void status(int acked, int lost, long rtt, long now) {
+      if (acked <= 8) {
+        // dropping a lot of packets, lower bandwidth
+        if (quota > 1) {
+          quota /= 2;
+        } else {
+          int ndt = dt + ddt;
+          dt = ndt > dt_max ? dt_max : ndt;
+        }
+      } else {
+        // try higher bandwidth
+        if (dt > dt_min) {
+          int ndt = dt > ddt ? (dt - ddt) : dt_min;
+          dt = ndt < dt_min ? dt_min : ndt;
+        } else if (quota < burst) {
+          quota++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Additive increase, multiplicative decrease on the sending rate. Once
+   * per round trip the loss ratio is checked: above the threshold the rate
+   * is cut by beta, otherwise it grows by increase chunks per round trip.
+   * Starts by doubling the rate every round trip until the first cut.
+   * Loss below the threshold is taken as noise on the link rather than
+   * congestion.
+   */
+  public static class Aimd extends JumftCongestion {
+    final double increase, beta, lossThreshold;
+    double rate, ssthresh;
+    long roundStart;
+    int roundAcked, roundLost;
+    double srtt;
+
+    public Aimd() {
+      this(4, 0.7, 0.05);
+    }
+
+    public Aimd(double increase, double beta, double lossThreshold) {
+      this.increase = increase;
+      this.beta = beta;
+      this.lossThreshold = lossThreshold;
+    }
+
+    @Override
+    protected void init(int dt_min, int dt_max, int dt, int burst) {
+      super.init(dt_min, dt_max, dt, burst);
+      rate = rate();
+      ssthresh = Double.MAX_VALUE;
+      roundStart = -1;
+      roundAcked = roundLost = 0;
+      srtt = 0;
+    }
+
+    @Override
+    protected void status(int acked, int lost, long rtt, long now) {
+      if (rtt >= 0) {
+        srtt = srtt == 0 ? rtt : srtt * 7 / 8 + rtt / 8.0;
+      }
+      roundAcked += acked;
+      roundLost += lost;
+      if (roundStart < 0) {
+        roundStart = now;
+      }
+      if (srtt == 0 || now - roundStart < srtt) {
+        return;
+      }
+      double loss = roundAcked + roundLost == 0 ? 0 : (double)roundLost / (roundAcked + roundLost);
+      if (loss > lossThreshold) {
+        rate *= beta;
+        ssthresh = rate;
+      } else if (rate < ssthresh) {
+        rate *= 2;
+      } else {
+        rate += increase / srtt;
+      }
+      rate = Math.min(Math.max(rate, 1.0 / dt_max), (double)burst / dt_min);
+      pace(rate);
+      roundStart = now;
+      roundAcked = roundLost = 0;
+    }
+  }
+
+  /**
+   * Model based controller after BBR. Estimates the bottleneck rate as the
+   * highest delivery rate over the last rounds and the propagation delay
+   * as the lowest round trip, and paces at the bottleneck rate times a
+   * gain. Starts with a high gain until the delivery rate stops growing,
+   * then probes with a gain cycle of 1.25, 0.75 and six rounds of 1. A
+   * round trip well above the lowest means queues are building, and the
+   * probing gain is skipped. Random loss does not slow it down, heavy loss
+   * lowers the rate estimate.
+   */
+  public static class Bbr extends JumftCongestion {
+    static final double STARTUP_GAIN = 2.89;
+    static final double[] CYCLE = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+    static final int BW_ROUNDS = 10;
+    static final int RTT_SAMPLES = 64;
+    static final double HEAVY_LOSS = 0.2;
+
+    final double bw[] = new double[BW_ROUNDS];
+    final long rtts[] = new long[RTT_SAMPLES];
+    int rttIx, rttCnt;
+    long minRtt, lastRtt;
+    long roundStart;
+    int round;
+    int roundAcked, roundLost;
+    boolean startup;
+    double fullBw;
+    int fullBwRounds;
+    int cycle;
+
+    @Override
+    protected void init(int dt_min, int dt_max, int dt, int burst) {
+      super.init(dt_min, dt_max, dt, burst);
+      for (int i = 0; i < bw.length; i++) bw[i] = 0;
+      rttIx = rttCnt = 0;
+      minRtt = lastRtt = 0;
+      roundStart = -1;
+      round = 0;
+      roundAcked = roundLost = 0;
+      startup = true;
+      fullBw = 0;
+      fullBwRounds = 0;
+      cycle = 0;
+    }
+
+    double btlBw() {
+      double max = 0;
+      for (double b : bw) max = Math.max(max, b);
+      return max;
+    }
+
+    @Override
+    protected void status(int acked, int lost, long rtt, long now) {
+      if (rtt >= 0) {
+        rtts[rttIx] = rtt;
+        rttIx = (rttIx + 1) % RTT_SAMPLES;
+        if (rttCnt < RTT_SAMPLES) rttCnt++;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < rttCnt; i++) min = Math.min(min, rtts[i]);
+        minRtt = Math.max(1, min);
+        lastRtt = rtt;
+      }
+      roundAcked += acked;
+      roundLost += lost;
+      if (roundStart < 0) {
+        roundStart = now;
+      }
+      if (minRtt == 0 || now - roundStart < minRtt) {
+        return;
+      }
+      // a round has passed, delivery rate over it is a bandwidth sample
+      double roundBw = (double)roundAcked / (now - roundStart);
+      double loss = roundAcked + roundLost == 0 ? 0 : (double)roundLost / (roundAcked + roundLost);
+      if (loss > HEAVY_LOSS) {
+        roundBw *= 1 - loss / 2;
+        for (int i = 0; i < bw.length; i++) bw[i] = Math.min(bw[i], roundBw);
+      }
+      bw[round % BW_ROUNDS] = roundBw;
+      round++;
+      double btlBw = btlBw();
+      double gain;
+      if (startup) {
+        if (btlBw >= fullBw * 1.25) {
+          fullBw = btlBw;
+          fullBwRounds = 0;
+        } else if (++fullBwRounds >= 3) {
+          startup = false;
+        }
+        // drain the queue built in startup for one round
+        gain = startup ? STARTUP_GAIN : 1 / STARTUP_GAIN;
+      } else {
+        cycle = (cycle + 1) % CYCLE.length;
+        gain = CYCLE[cycle];
+        if (gain > 1 && lastRtt > minRtt * 5 / 4) {
+          gain = 1;
+        }
+      }
+      double rate = Math.max(btlBw * gain, 1.0 / dt_max);
+      pace(Math.min(rate, (double)burst / dt_min));
+      roundStart = now;
+      roundAcked = roundLost = 0;
+    }
+  }
+}
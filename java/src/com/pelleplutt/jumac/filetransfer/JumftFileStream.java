@@ -0,0 +1,259 @@
+package com.pelleplutt.jumac.filetransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * JumftStream of a file, memory mapped in segments. Chunks are copied
+ * directly between the mapped file and the packet buffers, without heap
+ * buffers or a system call per chunk.
+ *
+ * For sending, call openRead() and give the returned length to JumftTx.
+ * For receiving, createData creates the file with the announced length
+ * and maps it. Written chunks are forced to disk every flushBytes bytes,
+ * when all bytes of the file are written, and on flush() and close().
+ *
+ * By default the file given to the constructor is used regardless of the
+ * name sent by the transmitter. Override target to choose a file by name.
+ *
+ * Transfers can be resumed. Progress is kept in a sidecar file, named as
+ * the file with SIDECAR_SUFFIX appended, and is written after the data it
+ * covers has been forced to disk. Call flush() or close() when a transfer
+ * is interrupted to save the latest progress.
+ */
+public class JumftFileStream implements JumftResumable {
+  public static final String SIDECAR_SUFFIX = ".jumft";
+
+  public static final int DEF_SEGMENT_SIZE = 1 << 30;
+  public static final int DEF_FLUSH_BYTES = 4 * 1024 * 1024;
+
+  final File file;
+  final int segmentSize;
+  int flushBytes = DEF_FLUSH_BYTES;
+  RandomAccessFile raf;
+  FileChannel ch;
+  MappedByteBuffer seg[];
+  boolean dirty[];
+  boolean writable;
+  long length;
+  // bytes written since last flush, and in total
+  long unflushed;
+  long written;
+  // file being received, and progress to save on next flush
+  File current;
+  byte progress[];
+  int progressLen;
+  boolean progressPending;
+
+  public JumftFileStream(File file) {
+    this(file, DEF_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param segmentSize bytes mapped per MappedByteBuffer
+   */
+  public JumftFileStream(File file, int segmentSize) {
+    this.file = file;
+    this.segmentSize = segmentSize;
+  }
+
+  /** Sets number of written bytes after which they are forced to disk. */
+  public void setFlushBytes(int flushBytes) {
+    this.flushBytes = flushBytes;
+  }
+
+  /**
+   * Opens and maps the file for sending.
+   * @return file length
+   */
+  public long openRead() throws IOException {
+    close();
+    raf = new RandomAccessFile(file, "r");
+    try {
+      map(FileChannel.MapMode.READ_ONLY, raf.length());
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    return length;
+  }
+
+  /**
+   * Returns file to receive into, given the name sent by the transmitter
+   * or null if none.
+   */
+  protected File target(String name) {
+    return file;
+  }
+
+  @Override
+  public boolean createData(long len, String name) {
+    return open(len, name, true);
+  }
+
+  @Override
+  public boolean openData(long len, String name) {
+    return open(len, name, false);
+  }
+
+  boolean open(long len, String name, boolean create) {
+    close();
+    try {
+      current = target(name);
+      raf = new RandomAccessFile(current, "rw");
+      if (create || raf.length() != len) {
+        raf.setLength(len);
+      }
+      map(FileChannel.MapMode.READ_WRITE, len);
+    } catch (IOException e) {
+      close();
+      return false;
+    }
+    return true;
+  }
+
+  File sidecar(File f) {
+    return new File(f.getPath() + SIDECAR_SUFFIX);
+  }
+
+  @Override
+  public byte[] loadProgress(String name) {
+    File f = sidecar(target(name));
+    try {
+      return f.exists() ? Files.readAllBytes(f.toPath()) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void saveProgress(byte[] p, int len) {
+    if (progress == null || progress.length < len) {
+      progress = new byte[len];
+    }
+    System.arraycopy(p, 0, progress, 0, len);
+    progressLen = len;
+    progressPending = true;
+  }
+
+  @Override
+  public void clearProgress() {
+    flush();
+    progressPending = false;
+    if (current != null) {
+      sidecar(current).delete();
+    }
+  }
+
+  void map(FileChannel.MapMode mode, long len) throws IOException {
+    ch = raf.getChannel();
+    writable = mode == FileChannel.MapMode.READ_WRITE;
+    length = len;
+    int n = (int)((len + segmentSize - 1) / segmentSize);
+    seg = new MappedByteBuffer[n];
+    dirty = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      long pos = (long)i * segmentSize;
+      seg[i] = ch.map(mode, pos, Math.min(segmentSize, len - pos));
+    }
+    unflushed = 0;
+    written = 0;
+  }
+
+  @Override
+  public void readData(long offs, byte[] dst, int dstOffs, int len) {
+    while (len > 0) {
+      MappedByteBuffer b = seg[(int)(offs / segmentSize)];
+      int pos = (int)(offs % segmentSize);
+      int n = Math.min(len, segmentSize - pos);
+      b.position(pos);
+      b.get(dst, dstOffs, n);
+      offs += n;
+      dstOffs += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
+    if (!writable || offs < 0 || offs + len > length) {
+      return false;
+    }
+    written += len;
+    unflushed += len;
+    while (len > 0) {
+      int i = (int)(offs / segmentSize);
+      MappedByteBuffer b = seg[i];
+      int pos = (int)(offs % segmentSize);
+      int n = Math.min(len, segmentSize - pos);
+      b.position(pos);
+      b.put(src, srcOffs, n);
+      dirty[i] = true;
+      offs += n;
+      srcOffs += n;
+      len -= n;
+    }
+    if (unflushed >= flushBytes || written >= length) {
+      flush();
+    }
+    return true;
+  }
+
+  /** Forces written chunks to disk, and then saves progress. */
+  public void flush() {
+    if (seg == null) return;
+    for (int i = 0; i < seg.length; i++) {
+      if (dirty[i]) {
+        seg[i].force();
+        dirty[i] = false;
+      }
+    }
+    unflushed = 0;
+    if (progressPending) {
+      progressPending = false;
+      FileChannel sc = null;
+      try {
+        sc = FileChannel.open(sidecar(current).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        sc.write(ByteBuffer.wrap(progress, 0, progressLen), 0);
+        sc.truncate(progressLen);
+        sc.force(false);
+      } catch (IOException ignore) {
+        // a later flush may succeed, else the transfer starts over
+      } finally {
+        if (sc != null) try {sc.close();} catch (Throwable t) {}
+      }
+    }
+  }
+
+  /** returns length of mapped file */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Flushes and closes the file. Mappings are released when garbage
+   * collected.
+   */
+  public void close() {
+    flush();
+    seg = null;
+    dirty = null;
+    writable = false;
+    current = null;
+    progressPending = false;
+    if (raf != null) {
+      try {
+        raf.close();
+      } catch (IOException ignore) {}
+    }
+    raf = null;
+    ch = null;
+  }
+}
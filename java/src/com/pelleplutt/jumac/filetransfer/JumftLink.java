@@ -0,0 +1,50 @@
+package com.pelleplutt.jumac.filetransfer;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacTickable;
+
+/**
+ * Additional link of a bonded transfer, see JumftTx.addLink. Data chunks
+ * are sent over the link at its own pace, set by its own congestion
+ * controller fed with the chunks sent over it. The link is timed like
+ * the transmitter, by calling tick when requested by requestFutureTick.
+ */
+public abstract class JumftLink implements JumacTickable {
+  final Jumac u;
+  JumftTx tx;
+  // index of link in chunk bookkeeping of the transmitter, 0 is its own
+  int index;
+  JumftCongestion cc = new JumftCongestion.Aimd();
+  int dt;
+  int quota = 1;
+
+  public JumftLink(Jumac u) {
+    this.u = u;
+  }
+
+  /**
+   * Sets congestion controller, by default JumftCongestion.Aimd. Must not
+   * be changed during a transfer.
+   */
+  public void setCongestion(JumftCongestion cc) {
+    this.cc = cc;
+  }
+
+  /** returns ticks between sending chunks on this link */
+  public int getDt() {
+    return dt;
+  }
+
+  /** returns chunks sent every dt ticks on this link */
+  public int getQuota() {
+    return quota;
+  }
+
+  public void tick() {
+    if (tx != null) {
+      tx.tickLink(this);
+    }
+  }
+
+  public abstract void requestFutureTick(long delta);
+}
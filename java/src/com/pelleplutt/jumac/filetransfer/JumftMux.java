@@ -0,0 +1,294 @@
+package com.pelleplutt.jumac.filetransfer;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Runs many JUMFT transfers in both directions over one Jumac link.
+ *
+ * The link config hands received packets, acks and timeouts to rxPak,
+ * rxAck and tmo. Data chunks and status are dispatched to the session
+ * they carry, SEND_FILE requests to a receiver from accept, and acks to
+ * the session whose synchronized packet they reply. Packets and acks not
+ * belonging to a transfer return false and are left to the config.
+ *
+ * The link has room for one synchronized packet at a time, or as many as
+ * its window. Sessions wanting to send SEND_FILE or status wait in turn
+ * and have their packet built when the link is free, so status is never
+ * stale and a busy session cannot starve the others. Data chunks are not
+ * synchronized and interleave freely.
+ *
+ * Sessions are timed by their own requestFutureTick as without the
+ * multiplexer, and as on a single session link calls into the Jumac
+ * instance must not overlap.
+ */
+public abstract class JumftMux {
+  final Jumac u;
+  // transmitters by session id granted by the remote receiver, receivers
+  // by session id granted here
+  final Sessions txs = new Sessions();
+  final Sessions rxs = new Sessions();
+  // sessions waiting for the synchronized packet slot, each at most once
+  final ArrayDeque<Jumft> waiting = new ArrayDeque<Jumft>();
+  // session of each synchronized packet in flight, by seqno
+  final Jumft inflight[] = new Jumft[0x10];
+  final byte reply[] = new byte[14];
+
+  public JumftMux(Jumac u) {
+    this.u = u;
+  }
+
+  /**
+   * Starts sending a file, as JumftTx.tx. The transmitter must be created
+   * with the Jumac instance of this multiplexer.
+   * @return 0 if ok, negative on error
+   */
+  public synchronized int tx(JumftTx tx, JumftStream str, String filename) {
+    if (tx.u != u) {
+      return Jumac.UMAC_ERR_ARG;
+    }
+    tx.mux = this;
+    return tx.tx(str, filename);
+  }
+
+  /**
+   * Handles reception of a packet.
+   * @return false if the packet is not for a transfer
+   */
+  public synchronized boolean rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    if (len < 3) {
+      return false;
+    }
+    if (data[0] == (byte)Jumft.UMFT_CMD_SEND_FILE && req_ack && len >= 17) {
+      int fnlen = data[15] & 0xff;
+      JumftRx rx = accept(fnlen == 0 ? null : new String(data, 16, fnlen));
+      if (rx == null || rx.u != u) {
+        refuse();
+        return true;
+      }
+      rx.mux = this;
+      rx.rxPak(seqno, data, len, req_ack);
+      if (rx.running) {
+        rxs.put(rx.session, rx);
+      }
+      return true;
+    }
+    if (data[0] != (byte)Jumft.UMFT_CMD_DATA_CHUNK) {
+      return false;
+    }
+    int session = ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+    if (req_ack) {
+      // status to a transmitter
+      JumftTx tx = (JumftTx)txs.get(session);
+      if (tx == null) {
+        return refuseStatus();
+      }
+      boolean res = tx.rxPak(seqno, data, len, req_ack);
+      if (!tx.running) {
+        txs.remove(session);
+      }
+      return res;
+    } else {
+      // data chunk to a receiver
+      JumftRx rx = (JumftRx)rxs.get(session);
+      if (rx == null) {
+        return false;
+      }
+      boolean res = rx.rxPak(seqno, data, len, req_ack);
+      if (!rx.running) {
+        rxs.remove(session);
+      }
+      return res;
+    }
+  }
+
+  /**
+   * Handles acknowledge of a synchronized sent packet.
+   * @return false if the ack is not for a transfer
+   */
+  public synchronized boolean rxAck(char seqno, byte[] data, int len) {
+    Jumft s = inflight[seqno & 0xf];
+    if (s == null) {
+      return false;
+    }
+    inflight[seqno & 0xf] = null;
+    boolean res;
+    if (s instanceof JumftTx) {
+      JumftTx tx = (JumftTx)s;
+      res = tx.rxAck(seqno, data, len);
+      if (res && tx.running) {
+        txs.put(tx.session, tx);
+      }
+    } else {
+      JumftRx rx = (JumftRx)s;
+      res = rx.rxAck(seqno, data, len);
+      if (!rx.running && rxs.get(rx.session) == rx) {
+        rxs.remove(rx.session);
+      }
+    }
+    pump();
+    return res;
+  }
+
+  /**
+   * Handles timeout of a synchronized sent packet. A SEND_FILE timing out
+   * aborts its transmitter, lost status is sent again by the receiver.
+   * @return false if the packet is not of a transfer
+   */
+  public synchronized boolean tmo(char seqno) {
+    Jumft s = inflight[seqno & 0xf];
+    if (s == null) {
+      return false;
+    }
+    inflight[seqno & 0xf] = null;
+    if (s instanceof JumftTx) {
+      JumftTx tx = (JumftTx)s;
+      tx.req_pkt_seqno = 0xff;
+      if (!tx.running) {
+        tx.status(Jumft.UMFT_STA_ABORT);
+      }
+    } else {
+      ((JumftRx)s).sta_pkt_seqno = 0xff;
+    }
+    pump();
+    return true;
+  }
+
+  /** returns number of transfers running, in both directions */
+  public synchronized int sessions() {
+    return txs.size + rxs.size;
+  }
+
+  /**
+   * Returns a receiver for an incoming file of given name, created with
+   * the Jumac instance of this multiplexer, or null to refuse the file.
+   */
+  public abstract JumftRx accept(String filename);
+
+  // queues session for the synchronized packet slot
+  synchronized void sync(Jumft s) {
+    if (!s.sync_queued) {
+      s.sync_queued = true;
+      waiting.add(s);
+    }
+    pump();
+  }
+
+  // sends queued packets in turn while the link takes them
+  void pump() {
+    while (!waiting.isEmpty()) {
+      Jumft s = waiting.peek();
+      int res = s.txSync();
+      if (res == Jumac.UMAC_ERR_BUSY) {
+        break;
+      }
+      waiting.poll();
+      s.sync_queued = false;
+      if (res > 0) {
+        inflight[res & 0xf] = s;
+      }
+    }
+  }
+
+  // returns a random session id not used by a receiver here
+  short newSession() {
+    int session;
+    do {
+      session = (int)(Math.random() * 0x10000);
+    } while (rxs.get(session) != null);
+    return (short)session;
+  }
+
+  // replies a SEND_FILE nobody accepts
+  void refuse() {
+    byte ack[] = reply;
+    Arrays.fill(ack, (byte)0);
+    ack[0] = Jumft.UMFT_CMD_SEND_FILE;
+    ack[1] = Jumft.UMFT_STA_ABORT;
+    u.ackReply(ack, (short)14);
+  }
+
+  // replies status of an unknown transfer so its receiver stops, unless
+  // the transfer may be one whose SEND_FILE ack is still on its way
+  boolean refuseStatus() {
+    for (int i = 0; i < inflight.length; i++) {
+      if (inflight[i] instanceof JumftTx) {
+        return false;
+      }
+    }
+    byte ack[] = reply;
+    Arrays.fill(ack, (byte)0);
+    ack[0] = Jumft.UMFT_CMD_STATUS;
+    ack[1] = Jumft.UMFT_STA_ABORT;
+    u.ackReply(ack, (short)6);
+    return true;
+  }
+
+  /**
+   * Sessions by 16-bit id, open addressing with linear probing so lookups
+   * per data chunk do not box the id or allocate.
+   */
+  static class Sessions {
+    int keys[] = new int[16];
+    Jumft vals[] = new Jumft[16];
+    int size;
+
+    int slot(int key) {
+      int h = key * 0x9e3779b1;
+      return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    Jumft get(int key) {
+      key &= 0xffff;
+      for (int i = slot(key); vals[i] != null; i = (i + 1) & (keys.length - 1)) {
+        if (keys[i] == key) return vals[i];
+      }
+      return null;
+    }
+
+    void put(int key, Jumft val) {
+      key &= 0xffff;
+      if (2 * (size + 1) > keys.length) {
+        int okeys[] = keys;
+        Jumft ovals[] = vals;
+        keys = new int[okeys.length * 2];
+        vals = new Jumft[okeys.length * 2];
+        size = 0;
+        for (int i = 0; i < okeys.length; i++) {
+          if (ovals[i] != null) put(okeys[i], ovals[i]);
+        }
+      }
+      int i = slot(key);
+      while (vals[i] != null && keys[i] != key) {
+        i = (i + 1) & (keys.length - 1);
+      }
+      if (vals[i] == null) size++;
+      keys[i] = key;
+      vals[i] = val;
+    }
+
+    void remove(int key) {
+      key &= 0xffff;
+      int mask = keys.length - 1;
+      int i = slot(key);
+      while (vals[i] != null && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (vals[i] == null) return;
+      vals[i] = null;
+      size--;
+      // move following entries of the probe run back into the gap
+      for (int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+        int home = slot(keys[j]);
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          keys[i] = keys[j];
+          vals[i] = vals[j];
+          vals[j] = null;
+          i = j;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.pelleplutt.jumac.filetransfer;
+
+/**
+ * Optional extension of JumftStream. If the stream of a JumftRx implements
+ * this, transmitters may request resumable transfers: the receiver hands
+ * out a resume token and saves its progress, and a later SEND_FILE with
+ * the token continues where the saved progress left off.
+ *
+ * Progress is an opaque record from JumftRx. It only covers data already
+ * given to writeData, and must not be persisted before that data.
+ */
+public interface JumftResumable extends JumftStream {
+  /** Returns progress saved for data of given name, or null if none. */
+  byte[] loadProgress(String name);
+
+  /**
+   * Opens existing data of given name for resuming, like createData but
+   * keeping the contents.
+   */
+  boolean openData(long len, String name);
+
+  /**
+   * Saves progress of current data. Called every few chunks received;
+   * progress may be persisted in batches, and the array is reused.
+   */
+  void saveProgress(byte[] progress, int len);
+
+  /** Removes saved progress, called when all data is received. */
+  void clearProgress();
+}
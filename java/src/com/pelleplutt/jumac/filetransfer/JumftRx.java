@@ -1,5 +1,7 @@
 package com.pelleplutt.jumac.filetransfer;
 
+import java.util.Arrays;
+
 import com.pelleplutt.jumac.Jumac;
 import com.pelleplutt.jumac.JumacTickable;
 
@@ -14,12 +16,34 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
   long acked_bytes;
   long length;
   volatile long rx_offset;
-  volatile int rxbitmask;
+  // chunks received ahead of rx_offset, window chunks as negotiated
+  int rxbitmask[];
+  final int max_window;
+  int window;
+  // 64-bit length and offsets, and header length of data chunks and status
+  boolean large;
+  int chunk_hdr = 7;
+  int sta_hdr = 8;
+  // resumable transfer with progress saved to stream, and its token
+  boolean resume;
+  long token;
+  byte progress[];
   int rec_chunks;
+  byte sta[];
   
   
   public JumftRx(Jumac u, JumftStream str, int dt_min, int dt_max, int mtu) {
+    this(u, str, dt_min, dt_max, mtu, UMFT_DEF_WINDOW);
+  }
+  
+  /**
+   * @param window maximum number of chunks in flight accepted, negotiated
+   *               with the transmitter; transmitters not supporting it use
+   *               UMFT_LEGACY_WINDOW
+   */
+  public JumftRx(Jumac u, JumftStream str, int dt_min, int dt_max, int mtu, int window) {
     sta_pkt_seqno = 0xff;
+    this.max_window = window(window, UMFT_MAX_WINDOW);
     this.u = u;
     this.str = str;
     this.dt_min = dt_min;
@@ -28,20 +52,35 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
   }
   
   void sendSta() {
-    byte[] buf = new byte[12];
+    if (resume && running) {
+      saveProgress();
+    }
+    if (mux != null) {
+      // sent when the link is free, with the status at that time
+      mux.sync(this);
+    } else if (txSync() <= 0) {
+      sta_pkt_seqno = 0xff;
+    }
+  }
+  
+  int txSync() {
+    byte[] buf = sta;
     buf[0] = UMFT_CMD_STATUS;
     from16bit(session, buf, 1);
     buf[3] = (byte)(running 
         ? (acked_bytes >= length ? UMFT_STA_FIN : UMFT_STA_OK)
         : UMFT_STA_ABORT);
-    from32bit(rx_offset, buf, 4);
-    from32bit(rxbitmask, buf, 8);
-    int res = u.txPacket(true, buf, (short)12);
+    if (large) {
+      from64bit(rx_offset, buf, 4);
+    } else {
+      from32bit(rx_offset, buf, 4);
+    }
+    fromWords(rxbitmask, buf, sta_hdr);
+    int res = u.txPacket(true, buf, (short)buf.length);
     if (res > 0) {
       sta_pkt_seqno = (char)res;
-    } else {
-      sta_pkt_seqno = 0xff;
     }
+    return res;
   }
   
 //  boolean[] dbgWritten;
@@ -73,6 +112,50 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
 
   
   
+  // Progress record: token (64 bits), length (64), mtu (16), window (16),
+  // rx_offset (64) and the window bitset as in STATUS.
+  
+  void saveProgress() {
+    byte p[] = progress;
+    if (p == null || p.length != 28 + window / 8) {
+      p = progress = new byte[28 + window / 8];
+    }
+    from64bit(token, p, 0);
+    from64bit(length, p, 8);
+    from16bit(mtu, p, 16);
+    from16bit(window, p, 18);
+    from64bit(rx_offset, p, 20);
+    fromWords(rxbitmask, p, 28);
+    ((JumftResumable)str).saveProgress(p, p.length);
+  }
+  
+  // restores progress of given transfer, returns false if not found
+  boolean loadProgress(String name, long token) {
+    byte p[] = ((JumftResumable)str).loadProgress(name);
+    if (p == null || p.length < 28 || to64bit(p, 0) != token || to64bit(p, 8) != length) {
+      return false;
+    }
+    int pmtu = to16bit(p, 16);
+    int pwindow = to16bit(p, 18);
+    long poffset = to64bit(p, 20);
+    if (pmtu == 0 || p.length != 28 + pwindow / 8) {
+      return false;
+    }
+    Arrays.fill(rxbitmask, 0);
+    if (pmtu == mtu) {
+      rx_offset = poffset;
+      // chunks beyond a narrower window are received again
+      for (int i = 0; i < Math.min(pwindow, window) / 32; i++) {
+        rxbitmask[i] = (int)to32bit(p, 28 + i * 4);
+      }
+    } else {
+      // other chunk size, only the contiguous part is kept
+      rx_offset = Math.min(length, poffset * pmtu) / mtu;
+    }
+    acked_bytes = receivedBytes(rx_offset, rxbitmask, length, mtu);
+    return true;
+  }
+  
   public boolean rxPak(char seqno, byte[] data, int len, boolean req_ack) {
     if (len >=17 && data[0] == (byte)UMFT_CMD_SEND_FILE && req_ack) {
       length = to32bit(data, 1);
@@ -97,18 +180,80 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
       if (mtu == 0)                 mtu = UMFT_DEF_MTU;
       this.mtu = mtu;
       
-      boolean create = str.createData((int)length, filenamelen == 0 ? null : new String(data, 16, filenamelen));
+      String name = filenamelen == 0 ? null : new String(data, 16, filenamelen);
+      
+      // window request is appended after the filename by transmitters
+      // supporting it, others are replied without window
+      int txwindow = len >= 19 + filenamelen ? to16bit(data, 17 + filenamelen) : 0;
+      window = txwindow == 0 ? UMFT_LEGACY_WINDOW : window(txwindow, max_window);
+      // 64-bit length is appended after the window for large files and
+      // resumable transfers, for the latter followed by flags and token
+      int txflags = 0;
+      long txtoken = 0;
+      if (len >= 36 + filenamelen) {
+        txflags = data[27 + filenamelen] & 0xff;
+        txtoken = to64bit(data, 28 + filenamelen);
+        large = (txflags & UMFT_FLAG_LARGE) != 0;
+      } else {
+        large = len >= 27 + filenamelen;
+      }
+      if (len >= 27 + filenamelen) {
+        length = to64bit(data, 19 + filenamelen);
+      }
+      resume = (txflags & UMFT_FLAG_RESUME) != 0 && str instanceof JumftResumable;
+      chunk_hdr = large ? 1+2+8 : 1+2+4;
+      sta_hdr = large ? 12 : 8;
+      
+      if (rxbitmask == null || rxbitmask.length != window / 32) {
+        rxbitmask = new int[window / 32];
+      } else {
+        Arrays.fill(rxbitmask, 0);
+      }
+      if (sta == null || sta.length != sta_hdr + window / 8) {
+        sta = new byte[sta_hdr + window / 8];
+      }
+      rx_offset = 0;
+      acked_bytes = 0;
+      rec_chunks = 0;
+      
+      boolean create = false;
+      if (length >= 0) {
+        if (resume && txtoken != 0 && loadProgress(name, txtoken)) {
+          token = txtoken;
+          create = ((JumftResumable)str).openData(length, name);
+        } else {
+          long t = (long)(Math.random() * Long.MAX_VALUE);
+          token = resume ? (t == 0 ? 1 : t) : 0;
+          create = str.createData(length, name);
+        }
+      }
       
-      session = (short)(Math.random() * 0x10000);
-      byte ack[] = new byte[14];
+      session = mux != null ? mux.newSession() : (short)(Math.random() * 0x10000);
+      int acklen = large ? 17 : txwindow == 0 ? 14 : 16;
+      if ((txflags & UMFT_FLAG_RESUME) != 0) {
+        // flags, and if resumable the token and progress to skip
+        acklen = resume ? 33 + window / 8 : 17;
+      }
+      byte ack[] = new byte[acklen];
       ack[0] = UMFT_CMD_SEND_FILE;
       ack[1] = (byte)(create ? UMFT_STA_OK : UMFT_STA_ABORT);
       from16bit(mtu, ack, 2);
       from32bit(dt_min, ack, 4);
       from32bit(dt_max, ack, 8);
       from16bit(session, ack, 12);
+      if (txwindow != 0) {
+        from16bit(window, ack, 14);
+      }
+      if (acklen >= 17) {
+        ack[16] = (byte)((large ? UMFT_FLAG_LARGE : 0) | (resume ? UMFT_FLAG_RESUME : 0));
+      }
+      if (resume) {
+        from64bit(token, ack, 17);
+        from64bit(rx_offset, ack, 25);
+        fromWords(rxbitmask, ack, 33);
+      }
       
-      u.ackReply(ack, (short)14);
+      u.ackReply(ack, (short)ack.length);
 
       this.dt = (dt_max - dt_min) / 4 + dt_min;
 
@@ -119,47 +264,44 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
       running = create;
       
       return true;
-    } else if (len >= 7 && data[0] == (byte)UMFT_CMD_DATA_CHUNK && !req_ack) {
+    } else if (len >= chunk_hdr && data[0] == (byte)UMFT_CMD_DATA_CHUNK && !req_ack) {
       rec_chunks++;
       short session = (short)to16bit(data, 1);
       if (session != this.session) {
         return false;
       }
-      long offset_mtu = to32bit(data, 3);
+      long offset_mtu = large ? to64bit(data, 3) : to32bit(data, 3);
       do {
         if (!running)
           break;
-        System.out.format("[RXER] [RX] chunk at offs:%04x, rx_offset:%04x, rx_bitmask:%08x, stored chunks:%04x\n", 
-            offset_mtu, rx_offset, rxbitmask, acked_bytes / this.mtu);
+        if (_dbg) dbg("[RXER] [RX] chunk at offs:%04x, rx_offset:%04x, rx_bitmask:%08x, stored chunks:%04x\n", 
+            offset_mtu, rx_offset, rxbitmask[0], acked_bytes / this.mtu);
 //        dbgDumpRxStats();
-        if (offset_mtu < rx_offset || offset_mtu >= rx_offset + 32) {
-          System.out.format("[RXER] [RX] oob chunk at offs: %04x beyond %04x--%04x\n", 
-              offset_mtu, rx_offset, rx_offset+32);
+        if (offset_mtu < rx_offset || offset_mtu >= rx_offset + window) {
+          if (_dbg) dbg("[RXER] [RX] oob chunk at offs: %04x beyond %04x--%04x\n", 
+              offset_mtu, rx_offset, rx_offset+window);
           break;
         }
-        if ((rxbitmask & (1 << (offset_mtu - rx_offset))) != 0) {
-          System.out.format("[RXER] [RX] dupl chunk at offs: %04x\n", offset_mtu);
+        if (testBit(rxbitmask, offset_mtu - rx_offset)) {
+          if (_dbg) dbg("[RXER] [RX] dupl chunk at offs: %04x\n", offset_mtu);
           break;
         }
         boolean save_res = str.writeData(
-            (int)(offset_mtu * this.mtu), 
+            offset_mtu * this.mtu, 
             data,
-            7,
-            len - 7);
+            chunk_hdr,
+            len - chunk_hdr);
         if (save_res) {
-          acked_bytes += len-7;
+          acked_bytes += len-chunk_hdr;
           long lrx_offset = this.rx_offset;
-          int lrxbitmask = this.rxbitmask;
+          int lrxbitmask[] = this.rxbitmask;
+          setBit(lrxbitmask, offset_mtu - lrx_offset);
           if (lrx_offset == offset_mtu) {
-            do {
-              lrx_offset++;
-              lrxbitmask >>>= 1;
-            } while ((lrxbitmask & 1) != 0);
-          } else {
-            lrxbitmask |= (1 << (offset_mtu - lrx_offset));
+            int n = trailingOnes(lrxbitmask);
+            shiftDown(lrxbitmask, lrxbitmask, n);
+            lrx_offset += n;
           }
           this.rx_offset = lrx_offset;
-          this.rxbitmask = lrxbitmask;
 //          dbgMarkWritten(offset_mtu);
         }
 //        dbgDumpWritten();
@@ -171,6 +313,9 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
         if (acked_bytes >= length) {
           running = false;
           sendSta();
+          if (resume) {
+            ((JumftResumable)str).clearProgress();
+          }
           status(UMFT_STA_FIN);
         } else {
           if (rec_chunks >= 16) {
@@ -210,10 +355,28 @@ public abstract class JumftRx extends Jumft implements JumacTickable{
     if (running && acked_bytes < length) {
       sendSta();
       requestFutureTick(dt * 16);
+    } else if (running) {
+      // resumed with all data already received
+      running = false;
+      sendSta();
+      if (resume) {
+        ((JumftResumable)str).clearProgress();
+      }
+      status(UMFT_STA_FIN);
     }
   }
   
   
+  /** returns number of chunks allowed in flight, as negotiated */
+  public int getWindow() {
+    return window;
+  }
+  
+  /** returns whether 64-bit length and offsets are used, as negotiated */
+  public boolean isLargeFile() {
+    return large;
+  }
+  
   public abstract void cancelFutureTick();
   public abstract void requestFutureTick(long delta);
   public abstract void status(int result);
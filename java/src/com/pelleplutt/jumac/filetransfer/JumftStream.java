@@ -1,7 +1,7 @@
 package com.pelleplutt.jumac.filetransfer;
 
 public interface JumftStream {
-  void readData(int offs, byte[] dst, int dstOffs, int len);
-  boolean createData(int len, String name);
-  boolean writeData(int offs, byte[] src, int srcOffs, int len);
+  void readData(long offs, byte[] dst, int dstOffs, int len);
+  boolean createData(long len, String name);
+  boolean writeData(long offs, byte[] src, int srcOffs, int len);
 }
@@ -1,5 +1,7 @@
 package com.pelleplutt.jumac.filetransfer;
 
+import java.util.Arrays;
+
 import com.pelleplutt.jumac.Jumac;
 import com.pelleplutt.jumac.JumacTickable;
 
@@ -13,14 +15,70 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
   long acked_bytes;
   long length;
   volatile long p_rxoffset;
-  volatile int p_rxbitmask;
   volatile long tx_offset;
-  volatile int txbitmask;
+  // chunks in flight, requested and as negotiated
+  final int req_window;
+  int window;
+  // 64-bit length and offsets, requested and as negotiated
+  boolean req_large;
+  boolean large;
+  // header length of data chunks and of status
+  int chunk_hdr = 7;
+  int sta_hdr = 8;
+  // resumable transfer requested, token requested and as granted
+  boolean req_resume;
+  long req_token;
+  long token;
+  // window bitsets of previous status, of sent chunks and of current status
+  int p_rxbitmask[];
+  int txbitmask[];
+  int rxbitmask[];
+  // maximum chunks sent per tick, and chunks currently sent per tick
+  int burst = 1;
+  int quota = 1;
+  JumftCongestion cc;
+  boolean cc_default = true;
+  // additional links of a bonded transfer, or null, with the link each
+  // chunk in window was last sent on and chunks per link in a status
+  JumftLink links[];
+  byte chunk_link[];
+  int link_acked[];
+  int link_lost[];
+  // tick of first sending each chunk in window, by chunk offset modulo
+  // window, -1 if resent as a resent chunk gives no round trip sample
+  long send_tick[];
+  // highest chunk reported received and highest sent, -1 if none
+  long p_high;
+  long tx_high;
+  // smoothed round trip in ticks, 0 if no sample yet
+  long srtt;
+  // tick when there was first nothing to send, -1 if sending
+  long idle_since;
+  // ticks counted from requested timer deltas, see nowTick
+  long clock;
+  long clock_delta;
+  long tick_now;
+  // SEND_FILE request, kept until sent
+  byte req[];
+  int req_len;
+  // reused for every chunk of a session, command and session id preset
+  byte chunk[];
+  final byte staReply[] = new byte[6];
   
   
   public JumftTx(Jumac u,  long filelength, 
       int mtu, int dt_min, int dt_max, int ddt) {
+    this(u, filelength, mtu, dt_min, dt_max, ddt, UMFT_DEF_WINDOW);
+  }
+  
+  /**
+   * @param window maximum number of chunks in flight, negotiated with the
+   *               receiver; peers not supporting it use UMFT_LEGACY_WINDOW
+   */
+  public JumftTx(Jumac u,  long filelength, 
+      int mtu, int dt_min, int dt_max, int ddt, int window) {
     req_pkt_seqno = 0xff;
+    this.req_window = window(window, UMFT_MAX_WINDOW);
     this.u = u;
     this.dt_min = dt_min;
     this.dt_max = dt_max;
@@ -28,22 +86,122 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
     this.mtu = mtu;
     this.length = filelength;
     this.dt = (dt_max - dt_min) / 4 + dt_min;
+    this.cc = new JumftCongestion.Classic(ddt);
+  }
+  
+  /**
+   * Sets congestion controller, by default JumftCongestion.Classic.
+   * Must not be changed during a transfer.
+   */
+  public void setCongestion(JumftCongestion cc) {
+    this.cc = cc;
+    this.cc_default = false;
+  }
+  
+  /**
+   * Adds a link to send chunks of the file over, bonded with the link of
+   * this transmitter, which still carries SEND_FILE and status. Each link
+   * takes the next chunk to send when ticked, so faster links send more,
+   * and is paced by its own congestion controller fed only with its own
+   * chunks. As the classic controller expects all chunks between statuses
+   * to be its own, this transmitter then uses JumftCongestion.Aimd unless
+   * another controller is set. The receiver must be given data chunks
+   * from all links, and its window should cover chunks in flight on all.
+   * Must be called before tx, and ticks of this transmitter and its links
+   * must not overlap.
+   */
+  public void addLink(JumftLink link) {
+    int n = links == null ? 0 : links.length;
+    JumftLink l[] = new JumftLink[n + 1];
+    if (n > 0) {
+      System.arraycopy(links, 0, l, 0, n);
+    }
+    l[n] = link;
+    link.tx = this;
+    link.index = n + 1;
+    links = l;
+    link_acked = new int[n + 2];
+    link_lost = new int[n + 2];
+    if (cc_default) {
+      cc = new JumftCongestion.Aimd();
+    }
+  }
+  
+  /**
+   * Requests 64-bit length and offsets also for files not needing them.
+   * By default they are only requested for files longer than
+   * UMFT_MAX_LEGACY_LEN, which receivers not supporting them abort.
+   */
+  public void setLargeFile(boolean large) {
+    this.req_large = large;
+  }
+  
+  boolean needsLarge() {
+    return req_large || length > UMFT_MAX_LEGACY_LEN;
+  }
+  
+  /**
+   * Requests a resumable transfer from receivers supporting it, see
+   * JumftResumable. Chunks the receiver already has of the transfer with
+   * given token are skipped. With token 0, or a token the receiver does
+   * not know, the transfer starts from the beginning.
+   * @param token from getResumeToken of an interrupted transfer, or 0
+   */
+  public void setResumeToken(long token) {
+    this.req_resume = true;
+    this.req_token = token;
+  }
+  
+  /**
+   * Returns token to resume this transfer with, or 0 if the receiver did
+   * not grant a resumable transfer.
+   */
+  public long getResumeToken() {
+    return token;
   }
   
   public int tx(JumftStream str, String filename) {
     req_pkt_seqno = 0xff;
     this.str = str;
     
-    byte[] buf = new byte[17+256];
+    byte[] buf = new byte[17+256+2+8+1+8];
     buf[0] = UMFT_CMD_SEND_FILE;
-    from32bit(length, buf, 1);
+    from32bit(Math.min(length, UMFT_MAX_LEGACY_LEN), buf, 1);
     from16bit(mtu, buf, 5);
     from32bit(dt_min, buf, 7);
     from32bit(dt_max, buf, 11);
     buf[15] = (byte)Math.min(255, filename.length());
     System.arraycopy(filename.getBytes(), 0, buf, 16, Math.min(255, filename.length()));
+    int len = 17 + Math.min(255, filename.length());
+    if (req_window > UMFT_LEGACY_WINDOW || needsLarge() || req_resume) {
+      // appended window request, ignored by receivers not supporting it
+      from16bit(req_window, buf, len);
+      len += 2;
+    }
+    if (needsLarge() || req_resume) {
+      // appended 64-bit length after the window
+      from64bit(length, buf, len);
+      len += 8;
+    }
+    if (req_resume) {
+      // flags and resume token after the length
+      buf[len++] = (byte)((needsLarge() ? UMFT_FLAG_LARGE : 0) | UMFT_FLAG_RESUME);
+      from64bit(req_token, buf, len);
+      len += 8;
+    }
     
-    int res = u.txPacket(true, buf, (short)(17 + Math.min(255, filename.length())));
+    req = buf;
+    req_len = len;
+    if (mux != null) {
+      // sent when the link is free
+      mux.sync(this);
+      return Jumac.UMAC_OK;
+    }
+    return txSync();
+  }
+  
+  int txSync() {
+    int res = u.txPacket(true, req, (short)req_len);
     if (res > 0) {
       req_pkt_seqno = (char)res;
     } else {
@@ -52,48 +210,60 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
     return res;
   }
   
-  int sendNextChunk() {
-    int res = Jumac.UMAC_OK;
+  /**
+   * Sets maximum number of chunks sent per tick. By default one chunk is
+   * sent every dt ticks. With a burst the congestion controller adapts
+   * the number of chunks per tick between one and burst, so the rate can
+   * go beyond one chunk per tick with fewer timer calls.
+   */
+  public void setBurst(int burst) {
+    this.burst = burst < 1 ? 1 : burst;
+    if (quota > this.burst) quota = this.burst;
+  }
+  
+  // sends over given link, returns UMAC_OK if a chunk was sent,
+  // UMAC_ERR_BUSY if nothing to send
+  int sendNextChunk(Jumac u, int link) {
+    int res = Jumac.UMAC_ERR_BUSY;
     long ltx_offset = tx_offset;
-    // TODO here, check if nothing is sent - txbitmask is left unchanged
-    //      if this happens x times, the txbitmask could be reset to last
-    //      received rxbitmask
-    System.out.format("[TXER] [TX] send next chunk tx_offset:%04x tx_bitmask:%08x\n", ltx_offset, txbitmask);
-    for (int i = 0; i < 32; i++) {
-      if ((txbitmask & (1<<i)) == 0) {
+    if (_dbg) dbg("[TXER] [TX] send next chunk tx_offset:%04x tx_bitmask:%08x\n", ltx_offset, txbitmask[0]);
+    int i = firstClear(txbitmask);
+    if (i >= 0) {
+      do {
         long mtu_offset = i + ltx_offset;
-        System.out.format("[TXER] [TX] send next chunk select bit %02x, chunk %04x\n", i, (int)mtu_offset);
-        byte[] buf = new byte[1+2+4+mtu];
-        buf[0] = (byte)UMFT_CMD_DATA_CHUNK;
-        from16bit(session, buf, 1);
-        from32bit(mtu_offset, buf, 3);
+        if (_dbg) dbg("[TXER] [TX] send next chunk select bit %02x, chunk %04x\n", i, (int)mtu_offset);
+        byte[] buf = chunk;
+        if (large) {
+          from64bit(mtu_offset, buf, 3);
+        } else {
+          from32bit(mtu_offset, buf, 3);
+        }
         long file_offs = mtu_offset * mtu;
         if (file_offs >= length) {
           break;
         }
         long chunk_len = length - file_offs < mtu ? length - file_offs : mtu;
-        str.readData((int)file_offs, buf, 7, (int)chunk_len);
-        res = u.txPacket(false, buf, (short)(1+2+4+chunk_len));
+        str.readData(file_offs, buf, chunk_hdr, (int)chunk_len);
+        res = u.txPacket(false, buf, (short)(chunk_hdr+chunk_len));
         if (res == Jumac.UMAC_OK) {
-          txbitmask |= (1<<i);
+          setBit(txbitmask, i);
+          if (links != null) {
+            chunk_link[(int)(mtu_offset % window)] = (byte)link;
+          }
+          if (mtu_offset > tx_high) {
+            send_tick[(int)(mtu_offset % window)] = tick_now;
+            tx_high = mtu_offset;
+          } else {
+            send_tick[(int)(mtu_offset % window)] = -1;
+          }
         }
-        break;
-      }
+      } while (false);
     }
     return res;
   }
-  
-  
-  int _count_bits(long iv) {
-    int count = 0;
-    for(int i = 0; i < 32; ++i){
-      if ((iv & (1<<i)) != 0) count++;
-    }
-    return count;
-  }
 
   public boolean rxPak(char seqno, byte[] data, int len, boolean req_ack) {
-    if (len != 12 || data[0] != UMFT_CMD_STATUS || !req_ack) {
+    if (rxbitmask == null || len != sta_hdr + window / 8 || data[0] != UMFT_CMD_STATUS || !req_ack) {
       return false; // not for me
     }
     short sess_id = (short)to16bit(data, 1);
@@ -103,10 +273,11 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
     
     
     int rxsta = (int)data[3] & 0xff;
-    int rxoffset = (int)to32bit(data, 4);
-    int rxbitmask = (int)to32bit(data, 8);
+    long rxoffset = large ? to64bit(data, 4) : to32bit(data, 4);
+    int rxbitmask[] = this.rxbitmask;
+    toWords(data, sta_hdr, rxbitmask);
     
-    System.out.format("[TXER] [ST] got status sta:%d offs:%04x bitm:%08x\n",  rxsta, rxoffset, rxbitmask);
+    if (_dbg) dbg("[TXER] [ST] got status sta:%d offs:%04x bitm:%08x\n",  rxsta, rxoffset, rxbitmask[0]);
 
     int ack_res;
     if (!this.running) {
@@ -130,51 +301,81 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
       }
     }
     // calculate packets that got acked from previous call
-    int lp_rxbitmask = this.p_rxbitmask;
-    long d_offs = 0;
+    int lp_rxbitmask[] = this.p_rxbitmask;
     int acked_pkts = 0;
     
+    if (links != null) {
+      countShiftedLinks(rxoffset);
+    }
     if (rxoffset > this.p_rxoffset) {
-      // offset shift, see what got acked in there
-      d_offs = rxoffset - this.p_rxoffset;
-      int adj_rxbitmask = rxbitmask << d_offs;
-      // mark all shifted out as received
-      adj_rxbitmask |= ((1<<d_offs)-1);
-      // count all zeroes that became one
-//      System.out.format("<<<<< TXER  offset shift:%04x bit(%08x & %08x = %08x) = %d\n",  d_offs,
-//          adj_rxbitmask, (~lp_rxbitmask), adj_rxbitmask & (~lp_rxbitmask), _count_bits( adj_rxbitmask & (~lp_rxbitmask) ));
-      acked_pkts += _count_bits( adj_rxbitmask & (~lp_rxbitmask) );
+      // offset shift, all shifted out are received, count those that
+      // were not before
+      long d_offs = rxoffset - this.p_rxoffset;
+      acked_pkts += (int)Math.min(d_offs, window) - countBelow(lp_rxbitmask, d_offs);
+      if (d_offs > window) {
+        acked_pkts += (int)(d_offs - window);
+      }
       // now shift away the delta from previous bitmask
-      lp_rxbitmask >>>= d_offs;
-    } else {
-      // count all zeroes that became one
-      acked_pkts += _count_bits(rxbitmask & (~lp_rxbitmask));
+      shiftDown(lp_rxbitmask, lp_rxbitmask, d_offs);
+      shiftDown(txbitmask, txbitmask, d_offs);
     }
+    // count all zeroes that became one
+    acked_pkts += countNew(rxbitmask, lp_rxbitmask);
     this.acked_bytes += acked_pkts * this.mtu;
-//    System.out.format("<<<<< TXER                 bit(%08x & %08x = %08x) = %d [acked %d]\n",  
-//        rxbitmask, (~lp_rxbitmask), rxbitmask & (~lp_rxbitmask), _count_bits( rxbitmask & (~lp_rxbitmask) ), 
-//        acked_bytes/this.mtu);
+    if (links != null) {
+      countNewLinks(rxoffset, rxbitmask, lp_rxbitmask);
+    }
     
-    // adjust delta time
-    if (acked_pkts <= 8) {
-      // dropping a lot of packets, increase delta => lower bandwidth
-      int ndt = this.dt + this.ddt;
-      this.dt = ndt > this.dt_max ? this.dt_max : ndt;
+    // holes below highest received chunk not seen in previous status are
+    // lost, round trip is measured on highest received chunk
+    int high = highestSet(rxbitmask);
+    long lhigh = rxoffset - 1 + (high + 1);
+    int lost_pkts = 0;
+    long rtt = -1;
+    if (lhigh > p_high) {
+      long from = Math.max(p_high + 1, rxoffset) - rxoffset;
+      long to = lhigh - rxoffset;
+      if (to > from) {
+        lost_pkts = (int)(to - from) - (countBelow(rxbitmask, to) - countBelow(rxbitmask, from));
+        if (links != null) {
+          countLostLinks(rxoffset, rxbitmask, from, to);
+        }
+      }
+      long sent = send_tick[(int)(lhigh % window)];
+      if (sent >= 0) {
+        rtt = nowTick() - sent;
+        srtt = srtt == 0 ? Math.max(1, rtt) : (7 * srtt + rtt) / 8;
+      }
+      p_high = lhigh;
+    }
+    
+    // adjust delta time and chunks per tick
+    if (links == null) {
+      cc.status(acked_pkts, lost_pkts, rtt, nowTick());
     } else {
-      // try to decrease delta => higher bandwidth
-      int ndt = this.dt > this.ddt ? (this.dt - this.ddt) : this.dt_min;
-      this.dt = ndt < this.dt_min ? this.dt_min : ndt;
+      // each link by its own chunks, the round trip to the link of the
+      // highest received chunk
+      int rtt_link = rtt >= 0 ? chunk_link[(int)(lhigh % window)] & 0xff : -1;
+      cc.status(link_acked[0], link_lost[0], rtt_link == 0 ? rtt : -1, nowTick());
+      for (JumftLink l : links) {
+        l.cc.status(link_acked[l.index], link_lost[l.index], rtt_link == l.index ? rtt : -1, nowTick());
+        l.dt = l.cc.dt;
+        l.quota = l.cc.quota;
+      }
     }
+    this.dt = cc.dt;
+    this.quota = cc.quota;
   
     this.p_rxoffset = rxoffset;
     this.tx_offset = rxoffset;
-    this.p_rxbitmask = rxbitmask;
-    this.txbitmask = rxbitmask;
+    System.arraycopy(rxbitmask, 0, lp_rxbitmask, 0, rxbitmask.length);
+    // resend the holes, chunks above the highest received are in flight
+    copyBelow(rxbitmask, txbitmask, high + 1);
     
-    System.out.format("[TXER] [UP] update tx stats tx_offset:%04x tx_bitmask:%08x\n", tx_offset, txbitmask);
+    if (_dbg) dbg("[TXER] [UP] update tx stats tx_offset:%04x tx_bitmask:%08x\n", tx_offset, txbitmask[0]);
 
     
-    byte[] buf = new byte[6];
+    byte[] buf = staReply;
     buf[0] = UMFT_CMD_STATUS;
     buf[1] = (byte)ack_res;
     from32bit((int)this.dt, buf, 2);
@@ -184,8 +385,52 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
     return true;
   }
   
+  // Chunks of a status by link: shifted out of the previous window and
+  // not reported before, newly set in the window, and lost holes. Chunks
+  // beyond the previous window are counted for this transmitter's link.
+  
+  void countShiftedLinks(long rxoffset) {
+    Arrays.fill(link_acked, 0);
+    Arrays.fill(link_lost, 0);
+    long end = Math.min(rxoffset, p_rxoffset + window);
+    for (long c = p_rxoffset; c < end; c++) {
+      if (!testBit(p_rxbitmask, c - p_rxoffset)) {
+        link_acked[chunk_link[(int)(c % window)] & 0xff]++;
+      }
+    }
+    if (rxoffset > p_rxoffset + window) {
+      link_acked[0] += (int)(rxoffset - p_rxoffset - window);
+    }
+  }
+  
+  void countNewLinks(long rxoffset, int[] rxbitmask, int[] p_rxbitmask) {
+    for (int i = 0; i < rxbitmask.length; i++) {
+      int b = rxbitmask[i] & ~p_rxbitmask[i];
+      while (b != 0) {
+        long c = rxoffset + (i << 5) + Integer.numberOfTrailingZeros(b);
+        link_acked[chunk_link[(int)(c % window)] & 0xff]++;
+        b &= b - 1;
+      }
+    }
+  }
+  
+  void countLostLinks(long rxoffset, int[] rxbitmask, long from, long to) {
+    for (long n = from; n < to; n++) {
+      if (!testBit(rxbitmask, n)) {
+        link_lost[chunk_link[(int)((rxoffset + n) % window)] & 0xff]++;
+      }
+    }
+  }
+  
   public boolean rxAck(char seqno, byte[] data, int len) {
-    if (seqno != this.req_pkt_seqno || data[0] != UMFT_CMD_SEND_FILE || len != 14) {
+    // window, flags and resume progress are only in the ack if requested
+    boolean flagged = needsLarge() || req_resume;
+    boolean extended = req_window > UMFT_LEGACY_WINDOW || flagged;
+    if (seqno != this.req_pkt_seqno || data[0] != UMFT_CMD_SEND_FILE) {
+      return false;
+    }
+    if (len != 14 && (len != 16 || !extended) && (len != 17 || !flagged) &&
+        (len < 33 || !req_resume || len != 33 + to16bit(data, 14) / 8)) {
       return false;
     }
     if (running) {
@@ -198,6 +443,10 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
     long rxdt_max = to32bit(data, 8);
     int sess_id = to16bit(data, 12);
 
+    // receivers not supporting 64-bit offsets reply without flags
+    this.large = len >= 17 && (data[16] & UMFT_FLAG_LARGE) != 0;
+    boolean resumed = len >= 33 && (data[16] & UMFT_FLAG_RESUME) != 0;
+
     switch (rxsta) {
     case UMFT_STA_OK:
       this.running = true;
@@ -208,26 +457,143 @@ public abstract class JumftTx extends Jumft implements JumacTickable {
       status(UMFT_STA_ABORT);
       break;
     }
+    if (this.running && !large && length > UMFT_MAX_LEGACY_LEN) {
+      // receiver got a truncated length, and cannot take the file
+      this.running = false;
+      status(UMFT_STA_ABORT);
+    }
     if (this.running) {
       this.mtu = rxmtu;
       this.session = (short)sess_id;
       this.dt_min = (int)rxdt_min;
       this.dt_max = (int)rxdt_max;
       this.dt = (int)((rxdt_max - rxdt_min)/4 + rxdt_min);
-      requestFutureTick(this.dt);
+      this.chunk_hdr = large ? 1+2+8 : 1+2+4;
+      this.sta_hdr = large ? 12 : 8;
+      if (chunk == null || chunk.length != chunk_hdr+mtu) {
+        chunk = new byte[chunk_hdr+mtu];
+      }
+      chunk[0] = (byte)UMFT_CMD_DATA_CHUNK;
+      from16bit(session, chunk, 1);
+      // receivers not supporting windows reply without one
+      this.window = len >= 16 ? window(to16bit(data, 14), req_window) : UMFT_LEGACY_WINDOW;
+      if (txbitmask == null || txbitmask.length != window / 32) {
+        p_rxbitmask = new int[window / 32];
+        txbitmask = new int[window / 32];
+        rxbitmask = new int[window / 32];
+        send_tick = new long[window];
+      } else {
+        Arrays.fill(p_rxbitmask, 0);
+        Arrays.fill(txbitmask, 0);
+      }
+      this.p_rxoffset = 0;
+      this.tx_offset = 0;
+      this.acked_bytes = 0;
+      this.p_high = -1;
+      this.tx_high = -1;
+      this.token = 0;
+      if (resumed) {
+        // skip what the receiver already has
+        this.token = to64bit(data, 17);
+        long offset = to64bit(data, 25);
+        toWords(data, 33, p_rxbitmask);
+        System.arraycopy(p_rxbitmask, 0, txbitmask, 0, txbitmask.length);
+        this.p_rxoffset = offset;
+        this.tx_offset = offset;
+        this.acked_bytes = receivedBytes(offset, p_rxbitmask, length, mtu);
+        this.p_high = offset + highestSet(p_rxbitmask);
+        this.tx_high = p_high;
+      }
+      this.srtt = 0;
+      this.idle_since = -1;
+      cc.init(dt_min, dt_max, dt, burst);
+      this.quota = cc.quota;
+      tickIn(this.dt);
+      if (links != null) {
+        if (chunk_link == null || chunk_link.length != window) {
+          chunk_link = new byte[window];
+        }
+        for (JumftLink l : links) {
+          l.cc.init(dt_min, dt_max, dt, burst);
+          l.dt = l.cc.dt;
+          l.quota = l.cc.quota;
+          l.requestFutureTick(l.dt);
+        }
+      }
     }
     return true;
   }
   
+  /**
+   * Returns current tick, used for round trip samples. By default time is
+   * counted from the timer deltas requested by this transmitter.
+   */
+  public long nowTick() {
+    return clock;
+  }
+  
+  void tickIn(long delta) {
+    clock_delta = delta;
+    requestFutureTick(delta);
+  }
+  
   public void tick() {
+    clock += clock_delta;
+    clock_delta = 0;
+    tick_now = nowTick();
     if (running) {
-      sendNextChunk();
+      for (int i = 0; i < quota; i++) {
+        if (sendNextChunk(u, 0) != Jumac.UMAC_OK) {
+          if (i == 0) idle();
+          break;
+        }
+        idle_since = -1;
+      }
       if (this.acked_bytes < this.length){
-        requestFutureTick(this.dt);
+        tickIn(this.dt);
       }
     }
   }
   
+  void tickLink(JumftLink l) {
+    tick_now = nowTick();
+    if (running) {
+      for (int i = 0; i < l.quota; i++) {
+        if (sendNextChunk(l.u, l.index) != Jumac.UMAC_OK) {
+          if (i == 0) idle();
+          break;
+        }
+        idle_since = -1;
+      }
+      if (this.acked_bytes < this.length){
+        l.requestFutureTick(l.dt);
+      }
+    }
+  }
+  
+  // Nothing to send, all chunks in window are sent but not all reported.
+  // Chunks above the highest received may be lost, so when no status has
+  // reported them for two round trips all unreported chunks are resent.
+  void idle() {
+    if (idle_since < 0) {
+      idle_since = tick_now;
+    } else if (tick_now - idle_since > 2 * (srtt > 0 ? srtt : 16 * dt_max)) {
+      if (_dbg) dbg("[TXER] [TX] idle, resend unreported chunks\n");
+      System.arraycopy(p_rxbitmask, 0, txbitmask, 0, txbitmask.length);
+      idle_since = -1;
+    }
+  }
+
+  /** returns number of chunks allowed in flight, as negotiated */
+  public int getWindow() {
+    return window;
+  }
+  
+  /** returns whether 64-bit length and offsets are used, as negotiated */
+  public boolean isLargeFile() {
+    return large;
+  }
+  
   public abstract void requestFutureTick(long delta);
   public abstract void status(int result);
 }
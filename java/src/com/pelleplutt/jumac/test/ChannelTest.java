@@ -0,0 +1,161 @@
+package com.pelleplutt.jumac.test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacChannelConfig;
+import com.pelleplutt.jumac.JumacSelector;
+
+/**
+ * Runs many Jumac links over loopback sockets on one JumacSelector, with
+ * the timers on the JumacTimerWheel of the selector. Each link sends a number of synchronized packets with
+ * piggybacked acks, checks the data and that no threads were added per link.
+ * Then fills the tx queue towards a peer not yet reading, and checks that
+ * only whole packets were dropped.
+ */
+public class ChannelTest {
+  static final int LINKS = 200;
+  static final int PACKETS = 20;
+  static final int LEN = 500;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    int threadsBefore = Thread.activeCount();
+    final JumacSelector sel = new JumacSelector();
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+
+    final AtomicInteger done = new AtomicInteger();
+    final byte[] data = new byte[LEN];
+    for (int i = 0; i < LEN; i++) {
+      data[i] = (byte)(i * 7);
+    }
+
+    for (int l = 0; l < LINKS; l++) {
+      final Jumac client = new Jumac(500, false, 5);
+      final Jumac peer = new Jumac(500, false, 5);
+      JumacChannelConfig ccfg = new TestChannelConfig(client, sel) {
+        int acked;
+        @Override
+        public void rxAck(char seqno, byte[] d, int len) {
+          if (len != 2 || d[0] != 'o' || d[1] != 'k') {
+            System.out.println("bad ack");
+            err++;
+          }
+          if (++acked < PACKETS) {
+            client.txPacket(true, data, (short)LEN);
+          } else {
+            done.incrementAndGet();
+          }
+        }
+      };
+      JumacChannelConfig pcfg = new TestChannelConfig(peer, sel) {
+        @Override
+        public void rxPak(char seqno, byte[] d, int len, boolean req_ack) {
+          if (len != LEN || !Arrays.equals(Arrays.copyOf(d, len), data)) {
+            System.out.println("bad data");
+            err++;
+          }
+          peer.ackReply("ok".getBytes(), (short)2);
+        }
+      };
+      client.setConfig(ccfg);
+      peer.setConfig(pcfg);
+      ccfg.connect(server.getLocalAddress());
+      pcfg.attach(server.accept());
+      client.txPacket(true, data, (short)LEN);
+    }
+
+    for (int i = 0; i < 200 && done.get() < LINKS; i++) {
+      Thread.sleep(50);
+    }
+    if (done.get() != LINKS) {
+      System.out.println(done.get() + " of " + LINKS + " links done");
+      err++;
+    }
+    int threads = Thread.activeCount() - threadsBefore;
+    if (threads > 4) {
+      System.out.println(threads + " new threads for " + LINKS + " links");
+      err++;
+    }
+
+    stalledPeer(sel, server, data);
+
+    sel.close();
+    server.close();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  // sends without acks until packets are dropped, then lets the peer read
+  static void stalledPeer(JumacSelector sel, ServerSocketChannel server, final byte[] data)
+      throws Throwable {
+    final Jumac client = new Jumac(500, false, 5);
+    final Jumac peer = new Jumac(500, false, 5);
+    final AtomicInteger received = new AtomicInteger();
+    JumacChannelConfig ccfg = new TestChannelConfig(client, sel);
+    JumacChannelConfig pcfg = new TestChannelConfig(peer, sel) {
+      @Override
+      public void rxPak(char seqno, byte[] d, int len, boolean req_ack) {
+        if (len != LEN || !Arrays.equals(Arrays.copyOf(d, len), data)) {
+          System.out.println("bad data");
+          err++;
+        }
+        received.incrementAndGet();
+      }
+    };
+    client.setConfig(ccfg);
+    peer.setConfig(pcfg);
+    ccfg.connect(server.getLocalAddress());
+    SocketChannel ch = server.accept();
+    // let the selector register the channel, so packets are written
+    // directly until the socket buffers are full
+    Thread.sleep(200);
+    int sent = 0;
+    while (ccfg.getDropped() < 10 && sent < 100000) {
+      client.txPacket(false, data, (short)LEN);
+      sent++;
+    }
+    long dropped = ccfg.getDropped();
+    pcfg.attach(ch);
+    for (int i = 0; i < 200 && received.get() < sent - dropped; i++) {
+      Thread.sleep(50);
+    }
+    System.out.format("stalled peer: %d sent, %d dropped, %d received, %d crc errors, %d garbage\n",
+        sent, dropped, received.get(), peer.getStats().getCrcErrors(), peer.getStats().getGarbage());
+    if (dropped == 0 || received.get() != sent - dropped ||
+        peer.getStats().getCrcErrors() != 0 || peer.getStats().getGarbage() != 0) {
+      System.out.println("expected all packets not dropped to arrive whole");
+      err++;
+    }
+    ccfg.close();
+    pcfg.close();
+  }
+
+  static class TestChannelConfig extends JumacChannelConfig {
+    TestChannelConfig(Jumac umac, JumacSelector sel) {
+      super(umac, sel);
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+    }
+    @Override
+    public void tmo(char seqno) {
+      System.out.println("TMO");
+      err++;
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 200;
+    }
+  }
+}
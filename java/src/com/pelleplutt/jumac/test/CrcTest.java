@@ -0,0 +1,58 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.Random;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacCrc;
+
+/**
+ * Checks that all crc engines give the same result as the bit twiddling
+ * reference, which in turn must match the CRC-CCITT16 of umac.c.
+ */
+public class CrcTest {
+  static final int RUNS = 20000;
+
+  public static void main(String[] args) {
+    JumacCrc engines[] = {JumacCrc.TABLE, JumacCrc.SLICE4, JumacCrc.SLICE8};
+    String names[] = {"TABLE", "SLICE4", "SLICE8"};
+    int err = 0;
+
+    // check value of CRC-16/CCITT-FALSE, as calculated by umac.c
+    byte[] check = "123456789".getBytes();
+    if (JumacCrc.BITWISE.update(0xffff, check, 0, check.length) != 0x29b1) {
+      System.out.println("BITWISE check value mismatch");
+      err++;
+    }
+
+    Random r = new Random(0x1021);
+    byte[] buf = new byte[Jumac.UMAC_MAX_PAK_LEN + 16];
+    for (int run = 0; run < RUNS; run++) {
+      r.nextBytes(buf);
+      int offs = r.nextInt(16);
+      int len = r.nextInt(Jumac.UMAC_MAX_PAK_LEN + 1);
+      int init = r.nextBoolean() ? 0xffff : r.nextInt(0x10000);
+      int ref = JumacCrc.BITWISE.update(init, buf, offs, len);
+      for (int e = 0; e < engines.length; e++) {
+        int crc = engines[e].update(init, buf, offs, len);
+        if (crc != ref) {
+          System.out.format("%s mismatch init:%04x offs:%d len:%d, got %04x, expected %04x\n",
+              names[e], init, offs, len, crc, ref);
+          err++;
+        }
+        crc = init;
+        for (int i = 0; i < len; i++) {
+          crc = engines[e].update(crc, buf[offs + i]);
+        }
+        if (crc != ref) {
+          System.out.format("%s bytewise mismatch init:%04x offs:%d len:%d, got %04x, expected %04x\n",
+              names[e], init, offs, len, crc, ref);
+          err++;
+        }
+      }
+    }
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
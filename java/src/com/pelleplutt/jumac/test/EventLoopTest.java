@@ -0,0 +1,247 @@
+package com.pelleplutt.jumac.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacEventLoop;
+
+/**
+ * Runs two links, each on a JumacEventLoop, joined by byte queues read by
+ * their own threads. Several application threads on each side send
+ * synchronized packets at once, with a short resend delta so resends race
+ * acks. Checks that every packet is delivered and acked exactly once with
+ * no timeouts, and that all callbacks run on the loop thread. Also checks
+ * that queueing events does not allocate once the pool has grown.
+ */
+public class EventLoopTest {
+  static final int THREADS = 4;
+  static final int PACKETS = 500;
+
+  static int err;
+
+  static class Link extends Pipe.Link {
+    final JumacEventLoop loop;
+    // times each packet from the peer was received, by thread and index
+    final int rx[][] = new int[THREADS][PACKETS];
+    final int acked[][] = new int[THREADS][PACKETS];
+    // packet sent by seqno, as thread and index
+    final int inflight[] = new int[16];
+    volatile int tmos, foreign, plain;
+    Link(Jumac u, JumacEventLoop loop, Pipe out) {
+      super(u, loop, 5);
+      this.loop = loop;
+      this.out = out;
+    }
+    void check() {
+      if (!loop.inLoop()) foreign++;
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      check();
+      if (!req_ack) {
+        plain++;
+        return;
+      }
+      rx[data[0]][(data[1] & 0xff) | ((data[2] & 0xff) << 8)]++;
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      check();
+      int p = inflight[seqno];
+      inflight[seqno] = -1;
+      if (p < 0) {
+        System.out.println("ack for no packet, seq " + (int)seqno);
+        err++;
+        return;
+      }
+      acked[p >> 16][p & 0xffff]++;
+    }
+    @Override
+    public void tmo(char seqno) {
+      check();
+      tmos++;
+    }
+    @Override
+    public void tx(byte b) {
+      check();
+      super.tx(b);
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      check();
+      super.tx(buf, len);
+    }
+  }
+
+  static Link link(Pipe in, Pipe out) {
+    Jumac u = new Jumac(500, false, 20);
+    u.setWindow(4);
+    JumacEventLoop loop = new JumacEventLoop(u);
+    in.loop = loop;
+    Link l = new Link(u, loop, out);
+    Arrays.fill(l.inflight, -1);
+    loop.start();
+    return l;
+  }
+
+  static Thread sender(final Link l, final int id, final CountDownLatch go) {
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          go.await();
+          byte b[] = new byte[3];
+          for (int i = 0; i < PACKETS; i++) {
+            b[0] = (byte)id;
+            b[1] = (byte)i;
+            b[2] = (byte)(i >> 8);
+            final int p = (id << 16) | i;
+            final byte pak[] = b.clone();
+            final int res[] = new int[1];
+            // sent and recorded in one loop event, so the ack never
+            // comes before the record
+            do {
+              final CountDownLatch sent = new CountDownLatch(1);
+              l.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                  res[0] = l.loop.txPacket(true, pak, (short)pak.length);
+                  if (res[0] > 0) l.inflight[res[0]] = p;
+                  sent.countDown();
+                }
+              });
+              sent.await();
+              if (res[0] == Jumac.UMAC_ERR_BUSY) Thread.sleep(0, 100000);
+            } while (res[0] == Jumac.UMAC_ERR_BUSY);
+            if (res[0] <= 0) {
+              System.out.println("tx failed " + res[0]);
+              err++;
+            }
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    });
+    t.start();
+    return t;
+  }
+
+  public static void main(String[] args) throws Throwable {
+    Pipe toA = new Pipe();
+    Pipe toB = new Pipe();
+    Link la = link(toA, toB);
+    Link lb = link(toB, toA);
+
+    // plain sends from another thread are queued without waiting
+    int res = lb.loop.txPacket(false, new byte[] {0, (byte)0xff, (byte)0xff}, (short)3);
+    if (res != 0) {
+      System.out.println("unsynchronized tx failed " + res);
+      err++;
+    }
+
+    CountDownLatch go = new CountDownLatch(1);
+    Thread ts[] = new Thread[THREADS * 2];
+    for (int i = 0; i < THREADS; i++) {
+      ts[i] = sender(la, i, go);
+      ts[THREADS + i] = sender(lb, i, go);
+    }
+    go.countDown();
+    for (Thread t : ts) {
+      t.join();
+    }
+    long end = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < end && !(allAcked(la) && allAcked(lb))) {
+      Thread.sleep(10);
+    }
+    la.loop.stop();
+    lb.loop.stop();
+
+    System.out.format("%d packets each way, %d events\n",
+        THREADS * PACKETS, la.loop.getEvents() + lb.loop.getEvents());
+    if (la.plain != 1) {
+      System.out.println("unsynchronized packet not received");
+      err++;
+    }
+    check("a", la, lb);
+    check("b", lb, la);
+    pooled();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static boolean allAcked(Link l) {
+    for (int t = 0; t < THREADS; t++) {
+      for (int i = 0; i < PACKETS; i++) {
+        if (l.acked[t][i] == 0) return false;
+      }
+    }
+    return true;
+  }
+
+  static void check(String name, Link from, Link to) {
+    int lost = 0, dup = 0, ackLost = 0, ackDup = 0;
+    for (int t = 0; t < THREADS; t++) {
+      for (int i = 0; i < PACKETS; i++) {
+        if (to.rx[t][i] == 0) lost++;
+        if (to.rx[t][i] > 1) dup++;
+        if (from.acked[t][i] == 0) ackLost++;
+        if (from.acked[t][i] > 1) ackDup++;
+      }
+    }
+    System.out.format("from %s: %d lost, %d duplicated, %d not acked, %d acked twice, %d timeouts\n",
+        name, lost, dup, ackLost, ackDup, from.tmos);
+    if (lost + dup + ackLost + ackDup + from.tmos != 0) {
+      System.out.println("expected each packet delivered and acked once");
+      err++;
+    }
+    if (from.foreign != 0) {
+      System.out.println(from.foreign + " callbacks outside loop");
+      err++;
+    }
+  }
+
+  static volatile int ran;
+
+  static void pooled() {
+    Jumac u = new Jumac(500, false, 20);
+    JumacEventLoop loop = new JumacEventLoop(u);
+    new Link(u, loop, new Pipe());
+    loop.start();
+    Runnable r = new Runnable() {
+      @Override
+      public void run() {
+        ran++;
+      }
+    };
+    byte garbage[] = new byte[8];
+    com.sun.management.ThreadMXBean mx =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+    long a0 = 0;
+    int n = 0;
+    for (int batch = 0; batch < 200; batch++) {
+      if (batch == 100) {
+        a0 = mx.getThreadAllocatedBytes(tid);
+      }
+      // at most a batch queued, so the pool stops growing
+      for (int i = 0; i < 500; i++) {
+        loop.execute(r);
+        loop.report(garbage, 0, garbage.length);
+        n++;
+      }
+      while (ran != n) {
+        Thread.yield();
+      }
+    }
+    long bytes = mx.getThreadAllocatedBytes(tid) - a0;
+    loop.stop();
+    System.out.format("pooled: %d bytes allocated for %d events\n", bytes, 100 * 500 * 2);
+    if (bytes > 10000) {
+      System.out.println("queueing allocates");
+      err++;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.pelleplutt.jumac.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacEventLoop;
+
+/**
+ * Checks the length encoding of the frame header for every payload
+ * length: two bits of ((len - 1) >> 8) + 1 in the first header byte and
+ * (len - 1) & 0xff in the second. Each frame is parsed back, bulk and
+ * byte by byte, and must give the same payload. Longer payloads cannot
+ * be described and must be rejected. All frames, with garbage and a bad
+ * crc between them, are then parsed in chunks on a JumacEventLoop, which
+ * parses them its own way, and must give the same as parsed directly.
+ */
+public class FrameTest {
+  static final int MAX_LEN = Jumac.UMAC_MAX_PAK_LEN;
+
+  static class Link implements Jumac.Config {
+    final ArrayList<byte[]> out = new ArrayList<byte[]>();
+    final ArrayList<byte[]> rxs = new ArrayList<byte[]>();
+    byte rx[];
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      rx = Arrays.copyOf(data, len);
+      rxs.add(rx);
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+    }
+    @Override
+    public void tmo(char seqno) {
+    }
+    @Override
+    public void garbage(byte b) {
+    }
+    @Override
+    public long nowTick() {
+      return 0;
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+    }
+    @Override
+    public void cancelFutureTick() {
+    }
+    @Override
+    public void tx(byte b) {
+      tx(new byte[] {b}, 1);
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      out.add(Arrays.copyOf(buf, len));
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 10;
+    }
+    // frame sent so far as one array
+    byte[] take() {
+      int len = 0;
+      for (byte f[] : out) len += f.length;
+      byte frame[] = new byte[len];
+      int offs = 0;
+      for (byte f[] : out) {
+        System.arraycopy(f, 0, frame, offs, f.length);
+        offs += f.length;
+      }
+      out.clear();
+      return frame;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int err = 0;
+    Jumac tx = new Jumac(100, false, 2);
+    Jumac rx = new Jumac(100, false, 2);
+    Link ltx = new Link();
+    Link lrx = new Link();
+    tx.setConfig(ltx);
+    rx.setConfig(lrx);
+    byte data[] = new byte[MAX_LEN];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte)(i * 7 + 3);
+    }
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int len = 0; len <= MAX_LEN; len++) {
+      tx.txPacket(false, data, (short)len);
+      byte f[] = ltx.take();
+      stream.write(f, 0, f.length);
+      if (len % 50 == 0) {
+        stream.write(new byte[] {1, 2, 3}, 0, 3);
+      }
+      if (len % 100 == 1) {
+        byte bad[] = f.clone();
+        bad[bad.length - 1]++;
+        stream.write(bad, 0, bad.length);
+      }
+      int hi = len == 0 ? 0 : ((len - 1) >> 8) + 1;
+      if (f.length != (len == 0 ? 4 : len + 5) || (f[1] & 3) != hi ||
+          (len > 0 && (f[2] & 0xff) != ((len - 1) & 0xff))) {
+        System.out.format("len %d: bad header %02x %02x, frame of %d bytes\n",
+            len, f[1] & 0xff, f[2] & 0xff, f.length);
+        err++;
+        continue;
+      }
+      for (int bytewise = 0; bytewise < 2; bytewise++) {
+        lrx.rx = null;
+        if (bytewise == 0) {
+          rx.report(f);
+        } else {
+          for (byte b : f) rx.report(b);
+        }
+        if (lrx.rx == null || !Arrays.equals(lrx.rx, Arrays.copyOf(data, len))) {
+          System.out.format("len %d: parsed %s\n", len,
+              lrx.rx == null ? "nothing" : lrx.rx.length + " bytes, differing");
+          err++;
+        }
+      }
+    }
+    // the same stream parsed directly and on a loop, in chunks
+    byte all[] = stream.toByteArray();
+    Jumac direct = new Jumac(100, false, 2);
+    Jumac owned = new Jumac(100, false, 2);
+    Link ldirect = new Link();
+    Link lowned = new Link();
+    direct.setConfig(ldirect);
+    owned.setConfig(lowned);
+    JumacEventLoop loop = new JumacEventLoop(owned);
+    loop.start();
+    for (int offs = 0; offs < all.length; offs += 13) {
+      int n = Math.min(13, all.length - offs);
+      direct.report(all, offs, n);
+      loop.report(all, offs, n);
+    }
+    final CountDownLatch drained = new CountDownLatch(1);
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        drained.countDown();
+      }
+    });
+    drained.await();
+    loop.stop();
+    boolean same = ldirect.rxs.size() == lowned.rxs.size();
+    for (int i = 0; same && i < ldirect.rxs.size(); i++) {
+      same = Arrays.equals(ldirect.rxs.get(i), lowned.rxs.get(i));
+    }
+    System.out.format("stream: %d packets, %d crc errors, %d garbage direct; " +
+        "%d packets, %d crc errors, %d garbage on loop\n",
+        ldirect.rxs.size(), direct.getStats().getCrcErrors(), direct.getStats().getGarbage(),
+        lowned.rxs.size(), owned.getStats().getCrcErrors(), owned.getStats().getGarbage());
+    if (!same || ldirect.rxs.size() != MAX_LEN + 1 ||
+        direct.getStats().getCrcErrors() != owned.getStats().getCrcErrors() ||
+        direct.getStats().getGarbage() != owned.getStats().getGarbage() ||
+        direct.getStats().getCrcErrors() == 0 || direct.getStats().getGarbage() == 0) {
+      System.out.println("loop parsed the stream differently");
+      err++;
+    }
+
+    byte toolong[] = new byte[MAX_LEN + 1];
+    if (MAX_LEN != 768 ||
+        tx.txPacket(false, toolong, (short)toolong.length) != Jumac.UMAC_ERR_TOO_LONG ||
+        tx.txPacket(true, toolong, (short)toolong.length) != Jumac.UMAC_ERR_TOO_LONG ||
+        !ltx.out.isEmpty()) {
+      System.out.println("payload over 768 bytes not rejected");
+      err++;
+    }
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
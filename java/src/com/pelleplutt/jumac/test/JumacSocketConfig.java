@@ -27,9 +27,10 @@ public abstract class JumacSocketConfig extends Jumac.DefaultAbstractConfig {
       @Override
       public void run() {
         try {
-          int c;
-          while ((c = in.read()) != -1) {
-            u.report((byte)c);
+          byte[] buf = new byte[4096];
+          int len;
+          while ((len = in.read(buf)) != -1) {
+            u.report(buf, 0, len);
           }
         }
         catch (Throwable t) {t.printStackTrace();}
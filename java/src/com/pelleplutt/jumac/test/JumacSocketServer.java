@@ -1,93 +1,241 @@
 package com.pelleplutt.jumac.test;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Vector;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
+/**
+ * Relays everything a client sends to all other clients, like a shared
+ * radio bus. Optionally corrupts relayed bytes with given probability.
+ *
+ * All clients are served by one selector thread. Received data is copied
+ * in blocks to a bounded outbound buffer per peer, and each peer gets at
+ * most one write per select round. While any peer's buffer is full no
+ * client is read, so slow peers push back on the senders instead of
+ * growing the buffers.
+ */
 public class JumacSocketServer {
+  public static final int READ_BUFFER_SIZE = 64*1024;
+  public static final int PEER_BUFFER_SIZE = 256*1024;
+
   int port;
   float errProb;
-  ServerSocket serverSocket;
-  Vector<Socket> sockets = new Vector<Socket>();
-  
+  final Random rnd = new Random();
+  volatile ServerSocketChannel serverSocket;
+  volatile Selector selector;
+  volatile boolean running = true;
+  // set when some peer buffer cannot take a full read and clients are not read
+  boolean paused;
+  final List<Peer> peers = new ArrayList<Peer>();
+  final List<Peer> dirty = new ArrayList<Peer>();
+  final ByteBuffer rxBuf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+  class Peer {
+    final SocketChannel ch;
+    SelectionKey key;
+    final ByteBuffer out = ByteBuffer.allocateDirect(PEER_BUFFER_SIZE);
+    boolean dirty;
+    // bytes left to relay until next corrupted byte
+    long nextErr;
+
+    Peer(SocketChannel ch) {
+      this.ch = ch;
+      nextErr = errDistance();
+    }
+  }
+
   public JumacSocketServer(int port) {
     this(port, 0);
   }
-  
+
   public JumacSocketServer(int port, float errProb) {
     this.port = port;
     this.errProb = errProb;
   }
-  
-  public void start() throws IOException{
-      serverSocket = new ServerSocket(port);
-      try {
-        System.out.println("accepting clients on port " + port);
-        while (true) {
-          Socket clientSocket = serverSocket.accept();
-          startClient(clientSocket);
+
+  /** returns port listened on, or -1 if not yet started */
+  public int getLocalPort() {
+    ServerSocketChannel s = serverSocket;
+    return s == null ? -1 : s.socket().getLocalPort();
+  }
+
+  public void start() throws IOException {
+    selector = Selector.open();
+    ServerSocketChannel ssc = ServerSocketChannel.open();
+    ssc.bind(new InetSocketAddress(port));
+    ssc.configureBlocking(false);
+    ssc.register(selector, SelectionKey.OP_ACCEPT);
+    serverSocket = ssc;
+    try {
+      System.out.println("accepting clients on port " + getLocalPort());
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) continue;
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Peer p = (Peer)key.attachment();
+          if (key.isReadable()) {
+            read(p);
+          }
+          if (key.isValid() && key.isWritable()) {
+            flush(p);
+          }
         }
-      }
-      catch (Throwable ignore) {}
-      finally {
-        for (Socket s : sockets) {
-          try {
-            s.close();
-          } catch (Throwable ignore) {}
+        for (Peer p : dirty) {
+          p.dirty = false;
+          flush(p);
         }
-        close();
-        System.out.println("server closed");
+        dirty.clear();
+        updateInterest();
       }
+    }
+    catch (Throwable ignore) {}
+    finally {
+      for (Peer p : peers) {
+        try {
+          p.ch.close();
+        } catch (Throwable ignore) {}
+      }
+      peers.clear();
+      try {
+        ssc.close();
+      } catch (Throwable ignore) {}
+      try {
+        selector.close();
+      } catch (Throwable ignore) {}
+      System.out.println("server closed");
+    }
   }
-  
+
   public void close() {
-    try {
-      serverSocket.close();
-    } catch (Throwable ignore) {}
+    running = false;
+    Selector s = selector;
+    if (s != null) {
+      s.wakeup();
+    }
   }
-  
-  void startClient(final Socket client) {
-    Runnable r = createClientRunnable(client);
-    Thread t = new Thread(r);
-    t.setDaemon(true);
-    t.start();
-    sockets.addElement(client);
+
+  void accept() throws IOException {
+    SocketChannel ch = serverSocket.accept();
+    if (ch == null) return;
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    Peer p = new Peer(ch);
+    p.key = ch.register(selector, SelectionKey.OP_READ, p);
+    peers.add(p);
     System.out.println("client accepted");
   }
-  
-  Runnable createClientRunnable(final Socket client) {
-    Runnable r = new Runnable() {
-      @Override
-      public void run() {
-        InputStream is = null;
-        int c;
-        try {
-          is = client.getInputStream();
-          while ((c = is.read()) != -1) {
-            for (Socket s : sockets) {
-              if (s == client) continue;
-              if (errProb > 0) {
-                if (Math.random() <= errProb) {
-                  c ^= (int)(Math.random() * 0x100);
-                }
-              }
-              s.getOutputStream().write(c);
-            }
-          }
-        }
-        catch (Throwable ignore) {}
-        finally {
-          System.out.println("client closed");
-          try {
-            is.close();
-          } catch (Throwable ignore) {}
-          sockets.remove(client);
-        }
+
+  void read(Peer src) {
+    rxBuf.clear();
+    rxBuf.limit(Math.min(READ_BUFFER_SIZE, minFree(src)));
+    if (rxBuf.limit() == 0) return;
+    int n;
+    try {
+      n = src.ch.read(rxBuf);
+    } catch (IOException e) {
+      n = -1;
+    }
+    if (n < 0) {
+      closePeer(src);
+      return;
+    }
+    rxBuf.flip();
+    for (Peer p : peers) {
+      if (p == src) continue;
+      relay(p, rxBuf.duplicate());
+    }
+  }
+
+  // queues data to peer, corrupting bytes as configured
+  void relay(Peer p, ByteBuffer data) {
+    int n = data.remaining();
+    int start = p.out.position();
+    p.out.put(data);
+    if (errProb > 0) {
+      while (p.nextErr < n) {
+        int ix = start + (int)p.nextErr;
+        p.out.put(ix, (byte)(p.out.get(ix) ^ (int)(rnd.nextFloat() * 0x100)));
+        p.nextErr += 1 + errDistance();
       }
-    };
-    return r;
+      p.nextErr -= n;
+    }
+    if (!p.dirty) {
+      p.dirty = true;
+      dirty.add(p);
+    }
+  }
+
+  // number of good bytes before next corrupted one
+  long errDistance() {
+    if (errProb <= 0) {
+      return Long.MAX_VALUE;
+    }
+    if (errProb >= 1) {
+      return 0;
+    }
+    return (long)(Math.log(1.0 - rnd.nextDouble()) / Math.log(1.0 - errProb));
+  }
+
+  void flush(Peer p) {
+    if (!p.ch.isOpen()) return;
+    p.out.flip();
+    try {
+      p.ch.write(p.out);
+    } catch (IOException e) {
+      p.out.clear();
+      closePeer(p);
+      return;
+    }
+    p.out.compact();
+  }
+
+  // least free outbound space among peers other than given
+  int minFree(Peer src) {
+    int min = PEER_BUFFER_SIZE;
+    for (Peer p : peers) {
+      if (p != src) {
+        min = Math.min(min, p.out.remaining());
+      }
+    }
+    return min;
+  }
+
+  // pauses reading while a peer buffer is full, writes pending data
+  void updateInterest() {
+    paused = minFree(null) < READ_BUFFER_SIZE;
+    for (Peer p : peers) {
+      int ops = paused ? 0 : SelectionKey.OP_READ;
+      if (p.out.position() > 0) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      if (p.key.isValid() && p.key.interestOps() != ops) {
+        p.key.interestOps(ops);
+      }
+    }
+  }
+
+  void closePeer(Peer p) {
+    System.out.println("client closed");
+    p.key.cancel();
+    try {
+      p.ch.close();
+    } catch (Throwable ignore) {}
+    peers.remove(p);
   }
 
   public static void main(String[] args) throws Throwable {
@@ -100,5 +248,5 @@ public class JumacSocketServer {
     JumacSocketServer s = new JumacSocketServer(port);
     s.start();
   }
-  
+
 }
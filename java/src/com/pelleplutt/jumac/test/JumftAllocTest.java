@@ -0,0 +1,165 @@
+package com.pelleplutt.jumac.test;
+
+import java.lang.management.ManagementFactory;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.filetransfer.JumftRx;
+import com.pelleplutt.jumac.filetransfer.JumftStream;
+import com.pelleplutt.jumac.filetransfer.JumftTx;
+
+/**
+ * Checks that sending chunks of a file transfer allocates nothing in
+ * steady state. A transmitter and a receiver are run on the calling
+ * thread, frames passed through buffers and ticks called directly, and
+ * the bytes allocated by the thread are measured over many chunks.
+ */
+public class JumftAllocTest {
+  static final int MTU = 512;
+  static final int WARMUP_CHUNKS = 200000;
+  static final int CHUNKS = 100000;
+
+  static class Wire implements Jumac.Config {
+    final byte buf[] = new byte[4096];
+    int len;
+    void deliver(Jumac to) {
+      int l = len;
+      len = 0;
+      to.report(buf, 0, l);
+    }
+    @Override
+    public void tx(byte b) {
+      buf[len++] = b;
+    }
+    @Override
+    public void tx(byte[] b, int l) {
+      System.arraycopy(b, 0, buf, len, l);
+      len += l;
+    }
+    @Override
+    public long nowTick() {
+      return 0;
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+    }
+    @Override
+    public void cancelFutureTick() {
+    }
+    @Override
+    public void tmo(char seqno) {
+    }
+    @Override
+    public void garbage(byte b) {
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 1000;
+    }
+  }
+
+  public static void main(String[] args) throws Throwable {
+    final Jumac utx = new Jumac(1000, false, 5);
+    final Jumac urx = new Jumac(1000, false, 5);
+
+    final long written[] = new long[1];
+    JumftStream str = new JumftStream() {
+      @Override
+      public void readData(long offs, byte[] dst, int dstOffs, int len) {
+      }
+      @Override
+      public boolean createData(long len, String name) {
+        return true;
+      }
+      @Override
+      public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
+        written[0] += len;
+        return true;
+      }
+    };
+    final JumftTx ftx = new JumftTx(utx, 0x7fffffffL, MTU, 1, 10, 1) {
+      @Override
+      public void requestFutureTick(long delta) {
+      }
+      @Override
+      public void status(int result) {
+        System.out.println("tx status " + result);
+      }
+    };
+    final JumftRx frx = new JumftRx(urx, str, 1, 10, MTU) {
+      @Override
+      public void requestFutureTick(long delta) {
+      }
+      @Override
+      public void cancelFutureTick() {
+      }
+      @Override
+      public void status(int result) {
+        System.out.println("rx status " + result);
+      }
+    };
+    final Wire wtx = new Wire() {
+      @Override
+      public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+        ftx.rxPak(seqno, data, len, req_ack);
+      }
+      @Override
+      public void rxAck(char seqno, byte[] data, int len) {
+        ftx.rxAck(seqno, data, len);
+      }
+    };
+    final Wire wrx = new Wire() {
+      @Override
+      public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+        frx.rxPak(seqno, data, len, req_ack);
+      }
+      @Override
+      public void rxAck(char seqno, byte[] data, int len) {
+        frx.rxAck(seqno, data, len);
+      }
+    };
+    utx.setConfig(wtx);
+    urx.setConfig(wrx);
+
+    ftx.tx(str, "alloc.test");
+    wtx.deliver(urx);
+    wrx.deliver(utx);
+
+    com.sun.management.ThreadMXBean mx =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+
+    run(ftx, utx, urx, wtx, wrx, WARMUP_CHUNKS);
+    long a0 = mx.getThreadAllocatedBytes(tid);
+    long c0 = written[0];
+    run(ftx, utx, urx, wtx, wrx, CHUNKS);
+    long a1 = mx.getThreadAllocatedBytes(tid);
+    long c1 = written[0];
+
+    long chunks = (c1 - c0) / MTU;
+    System.out.println(chunks + " chunks, " + (a1 - a0) + " bytes allocated");
+    if (chunks < CHUNKS / 2) {
+      System.out.println("transfer stalled");
+      System.exit(1);
+    }
+    if (a1 - a0 != 0) {
+      System.exit(1);
+    }
+  }
+
+  // runs given number of transmitter ticks, passing all frames on
+  static void run(JumftTx ftx, Jumac utx, Jumac urx, Wire wtx, Wire wrx, int ticks) {
+    for (int i = 0; i < ticks; i++) {
+      ftx.tick();
+      while (wtx.len > 0 || wrx.len > 0) {
+        wtx.deliver(urx);
+        wrx.deliver(utx);
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.filetransfer.JumftCongestion;
+import com.pelleplutt.jumac.filetransfer.JumftLink;
+import com.pelleplutt.jumac.filetransfer.JumftRx;
+import com.pelleplutt.jumac.filetransfer.JumftStream;
+import com.pelleplutt.jumac.filetransfer.JumftTx;
+
+/**
+ * Sends a file over one, two and three bonded links, each a simulated
+ * lossy link with its own bottleneck, to one receiver. Checks that the
+ * file arrives intact, that all links carry chunks, that the transfer
+ * time drops as links are added, and that a slower link carries less.
+ */
+public class JumftBondTest {
+  static final int LEN = 200000;
+  static final int MTU = 250;
+  static final int RATE = 100;
+  static final int QUEUE = 2000;
+  static final int WINDOW = 1024;
+  static final long MAX_TICKS = 100000;
+
+  static int err;
+  static long now;
+  // chunks sent per link in last run
+  static int sent[];
+
+  public static void main(String[] args) {
+    long one = run(1, new int[] {RATE});
+    long two = run(2, new int[] {RATE, RATE});
+    long three = run(3, new int[] {RATE, RATE, RATE});
+    run(2, new int[] {RATE, RATE / 4});
+    if (sent[1] >= sent[0]) {
+      System.out.println("expected slower link to carry fewer chunks");
+      err++;
+    }
+    if (two > one * 7 / 10 || three > two * 85 / 100) {
+      System.out.println("expected transfer time to drop with more links");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static long run(final int n, int rates[]) {
+    final byte src[] = new byte[LEN];
+    final byte dst[] = new byte[LEN];
+    new Random(n).nextBytes(src);
+    JumftStream str = new JumftStream() {
+      @Override
+      public void readData(long offs, byte[] d, int dOffs, int l) {
+        System.arraycopy(src, (int)offs, d, dOffs, l);
+      }
+      @Override
+      public boolean createData(long l, String name) {
+        return l == LEN;
+      }
+      @Override
+      public boolean writeData(long offs, byte[] s, int sOffs, int l) {
+        System.arraycopy(s, sOffs, dst, (int)offs, l);
+        return true;
+      }
+    };
+    final long alarm[] = new long[n + 1];
+    final boolean done[] = new boolean[1];
+    JumftSim sims[] = new JumftSim[n];
+    Jumac utx[] = new Jumac[n];
+    Jumac urx[] = new Jumac[n];
+    for (int i = 0; i < n; i++) {
+      sims[i] = new JumftSim(10, rates[i], QUEUE, 0.01, i + 1);
+      utx[i] = new Jumac(1000, false, 5);
+      urx[i] = new Jumac(1000, false, 5);
+    }
+    final JumftTx tx = new JumftTx(utx[0], LEN, MTU, 1, 40, 1, WINDOW) {
+      @Override
+      public void requestFutureTick(long delta) {
+        alarm[0] = now + delta;
+      }
+      @Override
+      public long nowTick() {
+        return now;
+      }
+      @Override
+      public void status(int result) {
+      }
+    };
+    tx.setCongestion(new JumftCongestion.Aimd());
+    tx.setBurst(4);
+    final JumftLink links[] = new JumftLink[n];
+    for (int i = 1; i < n; i++) {
+      final int ix = i;
+      links[i] = new JumftLink(utx[i]) {
+        @Override
+        public void requestFutureTick(long delta) {
+          alarm[ix] = now + delta;
+        }
+      };
+      tx.addLink(links[i]);
+    }
+    final JumftRx rx = new JumftRx(urx[0], str, 1, 40, MTU, WINDOW) {
+      @Override
+      public void requestFutureTick(long delta) {
+        alarm[n] = now + delta;
+      }
+      @Override
+      public void cancelFutureTick() {
+        alarm[n] = 0;
+      }
+      @Override
+      public void status(int result) {
+        done[0] = result == UMFT_STA_FIN;
+      }
+    };
+    JumftSim.Line toRx[] = new JumftSim.Line[n];
+    JumftSim.Line toTx[] = new JumftSim.Line[n];
+    JumftSim.SimConfig ctx[] = new JumftSim.SimConfig[n];
+    JumftSim.SimConfig crx[] = new JumftSim.SimConfig[n];
+    for (int i = 0; i < n; i++) {
+      final boolean primary = i == 0;
+      toRx[i] = new JumftSim.Line(sims[i], true);
+      toTx[i] = new JumftSim.Line(sims[i], false);
+      ctx[i] = new JumftSim.SimConfig(toRx[i]) {
+        @Override
+        public void rxPak(char seqno, byte[] data, int l, boolean req_ack) {
+          if (primary) tx.rxPak(seqno, data, l, req_ack);
+        }
+        @Override
+        public void rxAck(char seqno, byte[] data, int l) {
+          if (primary) tx.rxAck(seqno, data, l);
+        }
+      };
+      // data chunks from all links to the one receiver
+      crx[i] = new JumftSim.SimConfig(toTx[i]) {
+        @Override
+        public void rxPak(char seqno, byte[] data, int l, boolean req_ack) {
+          rx.rxPak(seqno, data, l, req_ack);
+        }
+        @Override
+        public void rxAck(char seqno, byte[] data, int l) {
+          rx.rxAck(seqno, data, l);
+        }
+      };
+      utx[i].setConfig(ctx[i]);
+      urx[i].setConfig(crx[i]);
+    }
+
+    now = 0;
+    tx.tx(str, "bond");
+    while (!done[0] && now < MAX_TICKS) {
+      now++;
+      for (int i = 0; i < n; i++) {
+        sims[i].now = now;
+        toRx[i].step();
+        toTx[i].step();
+        toRx[i].deliver(urx[i]);
+        toTx[i].deliver(utx[i]);
+        ctx[i].tick(utx[i]);
+        crx[i].tick(urx[i]);
+      }
+      for (int i = 0; i <= n; i++) {
+        if (alarm[i] != 0 && alarm[i] <= now) {
+          alarm[i] = 0;
+          if (i == 0) tx.tick();
+          else if (i < n) links[i].tick();
+          else rx.tick();
+        }
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sent = new int[n];
+    for (int i = 0; i < n; i++) {
+      sent[i] = sims[i].sent;
+      sb.append(i == 0 ? "" : "/").append(sims[i].sent);
+      if (sims[i].sent == 0) {
+        System.out.println("no chunks on link " + i);
+        err++;
+      }
+    }
+    System.out.format("%d links at %s bytes/tick: %d ticks, chunks per link %s\n",
+        n, Arrays.toString(rates), now, sb);
+    if (!done[0] || !Arrays.equals(src, dst)) {
+      System.out.println("transfer failed");
+      err++;
+    }
+    return now;
+  }
+}
@@ -0,0 +1,46 @@
+package com.pelleplutt.jumac.test;
+
+import com.pelleplutt.jumac.filetransfer.JumftCongestion;
+
+/**
+ * Compares the congestion controllers of JumftTx on simulated links with a
+ * bottleneck, random loss, long delay and a shallow queue. Prints goodput
+ * in bytes per tick, bottleneck utilization, chunks sent per chunk of the
+ * file, and frames dropped by the bottleneck queue.
+ */
+public class JumftCongestionBench {
+  static final int MTU = 64;
+  static final int LEN = 16384 * MTU;
+  static final int WINDOW = 1024;
+  static final int BURST = 16;
+  static final int DT_MIN = 1;
+  static final int DT_MAX = 8;
+  static final long MAX_TICKS = 1000000;
+
+  public static void main(String[] args) throws Throwable {
+    //      name          delay rate  queue  loss
+    profile("bottleneck",    20, 100,  4000, 0);
+    profile("lossy",         20, 100,  4000, 0.01);
+    profile("long delay",   200, 200, 20000, 0.005);
+    profile("shallow queue", 20, 100,   500, 0);
+  }
+
+  static void profile(String name, int delay, int rate, int queue, double loss) {
+    System.out.format("%s: delay %d ticks, %d bytes/tick, queue %d bytes, loss %.3f\n",
+        name, delay, rate, queue, loss);
+    run("classic", new JumftCongestion.Classic(1), delay, rate, queue, loss);
+    run("aimd", new JumftCongestion.Aimd(), delay, rate, queue, loss);
+    run("bbr", new JumftCongestion.Bbr(), delay, rate, queue, loss);
+    System.out.println();
+  }
+
+  static void run(String name, JumftCongestion cc, int delay, int rate, int queue, double loss) {
+    JumftSim sim = new JumftSim(delay, rate, queue, loss, 1);
+    long ticks = sim.transfer(LEN, MTU, DT_MIN, DT_MAX, WINDOW, WINDOW, BURST, cc, MAX_TICKS);
+    double goodput = (double)LEN / ticks;
+    System.out.format("  %-8s %7d ticks, %7.1f bytes/tick, %3d%% of link, %5.2f sent/chunk, %5d queue drops%s\n",
+        name, ticks, goodput, (int)(100 * goodput / rate),
+        (double)sim.sent / (LEN / MTU), sim.drops,
+        !sim.fin ? ", NOT FINISHED" : !sim.dataOk ? ", DATA MISMATCH" : "");
+  }
+}
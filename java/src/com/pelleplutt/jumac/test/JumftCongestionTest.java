@@ -0,0 +1,71 @@
+package com.pelleplutt.jumac.test;
+
+import com.pelleplutt.jumac.filetransfer.JumftCongestion;
+
+/**
+ * Plugs a congestion controller from outside the filetransfer package into
+ * JumftTx on a JumftSim link. The controller paces at a fixed rate. Checks
+ * that it is initialized with the negotiated limits, fed on every status,
+ * and that the transmitter keeps to its pacing.
+ */
+public class JumftCongestionTest {
+  static final int MTU = 64;
+  static final int CHUNKS = 512;
+  static final int DT_MIN = 1;
+  static final int DT_MAX = 8;
+  static final int BURST = 4;
+  // chunks per tick
+  static final double RATE = 0.5;
+
+  static int err;
+
+  static class Fixed extends JumftCongestion {
+    int inits, statuses;
+    long acked, lost;
+    int initDtMin, initDtMax, initBurst;
+    @Override
+    protected void init(int dt_min, int dt_max, int dt, int burst) {
+      super.init(dt_min, dt_max, dt, burst);
+      inits++;
+      initDtMin = dt_min;
+      initDtMax = dt_max;
+      initBurst = burst;
+      pace(RATE);
+    }
+    @Override
+    protected void status(int acked, int lost, long rtt, long now) {
+      statuses++;
+      this.acked += acked;
+      this.lost += lost;
+      pace(RATE);
+    }
+  }
+
+  public static void main(String[] args) {
+    Fixed cc = new Fixed();
+    JumftSim sim = new JumftSim(5, 0, 0, 0, 1);
+    long ticks = sim.transfer(CHUNKS * MTU, MTU, DT_MIN, DT_MAX, 64, 64, BURST, cc, 100000);
+    System.out.format("%d ticks, %d inits, %d statuses, %d acked, %d lost, pacing %d per %d ticks\n",
+        ticks, cc.inits, cc.statuses, cc.acked, cc.lost, cc.getQuota(), cc.getDt());
+    if (!sim.fin || !sim.dataOk) {
+      System.out.println("transfer not finished or data mismatch");
+      err++;
+    }
+    if (cc.inits != 1 || cc.initDtMin != DT_MIN || cc.initDtMax != DT_MAX || cc.initBurst != BURST) {
+      System.out.println("expected one init with the negotiated limits");
+      err++;
+    }
+    if (cc.statuses == 0 || cc.acked == 0 || cc.getQuota() / (double)cc.getDt() != RATE) {
+      System.out.println("expected statuses and pacing at the fixed rate");
+      err++;
+    }
+    // no faster than paced, and not much slower on a clean link
+    if (ticks < CHUNKS / RATE || ticks > 2 * CHUNKS / RATE) {
+      System.out.println("transfer did not keep to the pacing of the controller");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
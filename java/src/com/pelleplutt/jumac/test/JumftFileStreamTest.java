@@ -0,0 +1,93 @@
+package com.pelleplutt.jumac.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pelleplutt.jumac.filetransfer.JumftFileStream;
+
+/**
+ * Transfers a file between two JumftFileStreams over a simulated lossy
+ * link, mapped in small segments so chunks cross segment boundaries.
+ * Checks the received file, the name given to the receiving stream, that
+ * writes are flushed in batches, and that writes outside the file or to
+ * a file opened for reading are refused.
+ */
+public class JumftFileStreamTest {
+  static final int SEGMENT = 64 * 1024;
+  static final int FLUSH = 32 * 1024;
+  static final int LEN = 3 * SEGMENT + 123;
+  static final int MTU = 250;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    File dir = Files.createTempDirectory("jumft").toFile();
+    final File src = new File(dir, "src.bin");
+    byte data[] = new byte[LEN];
+    new Random(1).nextBytes(data);
+    Files.write(src.toPath(), data);
+
+    final String names[] = new String[1];
+    final int flushes[] = new int[1];
+    JumftFileStream tx = new JumftFileStream(src, SEGMENT);
+    JumftFileStream rx = new JumftFileStream(null, SEGMENT) {
+      @Override
+      protected File target(String name) {
+        names[0] = name;
+        return new File(src.getParentFile(), name + ".rx");
+      }
+      @Override
+      public void flush() {
+        flushes[0]++;
+        super.flush();
+      }
+    };
+    rx.setFlushBytes(FLUSH);
+    long len = tx.openRead();
+    if (len != LEN) {
+      System.out.println("length " + len + ", expected " + LEN);
+      err++;
+    }
+    if (tx.writeData(0, data, 0, 1)) {
+      System.out.println("write to stream opened for reading");
+      err++;
+    }
+
+    JumftSim sim = new JumftSim(20, 0, 0, 0.01, 1);
+    long ticks = sim.transfer(tx, rx, len, MTU, 1, 4, 256, 256, 4, null, 200000);
+    if (rx.writeData(LEN - 10, data, 0, 11)) {
+      System.out.println("write beyond end of file");
+      err++;
+    }
+    int batches = flushes[0];
+    tx.close();
+    rx.close();
+    File dst = new File(dir, "sim.rx");
+    System.out.format("%d bytes in %d ticks, segment %d bytes, %d flushes\n",
+        LEN, ticks, SEGMENT, batches);
+    if (!sim.fin) {
+      System.out.println("transfer not finished");
+      err++;
+    } else if (!Arrays.equals(data, Files.readAllBytes(dst.toPath()))) {
+      System.out.println("data mismatch");
+      err++;
+    }
+    if (!"sim".equals(names[0])) {
+      System.out.println("receiver got name " + names[0]);
+      err++;
+    }
+    // createData closes, flushing nothing, the rest are batches
+    if (batches < 2 || batches > LEN / FLUSH + 2) {
+      System.out.println("expected 2 to " + (LEN / FLUSH + 2) + " flushes");
+      err++;
+    }
+    src.delete();
+    dst.delete();
+    dir.delete();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.pelleplutt.jumac.test;
+
+import com.pelleplutt.jumac.filetransfer.JumftStream;
+
+/**
+ * Tests 64-bit file length and offsets over a simulated link: that they
+ * are only negotiated when requested or needed, that a transfer with them
+ * completes, and that the start of a file larger than 4 GiB is announced
+ * with its full length and written at the right offsets.
+ */
+public class JumftLargeFileTest {
+  static final int MTU = 250;
+  static final long HUGE = 6L << 30;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    small(false);
+    small(true);
+    huge();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void small(boolean large) {
+    JumftSim sim = new JumftSim(10, 0, 0, 0.01, 1);
+    sim.largeFile = large;
+    long ticks = sim.transfer(100000, MTU, 1, 4, 256, 256, 4, null, 100000);
+    System.out.format("large %b: %d ticks, negotiated %b/%b\n", large, ticks,
+        sim.ftx.isLargeFile(), sim.frx.isLargeFile());
+    if (sim.ftx.isLargeFile() != large || sim.frx.isLargeFile() != large) {
+      System.out.println("expected large " + large);
+      err++;
+    }
+    if (!sim.fin || !sim.dataOk) {
+      System.out.println("transfer failed");
+      err++;
+    }
+  }
+
+  // byte of the huge file at given offset, depending on all offset bits
+  static byte at(long offs) {
+    return (byte)((offs * 0x9E3779B97F4A7C15L) >>> 56);
+  }
+
+  static void huge() {
+    final long created[] = {-1};
+    final long written[] = new long[1];
+    final int bad[] = new int[1];
+    JumftStream str = new JumftStream() {
+      @Override
+      public void readData(long offs, byte[] dst, int dstOffs, int len) {
+        for (int i = 0; i < len; i++) {
+          dst[dstOffs + i] = at(offs + i);
+        }
+      }
+      @Override
+      public boolean createData(long len, String name) {
+        created[0] = len;
+        return true;
+      }
+      @Override
+      public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
+        for (int i = 0; i < len; i++) {
+          if (src[srcOffs + i] != at(offs + i)) bad[0]++;
+        }
+        written[0] += len;
+        return true;
+      }
+    };
+    JumftSim sim = new JumftSim(10, 0, 0, 0, 1);
+    sim.transfer(str, str, HUGE, MTU, 1, 4, 256, 256, 4, null, 2000);
+    System.out.format("%d bytes announced, %d written, negotiated %b/%b\n",
+        created[0], written[0], sim.ftx.isLargeFile(), sim.frx.isLargeFile());
+    if (created[0] != HUGE) {
+      System.out.println("expected " + HUGE + " bytes");
+      err++;
+    }
+    if (!sim.ftx.isLargeFile() || !sim.frx.isLargeFile()) {
+      System.out.println("expected 64-bit offsets");
+      err++;
+    }
+    if (written[0] == 0 || bad[0] != 0) {
+      System.out.println(bad[0] + " bad bytes");
+      err++;
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.filetransfer.JumftMux;
+import com.pelleplutt.jumac.filetransfer.JumftRx;
+import com.pelleplutt.jumac.filetransfer.JumftStream;
+import com.pelleplutt.jumac.filetransfer.JumftTx;
+
+/**
+ * Runs several file transfers in both directions at once over one
+ * simulated lossy link with a single synchronized packet slot, each end
+ * dispatching by a JumftMux. Checks that all files arrive intact, that
+ * the transfers interleave, that a refused file aborts its transmitter
+ * and that no sessions are left when done.
+ */
+public class JumftMuxTest {
+  static final int MTU = 250;
+  static final long MAX_TICKS = 200000;
+
+  static int err;
+  static JumftSim sim;
+  static final Random rnd = new Random(1);
+  static final ArrayList<Tx> txs = new ArrayList<Tx>();
+  static final ArrayList<Rx> rxs = new ArrayList<Rx>();
+
+  static class Tx extends JumftTx {
+    final String name;
+    final byte data[];
+    long alarm;
+    int result = -1;
+    Tx(Jumac u, String name, int len) {
+      super(u, len, MTU, 1, 4, 1);
+      this.name = name;
+      this.data = new byte[len];
+      rnd.nextBytes(data);
+      setBurst(4);
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      alarm = sim.now + delta;
+    }
+    @Override
+    public long nowTick() {
+      return sim.now;
+    }
+    @Override
+    public void status(int result) {
+      this.result = result;
+    }
+  }
+
+  static class Sink implements JumftStream {
+    byte data[];
+    long first = -1;
+    @Override
+    public void readData(long offs, byte[] dst, int dstOffs, int len) {
+    }
+    @Override
+    public boolean createData(long len, String name) {
+      data = new byte[(int)len];
+      return true;
+    }
+    @Override
+    public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
+      if (first < 0) first = sim.now;
+      System.arraycopy(src, srcOffs, data, (int)offs, len);
+      return true;
+    }
+  }
+
+  static class Rx extends JumftRx {
+    final String name;
+    final Sink sink;
+    long alarm;
+    long fin = -1;
+    Rx(Jumac u, String name) {
+      this(u, name, new Sink());
+    }
+    Rx(Jumac u, String name, Sink sink) {
+      super(u, sink, 1, 4, MTU);
+      this.name = name;
+      this.sink = sink;
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      alarm = sim.now + delta;
+    }
+    @Override
+    public void cancelFutureTick() {
+      alarm = 0;
+    }
+    @Override
+    public void status(int result) {
+      if (result == UMFT_STA_FIN) fin = sim.now;
+    }
+  }
+
+  static JumftMux mux(final Jumac u) {
+    return new JumftMux(u) {
+      @Override
+      public JumftRx accept(String filename) {
+        if ("refused".equals(filename)) {
+          return null;
+        }
+        Rx rx = new Rx(u, filename);
+        rxs.add(rx);
+        return rx;
+      }
+    };
+  }
+
+  static class JumacConfig extends JumftSim.SimConfig {
+    final JumftMux mux;
+    JumacConfig(JumftSim.Line line, JumftMux mux) {
+      super(line);
+      this.mux = mux;
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      mux.rxPak(seqno, data, len, req_ack);
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      mux.rxAck(seqno, data, len);
+    }
+    @Override
+    public void tmo(char seqno) {
+      super.tmo(seqno);
+      mux.tmo(seqno);
+    }
+  }
+
+  static Tx send(JumftMux mux, Jumac u, String name, int len) {
+    final Tx tx = new Tx(u, name, len);
+    txs.add(tx);
+    int res = mux.tx(tx, new JumftStream() {
+      @Override
+      public void readData(long offs, byte[] dst, int dstOffs, int l) {
+        System.arraycopy(tx.data, (int)offs, dst, dstOffs, l);
+      }
+      @Override
+      public boolean createData(long l, String name) {
+        return false;
+      }
+      @Override
+      public boolean writeData(long offs, byte[] src, int srcOffs, int l) {
+        return false;
+      }
+    }, name);
+    if (res != Jumac.UMAC_OK) {
+      System.out.println("tx " + name + " failed " + res);
+      err++;
+    }
+    return tx;
+  }
+
+  public static void main(String[] args) {
+    sim = new JumftSim(10, 0, 0, 0.01, 1);
+    Jumac ua = new Jumac(1000, false, 5);
+    Jumac ub = new Jumac(1000, false, 5);
+    JumftMux ma = mux(ua);
+    JumftMux mb = mux(ub);
+    JumftSim.Line toB = new JumftSim.Line(sim, true);
+    JumftSim.Line toA = new JumftSim.Line(sim, true);
+    JumacConfig ca = new JumacConfig(toB, ma);
+    JumacConfig cb = new JumacConfig(toA, mb);
+    ua.setConfig(ca);
+    ub.setConfig(cb);
+
+    send(ma, ua, "a0", 200000);
+    send(ma, ua, "a1", 100000);
+    send(ma, ua, "a2", 50000);
+    Tx refused = send(ma, ua, "refused", 1000);
+    send(mb, ub, "b0", 150000);
+    send(mb, ub, "b1", 60000);
+
+    while (sim.now < MAX_TICKS && !done()) {
+      sim.now++;
+      toB.step();
+      toA.step();
+      toB.deliver(ub);
+      toA.deliver(ua);
+      ca.tick(ua);
+      cb.tick(ub);
+      for (Tx tx : txs) {
+        if (tx.alarm != 0 && tx.alarm <= sim.now) {
+          tx.alarm = 0;
+          tx.tick();
+        }
+      }
+      for (int i = 0; i < rxs.size(); i++) {
+        Rx rx = rxs.get(i);
+        if (rx.alarm != 0 && rx.alarm <= sim.now) {
+          rx.alarm = 0;
+          rx.tick();
+        }
+      }
+    }
+
+    long lastFirst = 0;
+    long firstFin = Long.MAX_VALUE;
+    for (Rx rx : rxs) {
+      System.out.format("%s: first chunk at %d, fin at %d\n", rx.name, rx.sink.first, rx.fin);
+      lastFirst = Math.max(lastFirst, rx.sink.first);
+      firstFin = Math.min(firstFin, rx.fin);
+      Tx tx = null;
+      for (Tx t : txs) {
+        if (t.name.equals(rx.name)) tx = t;
+      }
+      if (rx.fin < 0 || !Arrays.equals(tx.data, rx.sink.data)) {
+        System.out.println(rx.name + " not received");
+        err++;
+      }
+    }
+    System.out.format("%d ticks, %d timeouts, %d sessions left\n",
+        sim.now, sim.tmos, ma.sessions() + mb.sessions());
+    if (rxs.size() != txs.size() - 1) {
+      System.out.println("expected " + (txs.size() - 1) + " receivers, got " + rxs.size());
+      err++;
+    }
+    if (lastFirst >= firstFin) {
+      System.out.println("transfers did not interleave");
+      err++;
+    }
+    if (refused.result != JumftRx.UMFT_STA_ABORT) {
+      System.out.println("refused transfer not aborted");
+      err++;
+    }
+    if (ma.sessions() != 0 || mb.sessions() != 0) {
+      System.out.println("sessions left");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static boolean done() {
+    for (Tx tx : txs) {
+      if (tx.result < 0) return false;
+    }
+    for (Rx rx : rxs) {
+      if (rx.fin < 0) return false;
+    }
+    return true;
+  }
+}
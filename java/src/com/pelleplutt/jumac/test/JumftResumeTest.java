@@ -0,0 +1,110 @@
+package com.pelleplutt.jumac.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pelleplutt.jumac.filetransfer.JumftFileStream;
+
+/**
+ * Interrupts a resumable file transfer over a simulated lossy link and
+ * resumes it with new streams, as after a restart. Checks that progress
+ * is saved in a sidecar file, that the resumed transfer skips the chunks
+ * already received and completes the file, that an unknown token starts
+ * over, and that receivers not supporting resume still take the file.
+ */
+public class JumftResumeTest {
+  static final int SEGMENT = 64 * 1024;
+  static final int LEN = 300000;
+  static final int MTU = 250;
+  static final int CHUNKS = (LEN + MTU - 1) / MTU;
+
+  static int err;
+  static File dir;
+  static File src;
+  static File dst;
+  static byte data[];
+
+  public static void main(String[] args) throws Throwable {
+    dir = Files.createTempDirectory("jumft").toFile();
+    src = new File(dir, "src.bin");
+    dst = new File(dir, "sim.rx");
+    data = new byte[LEN];
+    new Random(1).nextBytes(data);
+    Files.write(src.toPath(), data);
+    File sidecar = new File(dst.getPath() + JumftFileStream.SIDECAR_SUFFIX);
+
+    JumftSim sim = run(0, 150);
+    long token = sim.ftx.getResumeToken();
+    System.out.format("interrupted: %d chunks sent, token %016x\n", sim.sent, token);
+    if (sim.fin || token == 0 || !sidecar.exists()) {
+      System.out.println("expected unfinished transfer with token and sidecar");
+      err++;
+    }
+
+    sim = run(token, 100000);
+    System.out.format("resumed: %d chunks sent of %d\n", sim.sent, CHUNKS);
+    check(sim);
+    if (sim.ftx.getResumeToken() != token || sim.sent >= CHUNKS) {
+      System.out.println("expected resumed transfer skipping received chunks");
+      err++;
+    }
+    if (sidecar.exists()) {
+      System.out.println("sidecar left after transfer");
+      err++;
+    }
+
+    sim = run(token, 100000);
+    System.out.format("unknown token: %d chunks sent of %d\n", sim.sent, CHUNKS);
+    check(sim);
+    if (sim.ftx.getResumeToken() == token || sim.sent < CHUNKS) {
+      System.out.println("expected transfer from start");
+      err++;
+    }
+
+    sim = new JumftSim(10, 0, 0, 0.01, 1);
+    sim.resume = true;
+    sim.transfer(LEN, MTU, 1, 4, 256, 256, 4, null, 100000);
+    if (!sim.fin || !sim.dataOk || sim.ftx.getResumeToken() != 0) {
+      System.out.println("transfer to receiver without resume failed");
+      err++;
+    }
+
+    src.delete();
+    dst.delete();
+    sidecar.delete();
+    dir.delete();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static JumftSim run(long token, long maxTicks) throws Throwable {
+    JumftFileStream tx = new JumftFileStream(src, SEGMENT);
+    JumftFileStream rx = new JumftFileStream(null, SEGMENT) {
+      @Override
+      protected File target(String name) {
+        return new File(dir, name + ".rx");
+      }
+    };
+    rx.setFlushBytes(32 * 1024);
+    JumftSim sim = new JumftSim(10, 0, 0, 0.01, 1);
+    sim.resume = true;
+    sim.resumeToken = token;
+    sim.transfer(tx, rx, tx.openRead(), MTU, 1, 4, 256, 256, 4, null, maxTicks);
+    tx.close();
+    rx.close();
+    return sim;
+  }
+
+  static void check(JumftSim sim) throws Throwable {
+    if (!sim.fin) {
+      System.out.println("transfer not finished");
+      err++;
+    } else if (!Arrays.equals(data, Files.readAllBytes(dst.toPath()))) {
+      System.out.println("data mismatch");
+      err++;
+    }
+  }
+}
@@ -0,0 +1,360 @@
+package com.pelleplutt.jumac.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.filetransfer.JumftCongestion;
+import com.pelleplutt.jumac.filetransfer.JumftRx;
+import com.pelleplutt.jumac.filetransfer.JumftStream;
+import com.pelleplutt.jumac.filetransfer.JumftTx;
+
+/**
+ * Simulated link for file transfers, run tick by tick on the calling
+ * thread with all timers driven by the simulation.
+ *
+ * Frames towards the receiver pass a bottleneck of given bytes per tick
+ * with a drop-tail queue of given bytes, or no bottleneck if the rate is
+ * zero. All frames then arrive after the delay. Unsynchronized frames,
+ * i.e. data chunks, are lost at random with given probability; lost
+ * synchronized frames are left to the bottleneck and the mac retries.
+ * The way back has the same delay but no bottleneck and no loss.
+ *
+ * Lines and configs can also be used on their own to join two Jumac
+ * instances, with jitter, loss of any frame either way, reordering, and
+ * frames picked to be lost by overriding Line.lose.
+ */
+class JumftSim {
+  final int delay;
+  final int rate;
+  final int queue;
+  final double loss;
+  final Random rnd;
+  long now;
+  // request 64-bit offsets in transfers
+  boolean largeFile;
+  // request resumable transfers with given token
+  boolean resume;
+  long resumeToken;
+  // extra random delay of each frame, up to this many ticks
+  int jitter;
+  // probability of any frame either way getting lost
+  double frameLoss;
+
+  // results of last transfer
+  JumftTx ftx;
+  JumftRx frx;
+  int txTicks;
+  boolean fin;
+  boolean dataOk;
+  int tmos;
+  int drops;
+  int sent;
+
+  JumftSim(int delay, int rate, int queue, double loss, long seed) {
+    this.delay = delay;
+    this.rate = rate;
+    this.queue = queue;
+    this.loss = loss;
+    this.rnd = new Random(seed);
+  }
+
+  static boolean isChunk(byte[] f) {
+    return ((f[1] >>> 6) & 3) == 0;
+  }
+
+  static boolean isSync(byte[] f) {
+    return ((f[1] >>> 6) & 3) == 1;
+  }
+
+  // frame in the air, by arrival and then by order of sending
+  static class Flight {
+    final long at;
+    final long n;
+    final byte f[];
+    Flight(long at, long n, byte[] f) {
+      this.at = at;
+      this.n = n;
+      this.f = f;
+    }
+  }
+
+  static final Comparator<Flight> ARRIVAL = new Comparator<Flight>() {
+    @Override
+    public int compare(Flight a, Flight b) {
+      return a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.n, b.n);
+    }
+  };
+
+  // one direction of the link, limited towards the receiver
+  static class Line {
+    final JumftSim sim;
+    final boolean limited;
+    final ArrayDeque<byte[]> queued = new ArrayDeque<byte[]>();
+    int queuedBytes;
+    double credit;
+    final PriorityQueue<Flight> flying = new PriorityQueue<Flight>(16, ARRIVAL);
+    // let jittered frames overtake each other
+    boolean reorder;
+    long last;
+    long sentFrames;
+    // synchronized frames delivered
+    int syncs;
+
+    Line(JumftSim sim, boolean limited) {
+      this.sim = sim;
+      this.limited = limited;
+    }
+    void send(byte[] f) {
+      if (limited && isChunk(f)) {
+        sim.sent++;
+      }
+      if (lose(f)) {
+        return;
+      }
+      if (limited && sim.rate > 0 && queuedBytes + f.length > sim.queue) {
+        sim.drops++;
+        return;
+      }
+      queued.add(f);
+      queuedBytes += f.length;
+    }
+    // whether given frame is lost on the way
+    boolean lose(byte[] f) {
+      if (sim.frameLoss > 0 && sim.rnd.nextDouble() < sim.frameLoss) {
+        return true;
+      }
+      return limited && sim.loss > 0 && isChunk(f) && sim.rnd.nextDouble() < sim.loss;
+    }
+    void step() {
+      if (!limited || sim.rate == 0) {
+        credit = Double.MAX_VALUE;
+      } else {
+        credit += sim.rate;
+      }
+      while (!queued.isEmpty() && queued.peek().length <= credit) {
+        byte f[] = queued.poll();
+        queuedBytes -= f.length;
+        credit -= f.length;
+        long at = sim.now + sim.delay;
+        if (sim.jitter > 0) {
+          at += sim.rnd.nextInt(sim.jitter + 1);
+        }
+        if (!reorder) {
+          at = Math.max(at, last);
+          last = at;
+        }
+        flying.add(new Flight(at, sentFrames++, f));
+      }
+      if (queued.isEmpty()) {
+        credit = Math.min(credit, sim.rate);
+      }
+    }
+    void deliver(Jumac to) {
+      while (!flying.isEmpty() && flying.peek().at <= sim.now) {
+        byte f[] = flying.poll().f;
+        if (isSync(f)) {
+          syncs++;
+        }
+        to.report(f, 0, f.length);
+      }
+    }
+  }
+
+  static abstract class SimConfig implements Jumac.GatheringConfig {
+    final JumftSim sim;
+    final Line line;
+    long alarm;
+    SimConfig(Line line) {
+      this.sim = line.sim;
+      this.line = line;
+    }
+    @Override
+    public void tmo(char seqno) {
+      sim.tmos++;
+    }
+    @Override
+    public void garbage(byte b) {
+    }
+    @Override
+    public long nowTick() {
+      return sim.now;
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      alarm = sim.now + delta;
+    }
+    @Override
+    public void cancelFutureTick() {
+      alarm = 0;
+    }
+    @Override
+    public void tx(ByteBuffer[] frame) {
+      int len = 0;
+      for (ByteBuffer b : frame) len += b.remaining();
+      byte f[] = new byte[len];
+      int offs = 0;
+      for (ByteBuffer b : frame) {
+        int l = b.remaining();
+        b.get(f, offs, l);
+        offs += l;
+      }
+      line.send(f);
+    }
+    @Override
+    public void tx(byte b) {
+      line.send(new byte[] {b});
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      line.send(Arrays.copyOf(buf, len));
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 4 * sim.delay + 10;
+    }
+    // ticks umac if its timer is due
+    void tick(Jumac u) {
+      if (alarm != 0 && alarm <= sim.now) {
+        alarm = 0;
+        u.tick();
+      }
+    }
+  }
+
+  /**
+   * Transfers given number of random bytes, returns ticks until the
+   * receiver has all data or maxTicks.
+   * @param cc congestion controller, or null for the default
+   */
+  long transfer(int len, int mtu, int dtMin, int dtMax, int txWindow, int rxWindow,
+      int burst, JumftCongestion cc, long maxTicks) {
+    final byte src[] = new byte[len];
+    final byte dst[] = new byte[len];
+    rnd.nextBytes(src);
+    JumftStream str = new JumftStream() {
+      @Override
+      public void readData(long offs, byte[] d, int dOffs, int l) {
+        System.arraycopy(src, (int)offs, d, dOffs, l);
+      }
+      @Override
+      public boolean createData(long l, String name) {
+        return l == src.length;
+      }
+      @Override
+      public boolean writeData(long offs, byte[] s, int sOffs, int l) {
+        System.arraycopy(s, sOffs, dst, (int)offs, l);
+        return true;
+      }
+    };
+    long ticks = transfer(str, str, len, mtu, dtMin, dtMax, txWindow, rxWindow, burst, cc, maxTicks);
+    dataOk = Arrays.equals(src, dst);
+    return ticks;
+  }
+
+  /**
+   * Transfers len bytes from txStr to rxStr, returns ticks until the
+   * receiver has all data or maxTicks.
+   * @param cc congestion controller, or null for the default
+   */
+  long transfer(JumftStream txStr, JumftStream rxStr, long len, int mtu, int dtMin, int dtMax,
+      int txWindow, int rxWindow, int burst, JumftCongestion cc, long maxTicks) {
+    final long txAlarm[] = new long[1];
+    final long rxAlarm[] = new long[1];
+    final boolean done[] = new boolean[1];
+    now = 0;
+    txTicks = 0;
+    tmos = 0;
+    drops = 0;
+    sent = 0;
+    final Jumac utx = new Jumac(1000, false, 5);
+    final Jumac urx = new Jumac(1000, false, 5);
+    ftx = new JumftTx(utx, len, mtu, dtMin, dtMax, 1, txWindow) {
+      @Override
+      public void requestFutureTick(long delta) {
+        txAlarm[0] = now + delta;
+      }
+      @Override
+      public long nowTick() {
+        return now;
+      }
+      @Override
+      public void status(int result) {
+      }
+    };
+    if (cc != null) {
+      ftx.setCongestion(cc);
+    }
+    ftx.setBurst(burst);
+    ftx.setLargeFile(largeFile);
+    if (resume) {
+      ftx.setResumeToken(resumeToken);
+    }
+    frx = new JumftRx(urx, rxStr, dtMin, dtMax, mtu, rxWindow) {
+      @Override
+      public void requestFutureTick(long delta) {
+        rxAlarm[0] = now + delta;
+      }
+      @Override
+      public void cancelFutureTick() {
+        rxAlarm[0] = 0;
+      }
+      @Override
+      public void status(int result) {
+        done[0] = result == UMFT_STA_FIN;
+      }
+    };
+    final JumftTx tx = ftx;
+    final JumftRx rx = frx;
+    final Line toRx = new Line(this, true);
+    final Line toTx = new Line(this, false);
+    SimConfig ctx = new SimConfig(toRx) {
+      @Override
+      public void rxPak(char seqno, byte[] data, int l, boolean req_ack) {
+        tx.rxPak(seqno, data, l, req_ack);
+      }
+      @Override
+      public void rxAck(char seqno, byte[] data, int l) {
+        tx.rxAck(seqno, data, l);
+      }
+    };
+    SimConfig crx = new SimConfig(toTx) {
+      @Override
+      public void rxPak(char seqno, byte[] data, int l, boolean req_ack) {
+        rx.rxPak(seqno, data, l, req_ack);
+      }
+      @Override
+      public void rxAck(char seqno, byte[] data, int l) {
+        rx.rxAck(seqno, data, l);
+      }
+    };
+    utx.setConfig(ctx);
+    urx.setConfig(crx);
+
+    ftx.tx(txStr, "sim");
+    while (!done[0] && now < maxTicks) {
+      now++;
+      toRx.step();
+      toTx.step();
+      toRx.deliver(urx);
+      toTx.deliver(utx);
+      ctx.tick(utx);
+      crx.tick(urx);
+      if (txAlarm[0] != 0 && txAlarm[0] <= now) {
+        txAlarm[0] = 0;
+        txTicks++;
+        ftx.tick();
+      }
+      if (rxAlarm[0] != 0 && rxAlarm[0] <= now) {
+        rxAlarm[0] = 0;
+        frx.tick();
+      }
+    }
+    fin = done[0];
+    return now;
+  }
+}
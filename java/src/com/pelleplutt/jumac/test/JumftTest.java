@@ -41,34 +41,34 @@ public class JumftTest {
     
     JumftStream strtx = new JumftStream() {
       @Override
-      public void readData(int offs, byte[] dst, int dstOffs, int len) {
+      public void readData(long offs, byte[] dst, int dstOffs, int len) {
         if (offs >= txbuf.length) throw new Error("read beyond buffer " + offs + " > " + txbuf.length);
-        System.arraycopy(txbuf, offs, dst, dstOffs, len);
+        System.arraycopy(txbuf, (int)offs, dst, dstOffs, len);
       }
       @Override
-      public boolean createData(int len, String name) {
+      public boolean createData(long len, String name) {
         return false;
       }
       @Override
-      public boolean writeData(int offs, byte[] src, int srcOffs, int len) {
+      public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
         return false;
       }
     };
     
     JumftStream strrx = new JumftStream() {
       @Override
-      public void readData(int offs, byte[] dst, int dstOffs, int len) {
+      public void readData(long offs, byte[] dst, int dstOffs, int len) {
       }
       @Override
-      public boolean createData(int len, String name) {
+      public boolean createData(long len, String name) {
         System.out.println("rxstream: creating file " + name + " " + len + " bytes");
         return true;
       }
       @Override
-      public boolean writeData(int offs, byte[] src, int srcOffs, int len) {
+      public boolean writeData(long offs, byte[] src, int srcOffs, int len) {
         if (offs >= txbuf.length) throw new Error("write beyond buffer " + offs + " > " + rxbuf.length);
         System.out.format("                                                 *** write %08x:%d\n", offs, len);
-        System.arraycopy(src, srcOffs, rxbuf, offs, len);
+        System.arraycopy(src, srcOffs, rxbuf, (int)offs, len);
         return true;
       }
     };
@@ -174,6 +174,9 @@ public class JumftTest {
     };
     urx.setConfig(ucfgrx);
     
+    ufttx._dbg = true;
+    uftrx._dbg = true;
+    
     ucfgtx.connect(10000);
     ucfgrx.connect(10000);
     
@@ -0,0 +1,61 @@
+package com.pelleplutt.jumac.test;
+
+/**
+ * Runs file transfers over JumftSim with long delay and some lost
+ * chunks, for different transmitter and receiver windows. Checks the
+ * negotiated window, that legacy peers fall back to 32 chunks, the
+ * received data, and that a wide window is faster than a legacy one and
+ * that sending bursts of chunks per tick is faster still.
+ */
+public class JumftWindowTest {
+  static final int DELAY = 50;
+  static final int MTU = 64;
+  static final int LEN = 2000 * MTU - 17;
+  static final double LOSS = 0.01;
+  static final int MAX_TICKS = 200000;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    // a window of 32 is requested the legacy way, without window field
+    long legacy = run(32, 1024, 32, 1);
+    run(1024, 32, 32, 1);
+    run(256, 1024, 256, 1);
+    long wide = run(1024, 1024, 1024, 1);
+    long burst = run(1024, 1024, 1024, 8);
+    if (legacy < wide * 2) {
+      System.out.println("window 1024 not faster than legacy window");
+      err++;
+    }
+    if (wide < burst * 2) {
+      System.out.println("bursts not faster than single chunks");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static long run(int txWindow, int rxWindow, int expWindow, int burst) {
+    JumftSim sim = new JumftSim(DELAY, 0, 0, LOSS, txWindow * 31 + rxWindow);
+    sim.transfer(LEN, MTU, 1, 4, txWindow, rxWindow, burst, null, MAX_TICKS);
+    System.out.format("tx window %4d, rx window %4d, burst %d: window %4d/%4d, %6d ticks, %5d tx timer calls\n",
+        txWindow, rxWindow, burst, sim.ftx.getWindow(), sim.frx.getWindow(), sim.now, sim.txTicks);
+    if (sim.ftx.getWindow() != expWindow || sim.frx.getWindow() != expWindow) {
+      System.out.println("expected window " + expWindow);
+      err++;
+    }
+    if (sim.tmos != 0) {
+      System.out.println(sim.tmos + " timeouts");
+      err++;
+    }
+    if (!sim.fin) {
+      System.out.println("transfer not finished");
+      err++;
+    } else if (!sim.dataOk) {
+      System.out.println("data mismatch");
+      err++;
+    }
+    return sim.now;
+  }
+}
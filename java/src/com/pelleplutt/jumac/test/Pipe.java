@@ -0,0 +1,93 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacEventLoop;
+import com.pelleplutt.jumac.JumacTicker;
+
+/**
+ * Bytes towards a link, reported by a reader thread to its Jumac or, if
+ * set, to the event loop running it. Joins links on real threads in
+ * tests, with Link sending into the pipe of the peer.
+ */
+class Pipe implements Runnable {
+  final LinkedBlockingQueue<byte[]> q = new LinkedBlockingQueue<byte[]>();
+  volatile Jumac to;
+  volatile JumacEventLoop loop;
+  // drops all frames
+  volatile boolean deaf;
+  // time spent reporting
+  volatile long reportNanos;
+
+  Pipe() {
+    Thread t = new Thread(this);
+    t.setDaemon(true);
+    t.start();
+  }
+
+  Pipe(Jumac to) {
+    this();
+    this.to = to;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        byte b[] = q.take();
+        if (deaf) {
+          continue;
+        }
+        long t0 = System.nanoTime();
+        if (loop != null) {
+          loop.report(b, 0, b.length);
+        } else {
+          to.report(b);
+        }
+        reportNanos += System.nanoTime() - t0;
+      }
+    } catch (InterruptedException e) {
+    }
+  }
+
+  // config sending into a pipe, resending after a fixed delta
+  static abstract class Link extends Jumac.DefaultAbstractConfig {
+    final Jumac u;
+    final long retry;
+    Pipe out;
+    // ms each frame takes to send
+    volatile long txDelay;
+    Link(Jumac u, long retry) {
+      super(u);
+      this.u = u;
+      this.retry = retry;
+      u.setConfig(this);
+    }
+    Link(Jumac u, JumacEventLoop loop, long retry) {
+      super(u, new JumacTicker(), loop);
+      this.u = u;
+      this.retry = retry;
+      u.setConfig(this);
+    }
+    @Override
+    public void tx(byte b) {
+      out.q.add(new byte[] {b});
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      if (txDelay > 0) {
+        try {
+          Thread.sleep(txDelay);
+        } catch (InterruptedException e) {
+        }
+      }
+      out.q.add(Arrays.copyOf(buf, len));
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return retry;
+    }
+  }
+}
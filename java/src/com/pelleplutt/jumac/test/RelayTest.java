@@ -0,0 +1,110 @@
+package com.pelleplutt.jumac.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Tests JumacSocketServer: one client sends, all others must receive the
+ * same data, with the expected number of corrupted bytes when an error
+ * probability is given. Prints relay throughput.
+ */
+public class RelayTest {
+  static final int PEERS = 3;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    run(0, 16*1024*1024);
+    run(0.001f, 1024*1024);
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void run(float errProb, final int len) throws Throwable {
+    final JumacSocketServer server = new JumacSocketServer(0, errProb);
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.start();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+    t.setDaemon(true);
+    t.start();
+    while (server.getLocalPort() <= 0) {
+      Thread.sleep(10);
+    }
+    InetSocketAddress addr = new InetSocketAddress("localhost", server.getLocalPort());
+    final SocketChannel ch[] = new SocketChannel[PEERS];
+    for (int i = 0; i < PEERS; i++) {
+      ch[i] = SocketChannel.open(addr);
+    }
+    // let server accept all before sending
+    Thread.sleep(200);
+
+    final byte[] data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte)(i * 31 + (i >> 8));
+    }
+    final int diffs[] = new int[PEERS];
+    Thread readers[] = new Thread[PEERS];
+    for (int i = 1; i < PEERS; i++) {
+      final int peer = i;
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ByteBuffer b = ByteBuffer.allocate(64*1024);
+          int got = 0;
+          try {
+            while (got < len) {
+              b.clear();
+              int n = ch[peer].read(b);
+              if (n < 0) break;
+              for (int j = 0; j < n; j++) {
+                if (b.get(j) != data[got + j]) diffs[peer]++;
+              }
+              got += n;
+            }
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+          if (got != len) {
+            System.out.println("peer " + peer + " got " + got + " of " + len);
+            err++;
+          }
+        }
+      });
+      readers[i].start();
+    }
+    long t0 = System.nanoTime();
+    ByteBuffer src = ByteBuffer.wrap(data);
+    while (src.hasRemaining()) {
+      ch[0].write(src);
+    }
+    for (int i = 1; i < PEERS; i++) {
+      readers[i].join(20000);
+    }
+    long t1 = System.nanoTime();
+    System.out.format("errProb %f: relayed %d bytes to %d peers, %d KB/s\n",
+        errProb, len, PEERS - 1, (long)(len * 1e9 / (t1 - t0) / 1024));
+    for (int i = 1; i < PEERS; i++) {
+      // xor with zero leaves a byte intact, 1/256 of the corruptions
+      double expected = len * errProb * 255 / 256;
+      if (Math.abs(diffs[i] - expected) > 5 * Math.sqrt(expected) + (errProb == 0 ? 0 : 1)) {
+        System.out.println("peer " + i + " " + diffs[i] + " corrupt bytes, expected about " + (int)expected);
+        err++;
+      }
+    }
+    for (int i = 0; i < PEERS; i++) {
+      ch[i].close();
+    }
+    server.close();
+    t.join(1000);
+  }
+}
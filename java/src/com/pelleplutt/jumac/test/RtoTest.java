@@ -0,0 +1,221 @@
+package com.pelleplutt.jumac.test;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacRto;
+
+/**
+ * Tests the adaptive retransmission timeout. Checks the estimator alone
+ * and that Jumac.RtoConfig resends after it, then sends synchronized packets back to back over JumftSim lines with
+ * delay, jitter and loss, run tick by tick. Compares the estimate with a
+ * fixed resend delay below the round trip, which resends needlessly, and
+ * one far above, which idles after each loss.
+ */
+public class RtoTest {
+  static final int PACKETS = 300;
+  static final int DELAY = 50;
+  static final int JITTER = 10;
+
+  static int err;
+
+  static class Link extends JumftSim.SimConfig {
+    final Jumac u;
+    final long fixed;
+    int paks, sent, acked, tmos;
+    Link(Jumac u, JumftSim.Line out, long fixed) {
+      super(out);
+      this.u = u;
+      this.fixed = fixed;
+      u.setConfig(this);
+    }
+    void pump() {
+      while (sent < PACKETS && u.txPacket(true, new byte[] {(byte)sent, (byte)(sent >> 8)}, (short)2) > 0) {
+        sent++;
+      }
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      paks++;
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      acked++;
+      pump();
+    }
+    @Override
+    public void tmo(char seqno) {
+      tmos++;
+      pump();
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return fixed > 0 ? fixed : u.getRto().retryDelta(tries);
+    }
+  }
+
+  static class Result {
+    long ticks;
+    // synchronized frames arriving that were not new packets
+    int dups;
+    int tmos;
+    long srtt;
+  }
+
+  public static void main(String[] args) {
+    estimator();
+    rtoConfig();
+
+    Result base = run(0, 0, 1);
+    Result a = base;
+    Result s = run(DELAY, 0, 1);
+    print("lossless, adaptive", a);
+    print("lossless, fixed " + DELAY, s);
+    if (a.dups != 0 || s.dups == 0) {
+      System.out.println("expected resends only with too short fixed delay");
+      err++;
+    }
+    checkSrtt(a);
+
+    a = run(0, 0.05, 1);
+    s = run(DELAY, 0.05, 1);
+    Result l = run(1000, 0.05, 1);
+    print("5% loss, adaptive", a);
+    print("5% loss, fixed " + DELAY, s);
+    print("5% loss, fixed 1000", l);
+    // time lost to losses, and resends
+    if (a.ticks - base.ticks > (l.ticks - base.ticks) / 4 || a.dups > s.dups / 10) {
+      System.out.println("expected adaptive to neither idle nor resend needlessly");
+      err++;
+    }
+    checkSrtt(a);
+
+    a = run(0, 0, 4);
+    print("lossless, window 4, adaptive", a);
+    if (a.dups != 0) {
+      System.out.println("expected no resends");
+      err++;
+    }
+    // resends within the window are not sampled either
+    a = run(0, 0.05, 4);
+    print("5% loss, window 4, adaptive", a);
+    checkSrtt(a);
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void rtoConfig() {
+    Jumac u = new Jumac(500, false, 5);
+    Jumac.RtoConfig c = new Jumac.RtoConfig(u) {
+      @Override
+      public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      }
+      @Override
+      public void rxAck(char seqno, byte[] data, int len) {
+      }
+      @Override
+      public void tmo(char seqno) {
+      }
+      @Override
+      public void tx(byte b) {
+      }
+      @Override
+      public void tx(byte[] buf, int len) {
+      }
+    };
+    long initial = c.retryDelta(0);
+    u.getRto().sample(100);
+    if (initial != JumacRto.RTO_INITIAL || c.retryDelta(0) != 300 || c.retryDelta(1) != 600) {
+      System.out.format("RtoConfig: %d before sample, %d and %d after\n",
+          initial, c.retryDelta(0), c.retryDelta(1));
+      err++;
+    }
+  }
+
+  static void estimator() {
+    JumacRto rto = new JumacRto(1000, 10, 60000);
+    if (rto.retryDelta(0) != 1000 || rto.retryDelta(1) != 2000 || rto.retryDelta(40) != 60000) {
+      System.out.println("bad initial timeout or backoff");
+      err++;
+    }
+    rto.sample(100);
+    // first sample sets variation to half the round trip
+    if (rto.getSrtt() != 100 || rto.getRttvar() != 50 || rto.getRto() != 300) {
+      System.out.format("first sample: srtt %d rttvar %d rto %d\n",
+          rto.getSrtt(), rto.getRttvar(), rto.getRto());
+      err++;
+    }
+    for (int i = 0; i < 100; i++) {
+      rto.sample(100);
+    }
+    // variation settles at rounding residue
+    if (rto.getSrtt() != 100 || rto.getRto() < 101 || rto.getRto() > 104 ||
+        rto.retryDelta(2) != 4 * rto.getRto()) {
+      System.out.format("steady: srtt %d rto %d\n", rto.getSrtt(), rto.getRto());
+      err++;
+    }
+    rto.sample(300);
+    if (rto.getRto() <= 300) {
+      System.out.println("timeout not raised by late sample, " + rto.getRto());
+      err++;
+    }
+    for (int i = 0; i < 100; i++) {
+      rto.sample(1);
+    }
+    if (rto.getRto() != 10) {
+      System.out.println("timeout not at lower limit, " + rto.getRto());
+      err++;
+    }
+  }
+
+  static Result run(long fixed, double loss, int window) {
+    JumftSim sim = new JumftSim(DELAY, 0, 0, 0, 1);
+    sim.jitter = JITTER;
+    sim.frameLoss = loss;
+    JumftSim.Line toB = new JumftSim.Line(sim, false);
+    JumftSim.Line toA = new JumftSim.Line(sim, false);
+    Jumac ua = new Jumac(500, false, 10);
+    Jumac ub = new Jumac(500, false, 10);
+    Link la = new Link(ua, toB, fixed);
+    Link lb = new Link(ub, toA, fixed);
+    ua.setWindow(window);
+    ub.setWindow(window);
+    la.pump();
+    while (la.acked + la.tmos < PACKETS && sim.now < 1000000) {
+      sim.now++;
+      toB.step();
+      toA.step();
+      toB.deliver(ub);
+      toA.deliver(ua);
+      la.tick(ua);
+      lb.tick(ub);
+    }
+    Result r = new Result();
+    r.ticks = sim.now;
+    r.dups = toB.syncs - lb.paks;
+    r.tmos = la.tmos;
+    r.srtt = ua.getRto().getSrtt();
+    if (la.acked + la.tmos < PACKETS || lb.paks != PACKETS) {
+      System.out.println("transfer incomplete or packets delivered twice");
+      err++;
+    }
+    return r;
+  }
+
+  static void print(String name, Result r) {
+    System.out.format("%s: %d ticks, %d resends arrived, %d timeouts, srtt %d\n",
+        name, r.ticks, r.dups, r.tmos, r.srtt);
+  }
+
+  static void checkSrtt(Result r) {
+    // unaffected by resends, which would add a timeout to samples
+    if (r.srtt < 2 * DELAY || r.srtt > 2 * (DELAY + JITTER)) {
+      System.out.println("srtt off the round trip");
+      err++;
+    }
+    if (r.tmos != 0) {
+      System.out.println("unexpected timeouts");
+      err++;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Tests delivery of received packets on an executor. Two links are joined
+ * by byte queues, each read by its own thread calling report. Checks that
+ * a slow receiver does not hold up the reading thread, that synchronized
+ * packets are delivered once in order and acked with piggybacked data or
+ * empty, also when resent while delivery is slow and with a window, and
+ * that packets arriving with the ring full are dropped.
+ */
+public class RxExecutorTest {
+  static int err;
+
+  static class Link extends Pipe.Link {
+    final ArrayList<Integer> paks = new ArrayList<Integer>();
+    final ArrayList<byte[]> acks = new ArrayList<byte[]>();
+    volatile long delay;
+    volatile CountDownLatch gate;
+    Link(Jumac u) {
+      super(u, 20);
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      try {
+        if (gate != null) gate.await();
+        if (delay > 0) Thread.sleep(delay);
+      } catch (InterruptedException e) {
+      }
+      synchronized (this) {
+        paks.add(data[0] & 0xff);
+        notifyAll();
+      }
+      // even synchronized packets are acked with data
+      if (req_ack && (data[0] & 1) == 0) {
+        u.ackReply(new byte[] {data[0], (byte)(data[0] + 1)}, (short)2);
+      }
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      synchronized (this) {
+        acks.add(Arrays.copyOf(data, len));
+        notifyAll();
+      }
+    }
+    @Override
+    public void tmo(char seqno) {
+      System.out.println("timeout seq " + (int)seqno);
+      err++;
+    }
+    synchronized void await(ArrayList<?> l, int n) throws InterruptedException {
+      long end = System.currentTimeMillis() + 5000;
+      while (l.size() < n && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+    }
+  }
+
+  static Jumac ua, ub;
+  static Link la, lb;
+  static Pipe toA, toB;
+
+  public static void main(String[] args) throws Throwable {
+    ExecutorService ex = Executors.newSingleThreadExecutor();
+    ua = new Jumac(500, false, 20);
+    ub = new Jumac(500, false, 20);
+    la = new Link(ua);
+    lb = new Link(ub);
+    toA = new Pipe(ua);
+    toB = new Pipe(ub);
+    la.out = toB;
+    lb.out = toA;
+
+    ub.setRxExecutor(ex, 256);
+    slowReceiver();
+    synchronizedPackets(false);
+    ua.setWindow(4);
+    ub.setWindow(4);
+    synchronizedPackets(true);
+    ua.setWindow(1);
+    ub.setWindow(1);
+    ringFull(ex);
+
+    ex.shutdown();
+    ex.awaitTermination(1, TimeUnit.SECONDS);
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  // unsynchronized packets to a receiver taking 2 ms each
+  static void slowReceiver() throws Throwable {
+    final int n = 100;
+    lb.delay = 2;
+    long t0 = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      ua.txPacket(false, new byte[] {(byte)i, 0, 0}, (short)3);
+    }
+    lb.await(lb.paks, n);
+    long ms = (System.nanoTime() - t0) / 1000000;
+    long parseMs = toB.reportNanos / 1000000;
+    System.out.format("%d packets delivered in %d ms, reader busy %d ms\n", lb.paks.size(), ms, parseMs);
+    for (int i = 0; i < n; i++) {
+      if (i >= lb.paks.size() || lb.paks.get(i) != i) {
+        System.out.println("unsynchronized packets lost or out of order");
+        err++;
+        break;
+      }
+    }
+    if (parseMs > ms / 4) {
+      System.out.println("reader held up by delivery");
+      err++;
+    }
+    lb.delay = 0;
+    lb.paks.clear();
+  }
+
+  // synchronized packets, some delivered slower than the resend delta
+  static void synchronizedPackets(boolean window) throws Throwable {
+    final int n = 20;
+    for (int i = 0; i < n; i++) {
+      lb.delay = i % 3 == 0 ? 60 : 0;
+      int res;
+      while ((res = ua.txPacket(true, new byte[] {(byte)i}, (short)1)) == Jumac.UMAC_ERR_BUSY) {
+        Thread.sleep(1);
+      }
+      if (res <= 0) {
+        System.out.println("tx failed " + res);
+        err++;
+      }
+      if (!window) {
+        la.await(la.acks, i + 1);
+      }
+    }
+    la.await(la.acks, n);
+    lb.await(lb.paks, n);
+    Thread.sleep(100);
+    System.out.format("window %b: %d synchronized packets delivered, %d acks\n",
+        window, lb.paks.size(), la.acks.size());
+    if (lb.paks.size() != n || la.acks.size() != n) {
+      System.out.println("expected each delivered and acked once");
+      err++;
+    }
+    for (int i = 0; i < Math.min(n, lb.paks.size()); i++) {
+      if (lb.paks.get(i) != i) {
+        System.out.println("synchronized packets out of order");
+        err++;
+        break;
+      }
+    }
+    int piggy = 0;
+    for (byte a[] : la.acks) {
+      if (a.length == 2 && a[1] == a[0] + 1 && (a[0] & 1) == 0) piggy++;
+      else if (a.length != 0) {
+        System.out.println("bad ack " + Arrays.toString(a));
+        err++;
+      }
+    }
+    if (piggy != (n + 1) / 2) {
+      System.out.println(piggy + " piggybacked acks, expected " + (n + 1) / 2);
+      err++;
+    }
+    lb.delay = 0;
+    lb.paks.clear();
+    la.acks.clear();
+  }
+
+  // unsynchronized packets beyond a ring of 4 while delivery is stuck
+  static void ringFull(ExecutorService ex) throws Throwable {
+    Thread.sleep(100);
+    ub.setRxExecutor(ex, 4);
+    lb.gate = new CountDownLatch(1);
+    for (int i = 0; i < 10; i++) {
+      ua.txPacket(false, new byte[] {(byte)i}, (short)1);
+    }
+    Thread.sleep(100);
+    lb.gate.countDown();
+    // a slot is freed when its delivery returns, so four are kept
+    lb.await(lb.paks, 4);
+    ua.txPacket(true, new byte[] {(byte)100}, (short)1);
+    la.await(la.acks, 1);
+    Thread.sleep(100);
+    System.out.format("ring full: %d of 10 delivered, then %s\n", lb.paks.size() - 1,
+        la.acks.size() == 1 ? "acked" : "not acked");
+    if (lb.paks.size() != 5 || lb.paks.get(4) != 100 || la.acks.size() != 1) {
+      System.out.println("expected 4 delivered and a synchronized packet after");
+      err++;
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Tests the queued synchronized send API. Two links are joined by byte
+ * queues, each read by its own thread. Checks that queued packets are
+ * sent back to back and their futures completed in order with the ack
+ * data, with and without a window, that a full queue refuses or holds up
+ * the caller, that an unacked packet fails its future with a timeout
+ * without holding up the ones after it, and that queueing does not wait
+ * for a slow transport.
+ */
+public class SendTest {
+  static int err;
+
+  static class Link extends Pipe.Link {
+    final ArrayList<Integer> paks = new ArrayList<Integer>();
+    volatile int acks, tmos;
+    Link(Jumac u) {
+      super(u, 20);
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      synchronized (this) {
+        paks.add(data[0] & 0xff);
+      }
+      u.ackReply(new byte[] {data[0], (byte)~data[0]}, (short)2);
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      acks++;
+    }
+    @Override
+    public void tmo(char seqno) {
+      tmos++;
+    }
+  }
+
+  static Jumac ua, ub;
+  static Link la, lb;
+
+  public static void main(String[] args) throws Throwable {
+    ua = new Jumac(500, false, 10);
+    ub = new Jumac(500, false, 10);
+    la = new Link(ua);
+    lb = new Link(ub);
+    la.out = new Pipe(ub);
+    lb.out = new Pipe(ua);
+
+    queued(false);
+    ua.setWindow(4);
+    ub.setWindow(4);
+    queued(true);
+    ua.setWindow(1);
+    ub.setWindow(1);
+    backpressure();
+    timeout();
+    slowTransport();
+
+    if (la.acks != 0 || la.tmos != 0) {
+      System.out.println("rxAck or tmo called for sent packets");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void queued(boolean window) throws Throwable {
+    final int n = 100;
+    ua.setSendQueue(n);
+    ArrayList<CompletableFuture<byte[]>> fs = new ArrayList<CompletableFuture<byte[]>>();
+    long t0 = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      CompletableFuture<byte[]> f = ua.trySend(new byte[] {(byte)i}, (short)1);
+      if (f == null) {
+        System.out.println("queue full at " + i);
+        err++;
+        return;
+      }
+      fs.add(f);
+    }
+    int ok = 0;
+    for (int i = 0; i < n; i++) {
+      byte a[] = fs.get(i).get(5, TimeUnit.SECONDS);
+      if (a.length == 2 && a[0] == (byte)i && a[1] == (byte)~i) ok++;
+    }
+    long ms = (System.nanoTime() - t0) / 1000000;
+    System.out.format("window %b: %d of %d acked with data in %d ms\n", window, ok, n, ms);
+    if (ok != n) {
+      err++;
+    }
+    synchronized (lb) {
+      for (int i = 0; i < n; i++) {
+        if (i >= lb.paks.size() || lb.paks.get(i) != i) {
+          System.out.println("packets lost or out of order");
+          err++;
+          break;
+        }
+      }
+      lb.paks.clear();
+    }
+  }
+
+  static void backpressure() throws Throwable {
+    ua.setSendQueue(2);
+    la.out.deaf = true;
+    // first one goes in the air, two more are queued
+    CompletableFuture<byte[]> f0 = ua.trySend(new byte[] {0}, (short)1);
+    CompletableFuture<byte[]> f1 = ua.trySend(new byte[] {1}, (short)1);
+    CompletableFuture<byte[]> f2 = ua.trySend(new byte[] {2}, (short)1);
+    CompletableFuture<byte[]> f3 = ua.trySend(new byte[] {3}, (short)1);
+    if (f0 == null || f1 == null || f2 == null || f3 != null || ua.getSendQueueDepth() != 2) {
+      System.out.println("expected queue of 2 to refuse 4th packet, depth " + ua.getSendQueueDepth());
+      err++;
+    }
+    final CompletableFuture<?> blocked[] = new CompletableFuture<?>[1];
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked[0] = ua.send(new byte[] {3}, (short)1);
+        } catch (InterruptedException e) {
+        }
+      }
+    });
+    t.start();
+    t.join(100);
+    if (!t.isAlive()) {
+      System.out.println("send did not wait for room");
+      err++;
+    }
+    la.out.deaf = false;
+    t.join(5000);
+    if (blocked[0] == null) {
+      System.out.println("send did not get room");
+      err++;
+      return;
+    }
+    int acked = 0;
+    for (CompletableFuture<?> f : new CompletableFuture<?>[] {f0, f1, f2, blocked[0]}) {
+      try {
+        f.get(5, TimeUnit.SECONDS);
+        acked++;
+      } catch (ExecutionException e) {
+      }
+    }
+    System.out.format("backpressure: 4th refused, then waited, %d of 4 acked\n", acked);
+    if (acked != 4) {
+      err++;
+    }
+    synchronized (lb) {
+      lb.paks.clear();
+    }
+  }
+
+  static void timeout() throws Throwable {
+    la.out.deaf = true;
+    CompletableFuture<byte[]> f0 = ua.trySend(new byte[] {0}, (short)1);
+    CompletableFuture<byte[]> f1 = ua.trySend(new byte[] {1}, (short)1);
+    boolean timedOut = false;
+    try {
+      f0.get(5, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      timedOut = e.getCause() instanceof TimeoutException;
+    }
+    la.out.deaf = false;
+    byte a[] = f1.get(5, TimeUnit.SECONDS);
+    System.out.format("timeout: first %s, second acked %b\n",
+        timedOut ? "timed out" : "not timed out", a[0] == 1);
+    if (!timedOut || a[0] != 1) {
+      err++;
+    }
+  }
+
+  static void slowTransport() throws Throwable {
+    la.txDelay = 200;
+    final CompletableFuture<?> sent[] = new CompletableFuture<?>[1];
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sent[0] = ua.trySend(new byte[] {0}, (short)1);
+      }
+    });
+    t.start();
+    Thread.sleep(50);
+    // the first one is being sent, queueing more must not wait for it
+    long t0 = System.nanoTime();
+    CompletableFuture<byte[]> f1 = ua.trySend(new byte[] {1}, (short)1);
+    int depth = ua.getSendQueueDepth();
+    long ms = (System.nanoTime() - t0) / 1000000;
+    la.txDelay = 0;
+    t.join();
+    System.out.format("slow transport: queued in %d ms, depth %d\n", ms, depth);
+    if (ms > 100 || f1 == null || depth != 2) {
+      System.out.println("queueing waited for the transport");
+      err++;
+    }
+    for (CompletableFuture<?> f : new CompletableFuture<?>[] {sent[0], f1}) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.pelleplutt.jumac.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacStats;
+
+/**
+ * Tests the counters of Jumac. Two links exchange frames through lists
+ * on the calling thread, with ticks driven by the test. Checks frame and
+ * byte counts, ack latency, garbage, crc errors, nacks by reason,
+ * resends and timeouts, the snapshot and reading over JMX.
+ */
+public class StatsTest {
+  static int err;
+  static long now;
+
+  static class Link implements Jumac.Config {
+    final Jumac u;
+    final ArrayList<byte[]> out = new ArrayList<byte[]>();
+    long alarm;
+    int acks, tmos;
+    Link(Jumac u) {
+      this.u = u;
+      u.setConfig(this);
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      acks++;
+    }
+    @Override
+    public void tmo(char seqno) {
+      tmos++;
+    }
+    @Override
+    public void garbage(byte b) {
+    }
+    @Override
+    public long nowTick() {
+      return now;
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      alarm = now + delta;
+    }
+    @Override
+    public void cancelFutureTick() {
+      alarm = 0;
+    }
+    @Override
+    public void tx(byte b) {
+      tx(new byte[] {b}, 1);
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      out.add(Arrays.copyOf(buf, len));
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 10;
+    }
+    // delivers bytes sent so far to given link, corrupting the last crc
+    // or dropping all if asked
+    void flush(Link to, boolean corrupt, boolean drop) {
+      ArrayList<byte[]> fs = new ArrayList<byte[]>(out);
+      out.clear();
+      if (corrupt) {
+        byte f[] = fs.get(fs.size() - 1);
+        f[f.length - 1] ^= 1;
+      }
+      for (byte f[] : fs) {
+        if (!drop) to.u.report(f);
+      }
+    }
+    void tick() {
+      if (alarm != 0 && alarm <= now) {
+        alarm = 0;
+        u.tick();
+      }
+    }
+  }
+
+  static void expect(String what, long got, long exp) {
+    if (got != exp) {
+      System.out.println(what + ": " + got + ", expected " + exp);
+      err++;
+    }
+  }
+
+  public static void main(String[] args) throws Throwable {
+    Jumac ua = new Jumac(100, false, 2);
+    Jumac ub = new Jumac(100, true, 2);
+    Link la = new Link(ua);
+    Link lb = new Link(ub);
+
+    // ten synchronized packets of 5 bytes, acked empty after 3 ticks
+    for (int i = 0; i < 10; i++) {
+      ua.txPacket(true, new byte[5], (short)5);
+      la.flush(lb, false, false);
+      now += 3;
+      lb.flush(la, false, false);
+    }
+    JumacStats sa = ua.getStats();
+    JumacStats sb = ub.getStats();
+    expect("a tx frames", sa.getTxFrames(), 10);
+    expect("a tx bytes", sa.getTxBytes(), 10 * 10);
+    expect("b rx frames", sb.getRxFrames(), 10);
+    expect("b rx bytes", sb.getRxBytes(), 10 * 10);
+    expect("b tx bytes", sb.getTxBytes(), 10 * 4);
+    expect("a rx bytes", sa.getRxBytes(), 10 * 4);
+    expect("a acks at 2-3 ticks", sa.getAckLatency()[2], 10);
+
+    // garbage before a frame, nacked by b as not preamble
+    ub.report("junk!".getBytes());
+    ua.txPacket(false, new byte[1], (short)1);
+    la.flush(lb, false, false);
+    lb.flush(la, false, false);
+    expect("b garbage", sb.getGarbage(), 5);
+    expect("b nacks sent, not preamble", sb.getNacksTx()[Jumac.UMAC_NACK_ERR_NOT_PREAMBLE], 1);
+    expect("a nacks received, not preamble", sa.getNacksRx()[Jumac.UMAC_NACK_ERR_NOT_PREAMBLE], 1);
+
+    // corrupted frame, nacked by b as bad crc and resent directly
+    ua.txPacket(true, new byte[2], (short)2);
+    la.flush(lb, true, false);
+    lb.flush(la, false, false);
+    la.flush(lb, false, false);
+    now += 40;
+    lb.flush(la, false, false);
+    expect("b crc errors", sb.getCrcErrors(), 1);
+    expect("b nacks sent, bad crc", sb.getNacksTx()[Jumac.UMAC_NACK_ERR_BAD_CRC], 1);
+    expect("a nacks received, bad crc", sa.getNacksRx()[Jumac.UMAC_NACK_ERR_BAD_CRC], 1);
+    expect("a resends", sa.getRetransmits(), 1);
+    expect("a acks at 32-63 ticks", sa.getAckLatency()[6], 1);
+
+    // lost packet, resent twice and timed out
+    ua.txPacket(true, new byte[2], (short)2);
+    for (int i = 0; i < 50; i++) {
+      now++;
+      la.tick();
+      la.flush(lb, false, true);
+    }
+    expect("a resends", sa.getRetransmits(), 3);
+    expect("a timeouts", sa.getTimeouts(), 1);
+    expect("a acks", la.acks, 11);
+    expect("a tmo", la.tmos, 1);
+
+    JumacStats.Snapshot snap = sa.snapshot();
+    System.out.println("a: " + snap);
+    System.out.println("b: " + sb.snapshot());
+    expect("snapshot tx frames", snap.txFrames, sa.getTxFrames());
+    expect("snapshot latency", snap.ackLatency[2], 10);
+
+    // same counters over jmx
+    expect("register", sa.register("link a"), Jumac.UMAC_OK);
+    expect("register twice", sa.register("link a"), Jumac.UMAC_ERR_STATE);
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    Object frames = mbs.getAttribute(sa.getName(), "TxFrames");
+    long nacks[] = (long[])mbs.getAttribute(sa.getName(), "NacksRx");
+    expect("jmx tx frames", (Long)frames, snap.txFrames);
+    expect("jmx nacks", nacks[Jumac.UMAC_NACK_ERR_BAD_CRC], 1);
+    System.out.println("jmx " + sa.getName() + ": " + frames + " frames sent");
+    ObjectName name = sa.getName();
+    expect("unregister", sa.unregister(), Jumac.UMAC_OK);
+    if (mbs.isRegistered(name)) {
+      System.out.println("still registered");
+      err++;
+    }
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
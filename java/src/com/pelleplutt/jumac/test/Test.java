@@ -3,6 +3,7 @@ package com.pelleplutt.jumac.test;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import com.pelleplutt.jumac.Jumac;
 
@@ -20,12 +21,28 @@ public class Test {
     if (verbose) System.out.println(s);
   }
 
+  /**
+   * Runs given script, args are the script file, then optionally
+   * verbose=1, and nio=1 to run ADAM on ByteBuffers and BESS on a
+   * gathering config, both reporting received bytes in bulk.
+   */
   public static void main(String[] args) {
     Test t = new Test();
+    boolean nio = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("verbose=")) {
+        t.verbose = args[i].endsWith("1");
+      } else if (args[i].startsWith("nio=")) {
+        nio = args[i].endsWith("1");
+      }
+    }
     t.uactx = new Juctx();
     t.ubctx = new Juctx();
-    t.cua = t.makeConfig(t.uactx);
-    t.cub = t.makeConfig(t.ubctx);
+    t.uactx.nio = nio;
+    t.uactx.bulk = nio;
+    t.ubctx.bulk = nio;
+    t.cua = t.makeConfig(t.uactx, nio);
+    t.cub = t.makeConfig(t.ubctx, nio);
     t.ua = new Jumac(6, false, 3);
     t.ua.setConfig(t.cua);
     t.ub = new Jumac(6, false, 3);
@@ -37,10 +54,6 @@ public class Test {
     //t.ua._dbg = true;
     //t.ub._dbg = true;
     
-    if (args.length > 1 && args[1].startsWith("verbose=")) {
-      t.verbose = args[1].endsWith("1");
-    }
-    
     RandomAccessFile raf = null;
     try {
       raf = new RandomAccessFile(args[0], "r");
@@ -96,7 +109,15 @@ public class Test {
       
       if (line.startsWith("tx ")) {
         boolean ack = line.endsWith("ack");
-        int err = u.txPacket(ack, quoted(line), quotedLen(line));
+        int err;
+        if (uc.nio) {
+          byte[] q = quoted(line);
+          ByteBuffer b = ByteBuffer.allocateDirect(quotedLen(line));
+          if (q != null) b.put(q).flip();
+          err = u.txPacket(ack, b);
+        } else {
+          err = u.txPacket(ack, quoted(line), quotedLen(line));
+        }
         if (err < 0) {
           if (uc.exp_err == err) {
             dbg("[" + uc.name + "] exp err receieved, clearerr");
@@ -151,6 +172,27 @@ public class Test {
           System.exit(1);
         }
       }
+      else if (line.startsWith("window ")) {
+        int err = u.setWindow(Integer.parseInt(line.substring(line.lastIndexOf(' ')).trim()));
+        if (err != Jumac.UMAC_OK) {
+          System.out.println("Unexpected error " + err);
+          System.exit(1);
+        }
+      }
+      else if (line.startsWith("rxcnt ")) {
+        int cnt = Integer.parseInt(line.substring(line.lastIndexOf(' ')).trim());
+        if (uc.rx_cnt != cnt) {
+          System.out.println(uc.name + " RX count mismatch, got " + uc.rx_cnt + ", expected " + cnt);
+          System.exit(1);
+        }
+      }
+      else if (line.startsWith("ackcnt ")) {
+        int cnt = Integer.parseInt(line.substring(line.lastIndexOf(' ')).trim());
+        if (uc.ack_cnt != cnt) {
+          System.out.println(uc.name + " ACK count mismatch, got " + uc.ack_cnt + ", expected " + cnt);
+          System.exit(1);
+        }
+      }
       else if (line.startsWith("rxspeed")) {
         if (line.endsWith("full") || line.endsWith("0")) {
           uc.rx_per_tick = 0;
@@ -218,6 +260,21 @@ public class Test {
   }
   
   void test_ctx_rx(Jumac u, Juctx uc) {
+    if (uc.rx_per_tick == 0 && uc.bulk) {
+      // full speed, report all in bulk
+      while (uc.rx_out != uc.rx_in) {
+        int end = uc.rx_in > uc.rx_out ? uc.rx_in : COMM_BUF_SZ;
+        if (uc.nio) {
+          uc.rx_direct.clear();
+          uc.rx_direct.put(uc.rx, uc.rx_out, end - uc.rx_out).flip();
+          u.report(uc.rx_direct);
+        } else {
+          u.report(uc.rx, uc.rx_out, end - uc.rx_out);
+        }
+        uc.rx_out = end >= COMM_BUF_SZ ? 0 : end;
+      }
+      return;
+    }
     int rx_per_tick = uc.rx_per_tick == 0 ? 1 : uc.rx_per_tick;
     while (uc.rx_out != uc.rx_in && rx_per_tick > 0) {
       u.report(uc.rx[uc.rx_out++]);
@@ -243,6 +300,7 @@ public class Test {
     return new Jumac.Config() {
       @Override
       public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+        uc.rx_cnt++;
         dbg(String.format("[%s] RX%c %1x %s", uc.name, req_ack ? '*' : ' ', (int)seqno,
             len == 0 ? "" : new String(data, 0, len)));
         if (uc.exp_rx_len != ANY_EXP) {
@@ -256,13 +314,18 @@ public class Test {
         }
         if (req_ack && uc.nxt_ack_len > 0) {
           Jumac u = uc == uactx ? ua : ub;
-          u.ackReply(uc.nxt_ack, uc.nxt_ack_len);
+          if (uc.nio) {
+            u.ackReply(ByteBuffer.wrap(uc.nxt_ack, 0, uc.nxt_ack_len));
+          } else {
+            u.ackReply(uc.nxt_ack, uc.nxt_ack_len);
+          }
           uc.nxt_ack_len = 0;
         }
       }
 
       @Override
       public void rxAck(char seqno, byte[] data, int len) {
+        uc.ack_cnt++;
         dbg(String.format("[%s] ACK %1x %s", uc.name, (int)seqno, len == 0 ? "" : new String(data, 0, len)));
         if (uc.exp_ack_len != ANY_EXP) {
           if (uc.exp_ack_len != len || 
@@ -345,6 +408,95 @@ public class Test {
     };
   }
   
+  Jumac.Config makeConfig(Juctx uc, boolean gather) {
+    Jumac.Config cfg = makeConfig(uc);
+    if (uc.nio) {
+      return new BufferTestConfig(cfg);
+    }
+    return gather ? new GatheringTestConfig(cfg) : cfg;
+  }
+  
+  // passes frames of gathering writes on byte by byte to given config
+  class GatheringTestConfig implements Jumac.GatheringConfig {
+    final Jumac.Config cfg;
+    
+    GatheringTestConfig(Jumac.Config cfg) {
+      this.cfg = cfg;
+    }
+    
+    @Override
+    public void tx(ByteBuffer[] frame) {
+      for (ByteBuffer b : frame) {
+        while (b.hasRemaining()) {
+          cfg.tx(b.get());
+        }
+      }
+    }
+    
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      cfg.rxPak(seqno, data, len, req_ack);
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      cfg.rxAck(seqno, data, len);
+    }
+    @Override
+    public void tmo(char seqno) {
+      cfg.tmo(seqno);
+    }
+    @Override
+    public void garbage(byte b) {
+      cfg.garbage(b);
+    }
+    @Override
+    public long nowTick() {
+      return cfg.nowTick();
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      cfg.requestFutureTick(delta);
+    }
+    @Override
+    public void cancelFutureTick() {
+      cfg.cancelFutureTick();
+    }
+    @Override
+    public void tx(byte b) {
+      cfg.tx(b);
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      cfg.tx(buf, len);
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return cfg.retryDelta(tries);
+    }
+  }
+  
+  class BufferTestConfig extends GatheringTestConfig implements Jumac.BufferConfig {
+    BufferTestConfig(Jumac.Config cfg) {
+      super(cfg);
+    }
+    
+    @Override
+    public void rxPak(char seqno, ByteBuffer data, boolean req_ack) {
+      int len = data.remaining();
+      byte[] b = new byte[len];
+      data.get(b);
+      rxPak(seqno, b, len, req_ack);
+    }
+    
+    @Override
+    public void rxAck(char seqno, ByteBuffer data) {
+      int len = data.remaining();
+      byte[] b = new byte[len];
+      data.get(b);
+      rxAck(seqno, b, len);
+    }
+  }
+  
   static int strncmp(byte[] a, byte[] b, int len) {
     if (len == 0 && (a == null || a.length == 0) && (b == null || b.length == 0)) return 1;
     if (len != 0 && (a == null || b == null)) return 0;
@@ -373,6 +525,13 @@ public class Test {
     short nxt_ack_len;
     boolean exp_tmo;
     int exp_err;
+    int rx_cnt;
+    int ack_cnt;
+    // ByteBuffer API for tx, ack and rx
+    boolean nio;
+    // report all received in one go at full speed
+    boolean bulk;
+    ByteBuffer rx_direct = ByteBuffer.allocateDirect(COMM_BUF_SZ);
   }
 
 }
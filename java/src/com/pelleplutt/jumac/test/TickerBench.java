@@ -0,0 +1,126 @@
+package com.pelleplutt.jumac.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.pelleplutt.jumac.JumacTickable;
+import com.pelleplutt.jumac.JumacTicker;
+
+/**
+ * Benchmarks timer request/cancel churn as caused by Jumac, where the rx
+ * and ack timers are rearmed and cancelled a few times per packet while the
+ * ticker thread sleeps on a deadline further away.
+ *
+ * Compares JumacTicker against LockedTicker, a copy of the previous ticker
+ * taking a monitor and notifying the ticker thread on every call. Prints
+ * calls per second and cpu time spent by the ticker thread.
+ */
+public class TickerBench {
+  static final int PACKETS = 500000;
+  static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Throwable {
+    for (int r = 0; r < ROUNDS; r++) {
+      run("locked", new LockedTicker(), "jumac-ticker-locked");
+      run("lock-free monitor", new JumacTicker(), "jumac-ticker");
+      run("lock-free park", new JumacTicker(1000000, JumacTicker.TICKER_WAIT_PARK), "jumac-ticker");
+      System.out.println();
+    }
+  }
+
+  static void run(String name, JumacTicker t, String threadName) throws InterruptedException {
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    t.start(new JumacTickable() {
+      @Override
+      public void tick() {
+      }
+    });
+    Thread.sleep(10);
+    long tid = threadId(threadName);
+    long cpu0 = mx.getThreadCpuTime(tid);
+    long t0 = System.nanoTime();
+    for (int i = 0; i < PACKETS; i++) {
+      // rx timer on preamble, ack timer after tx, cancel on crc, rearm on next
+      t.requestFutureTick(1000);
+      t.requestFutureTick(2000);
+      t.cancelFutureTick();
+      t.requestFutureTick(1500);
+    }
+    long t1 = System.nanoTime();
+    long cpu1 = mx.getThreadCpuTime(tid);
+    t.cancelFutureTick();
+    System.out.format("%-18s %10d calls/s, ticker thread cpu %5d ms\n", name,
+        (long)(PACKETS * 4 * 1e9 / (t1 - t0)), (cpu1 - cpu0) / 1000000);
+  }
+
+  static long threadId(String name) {
+    long id = -1;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().equals(name)) {
+        // newest ticker of that name
+        id = Math.max(id, t.getId());
+      }
+    }
+    return id;
+  }
+
+  /**
+   * The ticker before lock-free request/cancel.
+   */
+  static class LockedTicker extends JumacTicker {
+    private final Object LOCK = new Object();
+    private volatile long alarm;
+
+    @Override
+    public void start(final JumacTickable tickme) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            boolean trig = false;
+            synchronized (LOCK) {
+              long now = 0;
+              while (alarm == 0 || (now = nowTick()) < alarm) {
+                try {
+                  if (alarm > 0) {
+                    if (alarm - now > 0) {
+                      LOCK.wait(ticksToMs(alarm - now), ticksToNanoRemainder(alarm - now));
+                    }
+                  } else {
+                    LOCK.wait();
+                  }
+                } catch (InterruptedException e) {
+                  return;
+                }
+              }
+              now = nowTick();
+              if (alarm != 0 && now >= alarm) {
+                trig = true;
+                alarm = 0;
+              }
+            }
+            if (trig) {
+              tickme.tick();
+            }
+          }
+        }
+      }, "jumac-ticker-locked");
+      t.setDaemon(true);
+      t.start();
+    }
+    @Override
+    public void requestFutureTick(long delta) {
+      synchronized (LOCK) {
+        alarm = nowTick() + delta;
+        LOCK.notifyAll();
+      }
+    }
+    @Override
+    public void cancelFutureTick() {
+      synchronized (LOCK) {
+        alarm = 0;
+        LOCK.notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.concurrent.Semaphore;
+
+import com.pelleplutt.jumac.JumacTickable;
+import com.pelleplutt.jumac.JumacTicker;
+
+/**
+ * Checks tick conversions and that tickers of all wait modes never tick
+ * early. Prints the average lateness per wait mode.
+ */
+public class TickerTest {
+  static final long TICK_NANOS = 100000;
+  static final int RUNS = 50;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    JumacTicker t = new JumacTicker(TICK_NANOS, JumacTicker.TICKER_WAIT_PARK);
+    if (t.ticksToMs(25) != 2 || t.ticksToNanoRemainder(25) != 500000) {
+      System.out.println("bad conversion of 25 ticks: " + t.ticksToMs(25) + " ms + " +
+          t.ticksToNanoRemainder(25) + " ns");
+      err++;
+    }
+    t = new JumacTicker();
+    if (t.ticksToMs(25) != 25 || t.ticksToNanoRemainder(25) != 0) {
+      System.out.println("bad conversion of 25 default ticks");
+      err++;
+    }
+
+    run("monitor", JumacTicker.TICKER_WAIT_MONITOR);
+    run("park", JumacTicker.TICKER_WAIT_PARK);
+    run("spin", JumacTicker.TICKER_WAIT_SPIN);
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void run(String name, int waitMode) throws InterruptedException {
+    final Semaphore sem = new Semaphore(0);
+    final long fired[] = new long[1];
+    final JumacTicker t = new JumacTicker(TICK_NANOS, waitMode);
+    t.start(new JumacTickable() {
+      @Override
+      public void tick() {
+        fired[0] = t.nowTick();
+        sem.release();
+      }
+    });
+    long late = 0;
+    for (int i = 0; i < RUNS; i++) {
+      long delta = 1 + i % 20;
+      long expected = t.nowTick() + delta;
+      long start = System.nanoTime();
+      t.requestFutureTick(delta);
+      sem.acquire();
+      late += System.nanoTime() - start - delta * TICK_NANOS;
+      if (fired[0] < expected) {
+        System.out.println(name + ": tick " + (expected - fired[0]) + " ticks early");
+        err++;
+      }
+    }
+    System.out.format("%s: avg %d us late\n", name, late / RUNS / 1000);
+  }
+}
@@ -0,0 +1,105 @@
+package com.pelleplutt.jumac.test;
+
+import java.nio.ByteBuffer;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Sends unsynchronized packets from ByteBuffers on several threads at once,
+ * each thread filling its packets with its own number, from direct and heap
+ * buffers. Checks that each packet arrives with the data of the thread
+ * sending it, and that each thread gets all its packets through.
+ */
+public class TxBufferTest {
+  static final int THREADS = 4;
+  static final int PACKETS = 2000;
+  static final int LEN = 300;
+
+  static int err;
+
+  static class Link extends Pipe.Link {
+    final int rx[] = new int[THREADS];
+    volatile int mixed;
+    Link(Jumac u) {
+      super(u, 20);
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      int t = data[0];
+      for (int i = 1; i < len; i++) {
+        if (data[i] != t) {
+          mixed++;
+          return;
+        }
+      }
+      if (len != LEN || t < 0 || t >= THREADS) {
+        mixed++;
+        return;
+      }
+      rx[t]++;
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+    }
+    @Override
+    public void tmo(char seqno) {
+    }
+  }
+
+  public static void main(String[] args) throws Throwable {
+    final Jumac ua = new Jumac(500, false, 10);
+    Jumac ub = new Jumac(500, false, 10);
+    Link la = new Link(ua);
+    Link lb = new Link(ub);
+    la.out = new Pipe(ub);
+    lb.out = new Pipe(ua);
+
+    Thread ts[] = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int id = t;
+      ts[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ByteBuffer b = id % 2 == 0 ? ByteBuffer.allocateDirect(LEN) : ByteBuffer.allocate(LEN);
+          for (int i = 0; i < LEN; i++) {
+            b.put((byte)id);
+          }
+          for (int p = 0; p < PACKETS; p++) {
+            b.clear();
+            if (ua.txPacket(false, b) != 0 || b.hasRemaining()) {
+              System.out.println("txPacket failed");
+              err++;
+              return;
+            }
+          }
+        }
+      });
+      ts[t].start();
+    }
+    for (Thread t : ts) {
+      t.join();
+    }
+
+    int total = 0;
+    for (int i = 0; i < 200 && total + lb.mixed < THREADS * PACKETS; i++) {
+      Thread.sleep(50);
+      total = 0;
+      for (int t = 0; t < THREADS; t++) {
+        total += lb.rx[t];
+      }
+    }
+    for (int t = 0; t < THREADS; t++) {
+      System.out.format("thread %d: %d of %d packets\n", t, lb.rx[t], PACKETS);
+      if (lb.rx[t] != PACKETS) {
+        err++;
+      }
+    }
+    if (lb.mixed != 0) {
+      System.out.println(lb.mixed + " packets with data of other threads");
+      err++;
+    }
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+}
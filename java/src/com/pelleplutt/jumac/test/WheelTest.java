@@ -0,0 +1,177 @@
+package com.pelleplutt.jumac.test;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pelleplutt.jumac.Jumac;
+import com.pelleplutt.jumac.JumacTickable;
+import com.pelleplutt.jumac.JumacTicker;
+import com.pelleplutt.jumac.JumacTimerWheel;
+
+/**
+ * Runs timers and links on a JumacTimerWheel. Checks that timers fire once,
+ * not early and not when cancelled, and that many links with lost packets
+ * recover through retransmits without adding threads.
+ */
+public class WheelTest {
+  static final int TIMERS = 5000;
+  static final int LINKS = 500;
+
+  static int err;
+
+  public static void main(String[] args) throws Throwable {
+    JumacTimerWheel wheel = new JumacTimerWheel();
+    testTimers(wheel);
+    testLinks(wheel);
+    wheel.stop();
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static void testTimers(final JumacTimerWheel wheel) throws InterruptedException {
+    final Random r = new Random(1);
+    final long expire[] = new long[TIMERS];
+    final AtomicInteger fired[] = new AtomicInteger[TIMERS];
+    final AtomicInteger late = new AtomicInteger();
+    JumacTicker tickers[] = new JumacTicker[TIMERS];
+    for (int i = 0; i < TIMERS; i++) {
+      final int ix = i;
+      fired[i] = new AtomicInteger();
+      tickers[i] = wheel.newTicker();
+      tickers[i].start(new JumacTickable() {
+        @Override
+        public void tick() {
+          fired[ix].incrementAndGet();
+          if (wheel.nowTick() < expire[ix]) {
+            System.out.println("timer " + ix + " early");
+            err++;
+          }
+          late.set(Math.max(late.get(), (int)(wheel.nowTick() - expire[ix])));
+        }
+      });
+    }
+    for (int i = 0; i < TIMERS; i++) {
+      // spread over all wheel levels
+      long delta = r.nextInt(4) == 0 ? r.nextInt(5000) : r.nextInt(300);
+      if (i % 3 == 0) {
+        // cancelled below, must not expire before that
+        delta += 1000;
+      }
+      // rearm to the final deadline
+      tickers[i].requestFutureTick(delta + 100);
+      expire[i] = wheel.nowTick() + delta;
+      tickers[i].requestFutureTick(delta);
+    }
+    for (int i = 0; i < TIMERS; i += 3) {
+      tickers[i].cancelFutureTick();
+    }
+    Thread.sleep(6500);
+    for (int i = 0; i < TIMERS; i++) {
+      int exp = i % 3 == 0 ? 0 : 1;
+      if (fired[i].get() != exp) {
+        System.out.println("timer " + i + " fired " + fired[i].get() + " times, expected " + exp);
+        err++;
+      }
+    }
+    if (wheel.size() != 0) {
+      System.out.println("wheel not empty: " + wheel.size());
+      err++;
+    }
+    System.out.println("timers: max " + late.get() + " ticks late");
+  }
+
+  static void testLinks(JumacTimerWheel wheel) throws InterruptedException {
+    final LinkedBlockingQueue<Object[]> medium = new LinkedBlockingQueue<Object[]>();
+    final AtomicInteger acked = new AtomicInteger();
+    int threadsBefore = Thread.activeCount();
+
+    for (int i = 0; i < LINKS; i++) {
+      final Jumac a = new Jumac(50, false, 5);
+      final Jumac b = new Jumac(50, false, 5);
+      a.setConfig(new LinkConfig(a, wheel.newTicker(), b, medium, true) {
+        @Override
+        public void rxAck(char seqno, byte[] data, int len) {
+          acked.incrementAndGet();
+        }
+      });
+      b.setConfig(new LinkConfig(b, wheel.newTicker(), a, medium, false));
+      a.txPacket(true, "hello".getBytes(), (short)5);
+    }
+
+    Thread pump = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Object[] m = medium.take();
+            ((Jumac)m[0]).report((byte[])m[1]);
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    });
+    pump.setDaemon(true);
+    pump.start();
+    for (int i = 0; i < 100 && acked.get() < LINKS; i++) {
+      Thread.sleep(50);
+    }
+    pump.interrupt();
+
+    // wheel threads and pump only
+    int threads = Thread.activeCount() - threadsBefore;
+    if (acked.get() != LINKS) {
+      System.out.println("links: " + acked.get() + " of " + LINKS + " acked");
+      err++;
+    }
+    if (threads > 4) {
+      System.out.println("links: " + threads + " new threads for " + LINKS + " links");
+      err++;
+    }
+  }
+
+  static class LinkConfig extends Jumac.DefaultAbstractConfig {
+    final Jumac peer;
+    final LinkedBlockingQueue<Object[]> medium;
+    boolean drop;
+
+    LinkConfig(Jumac umac, JumacTicker ticker, Jumac peer, LinkedBlockingQueue<Object[]> medium,
+        boolean dropFirst) {
+      super(umac, ticker);
+      this.peer = peer;
+      this.medium = medium;
+      this.drop = dropFirst;
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+    }
+    @Override
+    public void tmo(char seqno) {
+      System.out.println("link TMO");
+      err++;
+    }
+    @Override
+    public void tx(byte b) {
+      tx(new byte[] {b}, 1);
+    }
+    @Override
+    public void tx(byte[] buf, int len) {
+      if (drop) {
+        // lose first packet, must be retransmitted
+        if (len == 2) drop = false;
+        return;
+      }
+      byte[] b = new byte[len];
+      System.arraycopy(buf, 0, b, 0, len);
+      medium.add(new Object[] {peer, b});
+    }
+    @Override
+    public long retryDelta(int tries) {
+      return 20;
+    }
+  }
+}
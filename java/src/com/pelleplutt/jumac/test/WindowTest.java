@@ -0,0 +1,146 @@
+package com.pelleplutt.jumac.test;
+
+import com.pelleplutt.jumac.Jumac;
+
+/**
+ * Sends numbered synchronized packets with a window over JumftSim lines,
+ * the receiver acking each with its number. Checks that no packet is
+ * delivered twice and that every ack carries the number of the packet it
+ * acks, through outages long enough for whole windows to time out, and
+ * through lost packets and lost and reordered acks.
+ */
+public class WindowTest {
+  static final int PACKETS = 600;
+  static final int DELAY = 50;
+
+  static int err;
+
+  static class Link extends JumftSim.SimConfig {
+    final Jumac u;
+    // number sent with each seqno
+    final int ids[] = new int[0x10];
+    final boolean delivered[] = new boolean[PACKETS];
+    final boolean acked[] = new boolean[PACKETS];
+    int sent, acks, tmos, dups, wrongAcks;
+    Link(Jumac u, JumftSim.Line out) {
+      super(out);
+      this.u = u;
+      u.setConfig(this);
+    }
+    void pump() {
+      while (sent < PACKETS) {
+        int res = u.txPacket(true, new byte[] {(byte)sent, (byte)(sent >> 8)}, (short)2);
+        if (res <= 0) {
+          break;
+        }
+        ids[res] = sent++;
+      }
+    }
+    @Override
+    public void rxPak(char seqno, byte[] data, int len, boolean req_ack) {
+      int id = (data[0] & 0xff) | ((data[1] & 0xff) << 8);
+      if (delivered[id]) {
+        dups++;
+      }
+      delivered[id] = true;
+      u.ackReply(data, (short)len);
+    }
+    @Override
+    public void rxAck(char seqno, byte[] data, int len) {
+      int id = (data[0] & 0xff) | ((data[1] & 0xff) << 8);
+      if (len != 2 || id != ids[seqno]) {
+        wrongAcks++;
+      } else {
+        acked[id] = true;
+      }
+      acks++;
+      pump();
+    }
+    @Override
+    public void tmo(char seqno) {
+      tmos++;
+      pump();
+    }
+  }
+
+  // frames either way lost for 1000 to 2200 ticks every 3000 ticks
+  static class OutageLine extends JumftSim.Line {
+    OutageLine(JumftSim sim) {
+      super(sim, false);
+    }
+    @Override
+    boolean lose(byte[] f) {
+      return sim.now % 3000 < 1000 + sim.now / 3000 * 200 % 1400;
+    }
+  }
+
+  // more acks than other frames lost at random, acks reordered
+  static class AckLossLine extends JumftSim.Line {
+    AckLossLine(JumftSim sim) {
+      super(sim, false);
+      reorder = true;
+    }
+    @Override
+    boolean lose(byte[] f) {
+      return super.lose(f) || ((f[1] >>> 6) & 3) == 2 && sim.rnd.nextDouble() < 0.3;
+    }
+  }
+
+  public static void main(String[] args) {
+    JumftSim sim = new JumftSim(DELAY, 0, 0, 0, 1);
+    Link la = run("outages", sim, new OutageLine(sim), new OutageLine(sim), 3);
+    if (la.tmos == 0 || la.acks < PACKETS / 4) {
+      System.out.println("expected both timeouts and acks");
+      err++;
+    }
+
+    sim = new JumftSim(DELAY, 0, 0, 0, 1);
+    sim.jitter = DELAY;
+    // a lost packet resent after newer ones must not make the receiver
+    // forget their acks, which are lost too
+    sim.frameLoss = 0.1;
+    la = run("10% loss, 30% acks lost, reordered", sim, new JumftSim.Line(sim, false), new AckLossLine(sim), 20);
+    if (la.tmos != 0) {
+      System.out.println("unexpected timeouts");
+      err++;
+    }
+
+    if (err != 0) {
+      System.exit(1);
+    }
+  }
+
+  static Link run(String name, JumftSim sim, JumftSim.Line toB, JumftSim.Line toA, int retries) {
+    Jumac ua = new Jumac(500, false, retries);
+    Jumac ub = new Jumac(500, false, retries);
+    Link la = new Link(ua, toB);
+    Link lb = new Link(ub, toA);
+    ua.setWindow(Jumac.UMAC_MAX_WINDOW);
+    ub.setWindow(Jumac.UMAC_MAX_WINDOW);
+    la.pump();
+    while (la.acks + la.tmos < PACKETS && sim.now < 1000000) {
+      sim.now++;
+      toB.step();
+      toA.step();
+      toB.deliver(ub);
+      toA.deliver(ua);
+      la.tick(ua);
+      lb.tick(ub);
+    }
+    // the receiver has the ones acked, and maybe some timed out
+    int missing = 0;
+    for (int i = 0; i < PACKETS; i++) {
+      if (la.acked[i] && !lb.delivered[i]) {
+        missing++;
+      }
+    }
+    System.out.format("%s: %d ticks, %d acked, %d timeouts, %d delivered twice, " +
+        "%d wrong acks, %d acked not delivered\n",
+        name, sim.now, la.acks, la.tmos, lb.dups, la.wrongAcks, missing);
+    if (la.acks + la.tmos != PACKETS || lb.dups != 0 || la.wrongAcks != 0 || missing != 0) {
+      System.out.println("expected each packet acked with its number or timed out, delivered once");
+      err++;
+    }
+    return la;
+  }
+}